@@ -30,16 +30,39 @@
 
 package com.brianwolter.etc;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 
+import java.lang.ref.WeakReference;
+import java.lang.ref.ReferenceQueue;
+
+import java.util.Map;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.Iterator;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.ArrayDeque;
 
 import java.util.concurrent.Executors;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.log4j.Logger;
 
@@ -47,10 +70,22 @@ import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.SettableFuture;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.base.Function;
 
 import com.brianwolter.etc.marshal.NativeMarshaler;
 import com.brianwolter.etc.marshal.PrimitiveMarshaler;
 import com.brianwolter.etc.util.Property;
+import com.brianwolter.etc.util.Binder;
+import com.brianwolter.etc.util.Typecast;
+import com.brianwolter.etc.util.Expirable;
+import com.brianwolter.etc.util.Change;
+import com.brianwolter.etc.util.BinaryProperty;
+import com.brianwolter.etc.util.Backoff;
+import com.brianwolter.etc.util.Manifest;
+import com.brianwolter.etc.util.Template;
 
 /**
  * A configuration.
@@ -59,9 +94,30 @@ public class Config {
   
   private static final Logger           logger    = Logger.getLogger(Config.class.getName());
   private static final ExecutorService  executor  = Executors.newSingleThreadExecutor();
+  private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setDaemon(true).setNameFormat("etc-config-scheduler").build());
+  private static final Backoff          backoff   = new Backoff(100, 30000, TimeUnit.MILLISECONDS);
+  private static final ListeningExecutorService resolver = MoreExecutors.listeningDecorator(Executors.newCachedThreadPool(new ThreadFactoryBuilder().setDaemon(true).setNameFormat("etc-config-resolver-%d").build()));
   
   protected final List<Provider> _providers;
   
+  private final Object            _lock     = new Object();
+  private volatile Snapshot       _snapshot = Boolean.getBoolean("etc.config.offheap") ? new OffHeapSnapshot() : Snapshot.EMPTY;
+  private volatile boolean        _parallel = Boolean.getBoolean("etc.config.parallel");
+  private volatile long           _timeout  = TimeUnit.MILLISECONDS.toNanos(Long.getLong("etc.config.timeout", 0));
+  private volatile long           _prefetchTTL = TimeUnit.MILLISECONDS.toNanos(Long.getLong("etc.config.prefetch.ttl", 30000));
+  private volatile long           _warmup   = TimeUnit.MILLISECONDS.toNanos(Long.getLong("etc.config.warmup", 60000));
+  private volatile boolean        _counting = true;
+  private final long              _created  = System.nanoTime();
+  private final AtomicLong        _timeouts = new AtomicLong();
+  private final AtomicLong        _rejections = new AtomicLong();
+  private final List<PrefixValidator> _validators = new CopyOnWriteArrayList<PrefixValidator>();
+  
+  private final Set<ValueReference>   _references = Collections.newSetFromMap(new ConcurrentHashMap<ValueReference, Boolean>());
+  private final ReferenceQueue<Value> _queue      = new ReferenceQueue<Value>();
+  
+  private final ConcurrentMap<String, AtomicLong> _accesses   = new ConcurrentHashMap<String, AtomicLong>();
+  private final ConcurrentMap<String, Property>   _prefetched = new ConcurrentHashMap<String, Property>();
+  
   /**
    * Construct with providers
    */
@@ -107,6 +163,122 @@ public class Config {
     return false;
   }
   
+  /**
+   * Determine if values are resolved from every provider in parallel.
+   */
+  public boolean isParallel() {
+    return _parallel;
+  }
+  
+  /**
+   * Resolve values from every provider in parallel rather than one at a time. The
+   * result is the same, since providers still take precedence in order, but a miss
+   * costs the latency of the slowest provider rather than the sum of them all. The
+   * default is taken from the <code>etc.config.parallel</code> system property.
+   */
+  public Config setParallel(boolean parallel) {
+    _parallel = parallel;
+    return this;
+  }
+  
+  /**
+   * Obtain the deadline applied to reads of configuration values, or zero if reads
+   * are not bounded.
+   */
+  public long getTimeout(TimeUnit unit) {
+    return unit.convert(_timeout, TimeUnit.NANOSECONDS);
+  }
+  
+  /**
+   * Bound reads of configuration values by the specified timeout. A read which
+   * doesn't complete in time produces the last known value for its key, or its
+   * default, rather than waiting on a stalled provider. Zero disables the timeout.
+   * The default is taken from the <code>etc.config.timeout</code> system property,
+   * in milliseconds.
+   */
+  public Config setTimeout(long timeout, TimeUnit unit) {
+    if(timeout < 0) throw new IllegalArgumentException("Timeout must not be negative");
+    _timeout = unit.toNanos(timeout);
+    return this;
+  }
+  
+  /**
+   * Obtain how long a prefetched property is retained for a value to read it.
+   */
+  public long getPrefetchTTL(TimeUnit unit) {
+    return unit.convert(_prefetchTTL, TimeUnit.NANOSECONDS);
+  }
+  
+  /**
+   * Retain prefetched properties for no longer than the specified duration. A value
+   * watches for changes from the property it reads, and a provider only retains so
+   * much history, so a value read long after prefetching is resolved again instead.
+   * The default is taken from the <code>etc.config.prefetch.ttl</code> system
+   * property, in milliseconds.
+   */
+  public Config setPrefetchTTL(long ttl, TimeUnit unit) {
+    if(ttl < 0) throw new IllegalArgumentException("TTL must not be negative");
+    _prefetchTTL = unit.toNanos(ttl);
+    return this;
+  }
+  
+  /**
+   * Obtain how long after creation accesses are counted.
+   */
+  public long getWarmup(TimeUnit unit) {
+    return unit.convert(_warmup, TimeUnit.NANOSECONDS);
+  }
+  
+  /**
+   * Count accesses for a manifest for the specified duration after this
+   * configuration is created, which should cover startup. Reads after that are not
+   * counted, so a warm value is read without writing to a shared counter. The
+   * default is taken from the <code>etc.config.warmup</code> system property, in
+   * milliseconds.
+   */
+  public Config setWarmup(long warmup, TimeUnit unit) {
+    if(warmup < 0) throw new IllegalArgumentException("Warmup must not be negative");
+    _warmup = unit.toNanos(warmup);
+    _counting = System.nanoTime() - _created < _warmup;
+    return this;
+  }
+  
+  /**
+   * Obtain the number of reads which have timed out
+   */
+  public long timeouts() {
+    return _timeouts.get();
+  }
+  
+  /**
+   * Validate changes to every value whose key begins with the specified prefix. A
+   * change which is rejected, or which can't be unmarshaled, is logged and counted
+   * and the value retains what it had before. Validators for a prefix are consulted
+   * before those of the value itself.
+   */
+  public Config validate(String prefix, Validator<Object> validator) {
+    if(prefix == null) throw new IllegalArgumentException("Prefix must not be null");
+    if(validator == null) throw new IllegalArgumentException("Validator must not be null");
+    _validators.add(new PrefixValidator(prefix, validator));
+    return this;
+  }
+  
+  /**
+   * Obtain the number of changes which have been rejected as invalid
+   */
+  public long rejections() {
+    return _rejections.get();
+  }
+  
+  /**
+   * Validate a value against the validators for prefixes of its key
+   */
+  private void validate(String key, Object value) throws ConfigException {
+    for(PrefixValidator validator : _validators){
+      if(key.startsWith(validator._prefix)) validator._validator.validate(key, value);
+    }
+  }
+  
   /**
    * Obtain a configuration value for the specified path.
    * 
@@ -157,227 +329,2439 @@ public class Config {
     return this.new Value<V>(key, marshaler, ifnull);
   }
   
+  /**
+   * Obtain a view of every configuration value beneath the specified prefix. The
+   * subtree is resolved as a whole, with one request per hierarchical provider.
+   * 
+   * @param prefix the configuration key prefix
+   * @return a view of the values beneath the specified prefix
+   */
+  public View view(String prefix) {
+    return this.new View(prefix);
+  }
+  
+  /**
+   * Obtain a live directory of the entries beneath the specified prefix. The
+   * directory is listed once and then maintained incrementally as entries are
+   * added, updated, deleted and expire.
+   * 
+   * @param prefix the configuration key prefix
+   * @return a directory of the entries beneath the specified prefix
+   */
+  public Directory directory(String prefix) {
+    return this.new Directory(prefix);
+  }
+  
+  /**
+   * Obtain a value interpolated from a template, such as
+   * <code>${db.host}:${db.port}</code>. The template is parsed once and its
+   * references are resolved and monitored, as are the references in their values,
+   * so the result is only recomputed when a value it depends on changes.
+   * 
+   * @param template the template
+   * @return the interpolated value
+   * @see com.brianwolter.etc.util.Template
+   */
+  public Interpolated template(String template) {
+    return this.new Interpolated(template);
+  }
+  
+  /**
+   * Obtain the value for the specified key with any references it contains
+   * interpolated.
+   * 
+   * @param key the configuration value key
+   * @return the interpolated value
+   */
+  public Interpolated interpolate(String key) {
+    return this.new Interpolated("${"+ key +"}");
+  }
+  
+  /**
+   * Obtain a stream of every change beneath the specified prefix, in index order,
+   * beginning at the specified provider index. Changes are buffered up to the
+   * capacity given by the <code>etc.config.changes.buffer</code> system property
+   * (default 4096).
+   * 
+   * @param prefix the configuration key prefix
+   * @param index the index of the first change to deliver, or zero to deliver
+   * changes made from now on
+   * @return a stream of changes beneath the specified prefix
+   */
+  public Changes changes(String prefix, long index) {
+    return changes(prefix, index, Integer.getInteger("etc.config.changes.buffer", 4096));
+  }
+  
+  /**
+   * Obtain a stream of every change beneath the specified prefix, in index order,
+   * beginning at the specified provider index and buffering no more than the
+   * specified number of changes. The stream stops watching while its buffer is
+   * full and resumes from where it left off once changes are consumed.
+   * 
+   * @param prefix the configuration key prefix
+   * @param index the index of the first change to deliver, or zero to deliver
+   * changes made from now on
+   * @param capacity the maximum number of changes to buffer
+   * @return a stream of changes beneath the specified prefix
+   */
+  public Changes changes(String prefix, long index, int capacity) {
+    Changes changes = this.new Changes(prefix, index, capacity);
+    changes.monitor();
+    return changes;
+  }
+  
+  /**
+   * Obtain the number of values created by this configuration which are still
+   * reachable. Values are held weakly; once one is no longer reachable its watch is
+   * cancelled and it is no longer counted.
+   */
+  public int values() {
+    expunge();
+    return _references.size();
+  }
+  
+  /**
+   * Obtain the number of reachable values which are currently watching for changes.
+   */
+  public int watches() {
+    expunge();
+    int count = 0;
+    for(ValueReference reference : _references){
+      ListenableFuture<Property> monitor;
+      if((monitor = reference._monitor) != null && !monitor.isDone()) count++;
+    }
+    return count;
+  }
+  
+  /**
+   * Register a value, which is held weakly.
+   */
+  private ValueReference register(Value value) {
+    expunge();
+    ValueReference reference = new ValueReference(value, _queue);
+    _references.add(reference);
+    return reference;
+  }
+  
+  /**
+   * Cancel the watches of values which are no longer reachable and forget them.
+   */
+  private void expunge() {
+    ValueReference reference;
+    while((reference = (ValueReference)_queue.poll()) != null){
+      _references.remove(reference);
+      ListenableFuture<Property> monitor;
+      if((monitor = reference._monitor) != null){
+        reference._monitor = null;
+        monitor.cancel(true);
+      }
+    }
+  }
+  
+  /**
+   * Obtain the number of times each key has been read through a value while
+   * warming up, for keys which were read at least once.
+   * 
+   * @see #setWarmup(long, TimeUnit)
+   */
+  public Map<String, Long> accesses() {
+    Map<String, Long> accesses = new HashMap<String, Long>();
+    for(Map.Entry<String, AtomicLong> e : _accesses.entrySet()){
+      long count;
+      if((count = e.getValue().get()) > 0) accesses.put(e.getKey(), count);
+    }
+    return accesses;
+  }
+  
+  /**
+   * Save a manifest of the keys which have been read, with how often, so they can
+   * be prefetched when the configuration is next created.
+   */
+  public void saveManifest(File file) throws IOException {
+    Manifest.write(accesses(), file);
+  }
+  
+  /**
+   * Prefetch the keys in a manifest in the background.
+   * 
+   * @see #prefetch(Collection)
+   */
+  public ListenableFuture<Integer> prefetch(File manifest) throws IOException {
+    return prefetch(Manifest.read(manifest));
+  }
+  
+  /**
+   * Prefetch the specified keys concurrently in the background. The first value to
+   * read a prefetched key uses the prefetched property instead of making a request,
+   * and watches for changes from it, so nothing that changes in the meantime is
+   * missed. Keys which cannot be prefetched, or which are not read before the
+   * prefetch TTL elapses, are simply resolved when they are read.
+   * 
+   * @param keys the keys to prefetch
+   * @return a future which produces the number of keys prefetched
+   * @see #setPrefetchTTL(long, TimeUnit)
+   */
+  public ListenableFuture<Integer> prefetch(Collection<String> keys) {
+    String stemp;
+    int threads;
+    if((stemp = System.getProperty("etc.config.prefetch.threads")) != null && !stemp.isEmpty()){
+      threads = Integer.valueOf(stemp);
+    }else{
+      threads = 8;
+    }
+    
+    final ListeningExecutorService prefetcher = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(Math.max(1, Math.min(threads, keys.size())), new ThreadFactoryBuilder().setDaemon(true).setNameFormat("etc-config-prefetch-%d").build()));
+    List<ListenableFuture<Boolean>> futures = new ArrayList<ListenableFuture<Boolean>>();
+    
+    for(final String key : keys){
+      futures.add(prefetcher.submit(new Callable<Boolean>() {
+        public Boolean call() {
+          try {
+            final Property property;
+            if((property = Config.this.__get(key)) == null) return false;
+            _prefetched.put(key, property);
+            Config.this.publish(key, property);
+            // discard it if it isn't read in time; it will be resolved again instead
+            scheduler.schedule(new Runnable() {
+              public void run() {
+                _prefetched.remove(key, property);
+              }
+            }, _prefetchTTL, TimeUnit.NANOSECONDS);
+            return true;
+          }catch(IOException e){
+            logger.warn("Could not prefetch configuration value: "+ key, e);
+            return false;
+          }
+        }
+      }));
+    }
+    prefetcher.shutdown();
+    
+    return Futures.transform(Futures.allAsList(futures), new Function<List<Boolean>, Integer>() {
+      public Integer apply(List<Boolean> results) {
+        int count = 0;
+        for(Boolean result : results){
+          if(result) count++;
+        }
+        return count;
+      }
+    });
+  }
+  
+  /**
+   * Obtain the access counter for a key
+   */
+  private AtomicLong counter(String key) {
+    AtomicLong counter, existing;
+    if((counter = _accesses.get(key)) == null){
+      if((existing = _accesses.putIfAbsent(key, counter = new AtomicLong())) != null) counter = existing;
+    }
+    return counter;
+  }
+  
+  /**
+   * Count an access while warming up, or stop counting once we're warm
+   */
+  private void count(AtomicLong counter) {
+    if(System.nanoTime() - _created < _warmup){
+      counter.incrementAndGet();
+    }else{
+      _counting = false;
+    }
+  }
+  
+  /**
+   * Obtain a single use prefetched property for a key, if one is available
+   */
+  private Property prefetched(String key) {
+    return _prefetched.isEmpty() ? null : _prefetched.remove(key);
+  }
+  
+  /**
+   * Obtain a consistent snapshot of every value currently cached by this
+   * configuration. The snapshot is immutable; a new one is published whenever a
+   * cached value changes.
+   */
+  public Snapshot snapshot() {
+    return _snapshot;
+  }
+  
+  /**
+   * Determine if cached values are kept off the heap.
+   */
+  public boolean isOffHeap() {
+    return _snapshot instanceof OffHeapSnapshot;
+  }
+  
+  /**
+   * Keep cached values off the heap, or on it. An off-heap snapshot is considerably
+   * more compact when a very large number of values is cached, at the cost of
+   * materializing a property each time one is read from it. Values already cached
+   * are carried over. The default is taken from the <code>etc.config.offheap</code>
+   * system property.
+   */
+  public Config setOffHeap(boolean offheap) {
+    synchronized(_lock){
+      if(offheap != isOffHeap()){
+        _snapshot = offheap ? OffHeapSnapshot.copyOf(_snapshot) : Snapshot.copyOf(_snapshot);
+      }
+    }
+    return this;
+  }
+  
+  /**
+   * Publish a new snapshot reflecting a changed value.
+   */
+  protected void publish(String key, Property property) {
+    publish(null, Collections.singletonMap(key, property));
+  }
+  
+  /**
+   * Publish a new snapshot reflecting several changed values at once. If a prefix
+   * is provided, cached values beneath it which are not changed are removed.
+   */
+  protected void publish(String prefix, Map<String, Property> changes) {
+    synchronized(_lock){
+      _snapshot = _snapshot.apply(changes, prefix);
+    }
+  }
+  
+  /**
+   * Run a task after backing off for the specified attempt, so that failed monitors
+   * don't hammer a provider which is having trouble. This is also used by those
+   * which watch values themselves, such as flags.
+   */
+  public void retry(final Runnable task, int attempt) {
+    scheduler.schedule(new Runnable() {
+      public void run() {
+        try {
+          task.run();
+        }catch(ConfigException e){
+          logger.error("Could not retry: "+ task, e);
+        }
+      }
+    }, backoff.delay(attempt), TimeUnit.MILLISECONDS);
+  }
+  
   /**
    * Obtain the value for the specified key from the first provider which defines one.
    */
   protected Property __get(String key) throws IOException {
-    Property property = null;
+    try {
+      return __get(key, 0);
+    }catch(TimeoutException e){
+      throw new IOException("Timed out getting configuration value: "+ key, e); // can't happen without a deadline
+    }
+  }
+  
+  /**
+   * Obtain the value for the specified key from the first provider which defines one,
+   * giving up at the specified deadline, in terms of {@link System#nanoTime}, unless
+   * it is zero.
+   */
+  protected Property __get(String key, long deadline) throws IOException, TimeoutException {
+    if(_parallel) return __getParallel(key, deadline);
+    try {
+      Property property;
+      for(Provider provider : _providers){
+        if(provider instanceof Provider.Observable){
+          if((property = lookup((Provider.Observable)provider, key, deadline)) != null) return property;
+        }
+      }
+      return null;
+    }catch(InterruptedException e){
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while getting configuration value: "+ key);
+    }
+  }
+  
+  /**
+   * Obtain the value for the specified key from the first provider which defines one,
+   * querying every provider concurrently. The first provider is queried on the calling
+   * thread while the others proceed in the background.
+   */
+  private Property __getParallel(final String key, final long deadline) throws IOException, TimeoutException {
+    List<ListenableFuture<Property>> futures = new ArrayList<ListenableFuture<Property>>();
+    Provider.Observable first = null;
+    
     for(Provider provider : _providers){
       if(provider instanceof Provider.Observable){
-        try {
-          if((property = ((Provider.Observable)provider).get(key)) != null) break;
-        }catch(InterruptedException e){
-          continue; // try the next one, I guess?
+        final Provider.Observable observable = (Provider.Observable)provider;
+        if(first == null){
+          first = observable;
+        }else{
+          futures.add(resolver.submit(new Callable<Property>() {
+            public Property call() throws Exception {
+              return lookup(observable, key, deadline);
+            }
+          }));
         }
       }
     }
-    return property;
+    
+    try {
+      
+      Property property;
+      if(first == null) return null;
+      if((property = lookup(first, key, deadline)) != null) return property;
+      
+      // results are considered in order of precedence, regardless of which arrived first
+      for(ListenableFuture<Property> future : futures){
+        if((property = (deadline != 0) ? future.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS) : future.get()) != null) return property;
+      }
+      
+      return null;
+      
+    }catch(InterruptedException e){
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while getting configuration value: "+ key);
+    }catch(ExecutionException e){
+      if(e.getCause() instanceof IOException) throw (IOException)e.getCause();
+      if(e.getCause() instanceof TimeoutException) throw (TimeoutException)e.getCause();
+      throw new IOException("Could not get configuration value: "+ key, e.getCause());
+    }finally{
+      // abandon lookups whose results are no longer needed
+      for(ListenableFuture<Property> future : futures) future.cancel(true);
+    }
+    
+  }
+  
+  /**
+   * Obtain the value for the specified key from a single provider, within the
+   * deadline if there is one. Providers which can't bound their reads are expected
+   * to answer promptly and are only consulted while time remains.
+   */
+  private static Property lookup(Provider.Observable provider, String key, long deadline) throws IOException, InterruptedException, TimeoutException {
+    if(deadline == 0) return provider.get(key);
+    long remaining;
+    if((remaining = deadline - System.nanoTime()) <= 0){
+      throw new TimeoutException("Timed out getting configuration value: "+ key);
+    }else if(provider instanceof Provider.Bounded){
+      return ((Provider.Bounded)provider).get(key, remaining, TimeUnit.NANOSECONDS);
+    }else{
+      return provider.get(key);
+    }
   }
   
   /**
    * Set a value for the specified key in the first mutable provider.
    */
   protected Property __set(String key, Object value) throws IOException {
-    for(Provider provider : _providers){
-      if(provider instanceof Provider.Mutable){
-        try {
+    try {
+      for(Provider provider : _providers){
+        if(provider instanceof Provider.Mutable){
           return ((Provider.Mutable)provider).set(key, value);
-        }catch(InterruptedException e){
-          continue; // try the next one, I guess?
         }
       }
+      return null;
+    }catch(InterruptedException e){
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while setting configuration value: "+ key);
     }
-    return null;
   }
   
   /**
-   * Watch the value for the specified key on the first monitorable provider.
+   * Set an expiring value for the specified key in the first expiring provider.
    */
-  protected ListenableFuture<Property> __watch(String key, Property previous) throws IOException {
-    for(Provider provider : _providers){
-      if(provider instanceof Provider.Monitorable){
-        return ((Provider.Monitorable)provider).watch(key, previous);
+  protected Property __set(String key, Object value, long ttl, TimeUnit unit) throws IOException {
+    try {
+      for(Provider provider : _providers){
+        if(provider instanceof Provider.Expiring){
+          return ((Provider.Expiring)provider).set(key, value, ttl, unit);
+        }
       }
+      return null;
+    }catch(InterruptedException e){
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while setting configuration value: "+ key);
     }
-    return null;
   }
   
   /**
-   * String description
+   * Watch the value for the specified key on every monitorable provider, delivering
+   * the first change which is not shadowed by a provider that takes precedence.
    */
-  public String toString() {
-    return String.format("<Config %s>", _providers);
+  protected ListenableFuture<Property> __watch(String key, Property previous) throws IOException {
+    return new Watch(key, false).next(previous);
   }
   
   /**
-   * A configuration value
+   * Watch every value beneath the specified prefix on every recursive provider,
+   * delivering the first change reported by any of them.
    */
-  public class Value <V> {
+  protected ListenableFuture<Property> __watchTree(String prefix, Property previous) throws IOException {
+    return new Watch(prefix, true).next(previous);
+  }
+  
+  /**
+   * Watch every change beneath the specified prefix on the first sequenced provider.
+   * Change indexes are only meaningful to the provider which reported them, so an
+   * ordered stream of changes cannot span providers.
+   */
+  protected ListenableFuture<Property> __watchSequence(String prefix, Property previous) throws IOException {
+    for(Provider provider : _providers){
+      if(provider instanceof Provider.Sequenced){
+        return ((Provider.Sequenced)provider).watchTree(prefix, previous);
+      }
+    }
+    return null;
+  }
+  
+  /**
+   * A watch on a key, or on every key beneath a prefix, across every provider which
+   * can monitor it. Each round watches every provider and completes with the first
+   * change any of them reports. Every provider resumes from the last change it
+   * reported itself, so a change from one provider never causes a concurrent change
+   * in another to be missed.
+   */
+  private class Watch {
     
-    private String                      _key;
-    private Marshaler<V>                _marshaler;
-    private V                           _ifnull;
-    private V                           _value;
-    private boolean                     _autoupdate;
-    private Property                    _previous;
-    private ListenableFuture<Property>  _monitor;
-    private SettableFuture<V>           _watcher;
+    private final String                  _key;
+    private final boolean                 _recursive;
+    private final List<Provider>          _monitored;
+    private final Map<Provider, Property> _positions;
+    private volatile Provider             _source;
+    
+    private Watch(String key, boolean recursive) {
+      _key = key;
+      _recursive = recursive;
+      _monitored = new ArrayList<Provider>();
+      for(Provider provider : _providers){
+        if(recursive ? provider instanceof Provider.Recursive : provider instanceof Provider.Monitorable){
+          _monitored.add(provider);
+        }
+      }
+      _positions = new HashMap<Provider, Property>();
+    }
     
     /**
-     * Construct a configuration value with the specified key
+     * Resume watching the specified provider from a property it produced, such as
+     * a listing.
      */
-    protected Value(String key, Marshaler<V> marshaler, V ifnull) {
-      if((_key = key) == null || _key.isEmpty()) throw new IllegalArgumentException("Key must not be null or empty");
-      if((_marshaler = marshaler) == null) throw new IllegalArgumentException("Marshaler must not be null");
-      _ifnull = ifnull;
+    private synchronized void position(Provider provider, Property property) {
+      _positions.put(provider, property);
     }
     
     /**
-     * Obtain the current value
+     * Obtain the provider which reported the change most recently delivered.
      */
-    public synchronized V get() throws ConfigException {
-      return get(null);
+    private Provider source() {
+      return _source;
     }
     
     /**
-     * Obtain the current value
+     * Watch for the next change. Providers which have not reported a change yet
+     * resume from the specified property.
      */
-    public synchronized V get(V ifnull) throws ConfigException {
-      try {
-        if(_value == null){
-          if((_previous = Config.this.__get(_key)) != null){
-            _value = _marshaler.unmarshal(_previous.value());
-            if(_autoupdate) monitor();
-          }else{
-            _value = (_ifnull != null) ? _ifnull : ifnull;
+    private synchronized ListenableFuture<Property> next(Property previous) throws IOException {
+      if(_monitored.isEmpty()) return null;
+      
+      final SettableFuture<Property> round = SettableFuture.create();
+      final List<ListenableFuture<Property>> watches = new ArrayList<ListenableFuture<Property>>();
+      
+      // once this round is decided the watches on every other provider are abandoned
+      round.addListener(new Runnable() {
+        public void run() {
+          synchronized(watches){
+            for(ListenableFuture<Property> watch : watches) watch.cancel(true);
           }
         }
-        return _value;
+      }, MoreExecutors.sameThreadExecutor());
+      
+      try {
+        for(Provider provider : _monitored){
+          watch(provider, _positions.containsKey(provider) ? _positions.get(provider) : previous, round, watches);
+        }
+      }catch(IOException e){
+        round.cancel(true);
+        throw e;
+      }
+      
+      return round;
+    }
+    
+    /**
+     * Watch a single provider on behalf of a round.
+     */
+    private void watch(final Provider provider, Property position, final SettableFuture<Property> round, final List<ListenableFuture<Property>> watches) throws IOException {
+      ListenableFuture<Property> watch = _recursive ? ((Provider.Recursive)provider).watchTree(_key, position) : ((Provider.Monitorable)provider).watch(_key, position);
+      
+      synchronized(watches){
+        watches.add(watch);
+      }
+      
+      // the round may have been decided while we were starting this watch
+      if(round.isDone()){
+        watch.cancel(true);
+        return;
+      }
+      
+      Futures.addCallback(watch, new FutureCallback<Property>() {
+        public void onSuccess(Property mutation) {
+          changed(provider, mutation, round, watches);
+        }
+        public void onFailure(Throwable thrown) {
+          Watch.this.failed(provider, round, thrown);
+        }
+      }, resolver);
+      
+    }
+    
+    /**
+     * A provider reported a change. Changes to a single key which are shadowed by a
+     * provider that takes precedence are not delivered; the provider is watched
+     * again from that change instead.
+     */
+    private synchronized void changed(Provider provider, Property mutation, SettableFuture<Property> round, List<ListenableFuture<Property>> watches) {
+      if(round.isDone()) return;
+      try {
+        Property delivered;
+        _positions.put(provider, mutation);
+        if((delivered = _recursive ? mutation : resolve(provider, mutation)) == null){
+          watch(provider, mutation, round, watches);
+        }else{
+          _source = provider;
+          round.set(delivered);
+        }
+      }catch(InterruptedException e){
+        Thread.currentThread().interrupt();
+        round.setException(e);
+      }catch(Exception e){
+        round.setException(e);
+      }
+    }
+    
+    /**
+     * A provider's watch failed. The position it was watching from may be what
+     * failed, such as one which has been cleared from its history, so it resumes
+     * from whatever it is next given rather than from there.
+     */
+    private synchronized void failed(Provider provider, SettableFuture<Property> round, Throwable thrown) {
+      if(!(thrown instanceof CancellationException)) _positions.remove(provider);
+      round.setException(thrown);
+    }
+    
+    /**
+     * Resolve a change to a single key reported by the specified provider against
+     * every other provider. A change beneath a provider which defines the key is
+     * shadowed and resolves to null. A removed key falls back to the next provider
+     * which defines it.
+     */
+    private Property resolve(Provider source, Property mutation) throws IOException, InterruptedException {
+      boolean preceding = true;
+      Property property;
+      for(Provider provider : _providers){
+        if(provider == source){
+          if(mutation.value() != null) return mutation;
+          preceding = false;
+        }else if(provider instanceof Provider.Observable && (property = ((Provider.Observable)provider).get(_key)) != null){
+          return preceding ? null : property;
+        }
+      }
+      return mutation;
+    }
+    
+  }
+  
+  /**
+   * The properties beneath a prefix as listed by each hierarchical provider. The
+   * layers are merged so that earlier providers take precedence, and a change is
+   * applied only to the layer of the provider which reported it.
+   */
+  private class Layers {
+    
+    private final String                                _prefix;
+    private final Map<Provider, Map<String, Property>>  _layers;
+    private Map<String, Property>                       _merged;
+    
+    private Layers(String prefix) {
+      _prefix = prefix;
+      _layers = new HashMap<Provider, Map<String, Property>>();
+      _merged = Collections.<String, Property>emptyMap();
+    }
+    
+    /**
+     * List every layer, resuming the specified watch from each listing.
+     */
+    private void list(Watch watch) throws IOException, InterruptedException {
+      for(Provider provider : _providers){
+        if(provider instanceof Provider.Hierarchical) list(provider, watch);
+      }
+    }
+    
+    /**
+     * List the layer of a single provider, resuming the specified watch from the
+     * listing.
+     */
+    private void list(Provider provider, Watch watch) throws IOException, InterruptedException {
+      Map<String, Property> layer = new HashMap<String, Property>();
+      Property listing;
+      if((listing = ((Provider.Hierarchical)provider).list(_prefix)) != null){
+        layer.putAll((Map<String, Property>)listing.value());
+      }
+      _layers.put(provider, layer);
+      watch.position(provider, listing);
+      merge();
+    }
+    
+    /**
+     * Apply a change reported by the specified provider to its layer. The changes
+     * to the merged properties, keyed fully, are returned.
+     */
+    private Map<String, Property> apply(Provider source, Change change) {
+      Map<String, Property> changes = new HashMap<String, Property>();
+      String key = change.key();
+      String base = _prefix +".";
+      
+      Map<String, Property> layer;
+      if((layer = _layers.get(source)) == null) return changes;
+      
+      Set<String> affected = new HashSet<String>();
+      if(key.equals(_prefix)){
+        // the prefix itself was removed, along with everything beneath it
+        if(change.action() == Change.Action.DELETE || change.action() == Change.Action.EXPIRE){
+          affected.addAll(layer.keySet());
+          layer.clear();
+        }
+      }else if(key.startsWith(base)){
+        String relative = key.substring(base.length());
+        switch(change.action()){
+          case DELETE:
+          case EXPIRE:
+            // directories are deleted and expire as a whole
+            String beneath = relative +".";
+            for(Iterator<String> i = layer.keySet().iterator(); i.hasNext(); ){
+              String candidate = i.next();
+              if(candidate.equals(relative) || candidate.startsWith(beneath)){
+                affected.add(candidate);
+                i.remove();
+              }
+            }
+            break;
+          default:
+            // directories are created without a value; they only matter once populated
+            if(change.value() == null) break;
+            layer.put(relative, change);
+            affected.add(relative);
+            break;
+        }
+      }
+      
+      if(affected.isEmpty()) return changes;
+      
+      Map<String, Property> merged = new HashMap<String, Property>(_merged);
+      for(String relative : affected){
+        Property property;
+        if((property = resolve(relative)) != null){
+          merged.put(relative, property);
+        }else{
+          merged.remove(relative);
+        }
+        changes.put(base + relative, property);
+      }
+      
+      _merged = merged;
+      return changes;
+    }
+    
+    /**
+     * Obtain the merged values, keyed relative to the prefix.
+     */
+    private Map<String, Object> values() {
+      Map<String, Object> values = new HashMap<String, Object>();
+      for(Map.Entry<String, Property> e : _merged.entrySet()){
+        values.put(e.getKey(), e.getValue().value());
+      }
+      return Collections.unmodifiableMap(values);
+    }
+    
+    /**
+     * Obtain the merged properties, keyed fully.
+     */
+    private Map<String, Property> properties() {
+      Map<String, Property> properties = new HashMap<String, Property>();
+      for(Map.Entry<String, Property> e : _merged.entrySet()){
+        properties.put(_prefix +"."+ e.getKey(), e.getValue());
+      }
+      return properties;
+    }
+    
+    /**
+     * Resolve a key relative to the prefix from the first layer which defines it.
+     */
+    private Property resolve(String relative) {
+      Map<String, Property> layer;
+      Property property;
+      for(Provider provider : _providers){
+        if((layer = _layers.get(provider)) != null && (property = layer.get(relative)) != null) return property;
+      }
+      return null;
+    }
+    
+    /**
+     * Merge every layer; earlier providers take precedence.
+     */
+    private void merge() {
+      Map<String, Property> merged = new HashMap<String, Property>();
+      Map<String, Property> layer;
+      for(int i = _providers.size() - 1; i >= 0; i--){
+        if((layer = _layers.get(_providers.get(i))) != null) merged.putAll(layer);
+      }
+      _merged = merged;
+    }
+    
+  }
+  
+  /**
+   * String description
+   */
+  public String toString() {
+    return String.format("<Config %s>", _providers);
+  }
+  
+  /**
+   * A configuration value. Values are guarded by a lock rather than a monitor, so
+   * a virtual thread resolving a value doesn't pin its carrier while it waits on a
+   * provider, and a value which has been resolved is read without locking at all.
+   */
+  public class Value <V> {
+    
+    private final ReentrantLock         _mutex = new ReentrantLock();
+    private String                      _key;
+    private Marshaler<V>                _marshaler;
+    private V                           _ifnull;
+    private volatile V                  _value;
+    private boolean                     _autoupdate;
+    private boolean                     _expired;
+    private Property                    _previous;
+    private final Watch                 _watch;
+    private ListenableFuture<Property>  _monitor;
+    private SettableFuture<V>           _watcher;
+    private ScheduledFuture<?>          _expiry;
+    private int                         _failures;
+    private final ValueReference        _reference;
+    private final AtomicLong            _accesses;
+    private long                        _quiet;
+    private long                        _interval;
+    private Property                    _pending;
+    private long                        _changed;
+    private long                        _delivered;
+    private ScheduledFuture<?>          _delivery;
+    private List<Validator<? super V>>  _validators;
+    private long                        _rejections;
+    private boolean                     _rejected;
+    
+    /**
+     * Construct a configuration value with the specified key
+     */
+    protected Value(String key, Marshaler<V> marshaler, V ifnull) {
+      if((_key = key) == null || _key.isEmpty()) throw new IllegalArgumentException("Key must not be null or empty");
+      if((_marshaler = marshaler) == null) throw new IllegalArgumentException("Marshaler must not be null");
+      _ifnull = ifnull;
+      _watch = Config.this.new Watch(key, false);
+      _reference = Config.this.register(this);
+      _accesses = Config.this.counter(key);
+    }
+    
+    /**
+     * Obtain the current value
+     */
+    public V get() throws ConfigException {
+      return get(null);
+    }
+    
+    /**
+     * Obtain the current value, waiting no longer than the specified timeout for it
+     * to be resolved. If the value can't be resolved in time the last known value
+     * for our key is produced if there is one, otherwise our default is.
+     */
+    public V get(long timeout, TimeUnit unit) throws ConfigException {
+      return get(null, timeout, unit);
+    }
+    
+    /**
+     * Obtain the current value, bounded by the configuration's read timeout if it
+     * has one.
+     */
+    public V get(V ifnull) throws ConfigException {
+      return get(ifnull, _timeout, TimeUnit.NANOSECONDS);
+    }
+    
+    /**
+     * Obtain the current value, waiting no longer than the specified timeout for it
+     * to be resolved. A timeout of zero waits indefinitely.
+     */
+    public V get(V ifnull, long timeout, TimeUnit unit) throws ConfigException {
+      if(_counting) Config.this.count(_accesses);
+      
+      // a resolved value is read without locking
+      V value;
+      if((value = _value) != null) return value;
+      
+      _mutex.lock();
+      try {
+        if(_value == null){
+          if(_expired && _autoupdate){
+            // our monitor will tell us if the value is set again
+            return (_ifnull != null) ? _ifnull : ifnull;
+          }else if(_rejected){
+            // the value we read was rejected; don't read it again until a new one is delivered
+            return (_ifnull != null) ? _ifnull : ifnull;
+          }else if((_previous = Config.this.prefetched(_key)) != null || (_previous = Config.this.__get(_key, (timeout > 0) ? System.nanoTime() + unit.toNanos(timeout) : 0)) != null){
+            try {
+              _value = validated(_previous);
+            }catch(ConfigException e){
+              // an invalid value is treated as though there were none
+              rejected(_previous, e);
+              _rejected = true;
+              if(_autoupdate) monitor();
+              return (_ifnull != null) ? _ifnull : ifnull;
+            }
+            Config.this.publish(_key, _previous);
+            expireAt(_previous);
+            if(_autoupdate) monitor();
+          }else{
+            _value = (_ifnull != null) ? _ifnull : ifnull;
+          }
+        }
+        return _value;
+      }catch(TimeoutException e){
+        return timedOut(ifnull);
+      }catch(IOException e){
+        throw new ConfigException("Could not get configuration value: "+ this, e);
+      }finally{
+        _mutex.unlock();
+      }
+    }
+    
+    /**
+     * Produce a value for a read which timed out: the last value published for our
+     * key, if any, otherwise our default. Nothing is cached, so the next read tries
+     * again.
+     */
+    private V timedOut(V ifnull) throws ConfigException {
+      Config.this._timeouts.incrementAndGet();
+      if(logger.isDebugEnabled()) logger.debug("Timed out getting configuration value: "+ this);
+      Property property;
+      try {
+        if((property = Config.this._snapshot.property(_key)) != null) return unmarshal(property);
       }catch(IOException e){
         throw new ConfigException("Could not get configuration value: "+ this, e);
       }
+      return (_ifnull != null) ? _ifnull : ifnull;
+    }
+    
+    /**
+     * Set the current value. A value which is not valid is not set.
+     */
+    public V set(V value) throws ConfigException {
+      _mutex.lock();
+      try {
+        validate(value);
+        _rejected = false;
+        try {
+          Property property;
+          if((property = Config.this.__set(_key, _marshaler.marshal(value))) != null){
+            _value = unmarshal(property);
+            _previous = property;
+            Config.this.publish(_key, property);
+            expireAt(property);
+            if(_autoupdate) monitor();
+          }else{
+            _value = value;
+          }
+          return _value;
+        }catch(IOException e){
+          throw new ConfigException("Could not set configuration value: "+ this, e);
+        }
+      }finally{
+        _mutex.unlock();
+      }
+    }
+    
+    /**
+     * Set the current value, which expires after the specified time to live.
+     */
+    public V set(V value, long ttl, TimeUnit unit) throws ConfigException {
+      _mutex.lock();
+      try {
+        validate(value);
+        _rejected = false;
+        try {
+          Property property;
+          if((property = Config.this.__set(_key, _marshaler.marshal(value), ttl, unit)) == null){
+            throw new ConfigException("No provider supports expiring values: "+ this);
+          }
+          _value = unmarshal(property);
+          _previous = property;
+          Config.this.publish(_key, property);
+          expireAt(property);
+          if(_autoupdate) monitor();
+          return _value;
+        }catch(IOException e){
+          throw new ConfigException("Could not set configuration value: "+ this, e);
+        }
+      }finally{
+        _mutex.unlock();
+      }
+    }
+    
+    /**
+     * Unmarshal the value of a property. Binary properties are unmarshaled directly
+     * from their bytes when our marshaler supports it.
+     */
+    private V unmarshal(Property property) throws IOException {
+      if(property instanceof BinaryProperty && _marshaler instanceof Marshaler.Binary){
+        return ((Marshaler.Binary<V>)_marshaler).unmarshal(((BinaryProperty)property).bytes());
+      }else{
+        return _marshaler.unmarshal(property.value());
+      }
+    }
+    
+    /**
+     * Add a validator for changes to this value
+     */
+    public Value<V> validate(Validator<? super V> validator) {
+      _mutex.lock();
+      try {
+        if(validator == null) throw new IllegalArgumentException("Validator must not be null");
+        if(_validators == null) _validators = new ArrayList<Validator<? super V>>();
+        _validators.add(validator);
+        return this;
+      }finally{
+        _mutex.unlock();
+      }
+    }
+    
+    /**
+     * Obtain the number of changes to this value which have been rejected
+     */
+    public long rejections() {
+      _mutex.lock();
+      try {
+        return _rejections;
+      }finally{
+        _mutex.unlock();
+      }
+    }
+    
+    /**
+     * Validate a value against the validators for our key and our own
+     */
+    private void validate(V value) throws ConfigException {
+      Config.this.validate(_key, value);
+      if(_validators != null){
+        for(Validator<? super V> validator : _validators) validator.validate(_key, value);
+      }
+    }
+    
+    /**
+     * Unmarshal and validate a property
+     */
+    private V validated(Property property) throws ConfigException {
+      V value;
+      try {
+        value = unmarshal(property);
+      }catch(IOException e){
+        throw new ConfigException("Could not unmarshal configuration value: "+ this, e);
+      }catch(RuntimeException e){
+        throw new ConfigException("Could not unmarshal configuration value: "+ this, e);
+      }
+      validate(value);
+      return value;
+    }
+    
+    /**
+     * Note a change which was rejected. We monitor onward from it regardless, so it
+     * isn't delivered to us again.
+     */
+    private void rejected(Property property, ConfigException e) {
+      _previous = property;
+      _rejections++;
+      Config.this._rejections.incrementAndGet();
+      logger.warn("Rejected change to configuration value, retaining the previous value: "+ this, e);
+    }
+    
+    /**
+     * Schedule our cached value to expire when the specified property does, if it
+     * expires at all. Any previously scheduled expiration is cancelled.
+     */
+    private void expireAt(Property property) {
+      _mutex.lock();
+      try {
+        _expired = false;
+
+        if(_expiry != null){
+          _expiry.cancel(false);
+          _expiry = null;
+        }
+
+        long expiration;
+        if(property instanceof Expirable && (expiration = ((Expirable)property).expiration()) > 0){
+          _expiry = scheduler.schedule(new ValueExpiration(_reference, property), Math.max(0, expiration - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        }
+      }finally{
+        _mutex.unlock();
+      }
+    }
+    
+    /**
+     * Expire our cached value locally, if it is still the specified property.
+     */
+    private void expire(Property property) {
+      _mutex.lock();
+      try {
+        if(_previous != property) return;
+
+        // clear the value, it's expired
+        _value = null;
+        _expired = true;
+        _expiry = null;
+        Config.this.publish(_key, (Property)null);
+
+        // process the watcher future if we have one
+        SettableFuture<V> watcher;
+        if((watcher = _watcher) != null){
+          // clear it first
+          _watcher = null;
+          // propagate the default value
+          watcher.set(_ifnull);
+        }
+      }finally{
+        _mutex.unlock();
+      }
+    }
+    
+    /**
+     * Mark this value for auto-updating. The value will begin monitoring itself after
+     * it is first accessed.
+     */
+    public Value<V> autoUpdate() throws ConfigException {
+      _mutex.lock();
+      try {
+        // mark as auto-updating
+        _autoupdate = true;
+        // return this value, for chaining
+        return this;
+      }finally{
+        _mutex.unlock();
+      }
+    }
+    
+    /**
+     * Deliver changes to this value only once it has been quiet, without changing
+     * again, for the specified period. Changes in between are skipped; they are
+     * never unmarshaled and never reach watchers. Zero delivers every change.
+     */
+    public Value<V> debounce(long quiet, TimeUnit unit) {
+      _mutex.lock();
+      try {
+        if(quiet < 0) throw new IllegalArgumentException("Quiet period must not be negative");
+        _quiet = unit.toNanos(quiet);
+        return this;
+      }finally{
+        _mutex.unlock();
+      }
+    }
+    
+    /**
+     * Deliver no more than one change to this value per interval. A change which
+     * arrives too soon is held until the interval has elapsed, and is replaced by
+     * any later change in the meantime. Zero delivers every change.
+     */
+    public Value<V> throttle(long interval, TimeUnit unit) {
+      _mutex.lock();
+      try {
+        if(interval < 0) throw new IllegalArgumentException("Interval must not be negative");
+        _interval = unit.toNanos(interval);
+        _delivered = System.nanoTime() - _interval; // the first change is not held
+        return this;
+      }finally{
+        _mutex.unlock();
+      }
+    }
+    
+    /**
+     * Stop auto-updating this value. The outstanding watch, if any, is cancelled,
+     * which aborts its request and releases its connection. The current value is
+     * retained; a pending watcher future is cancelled.
+     */
+    public Value<V> cancel() {
+      _mutex.lock();
+      try {
+        _autoupdate = false;
+
+        ListenableFuture<Property> monitor;
+        if((monitor = _monitor) != null){
+          _monitor = null;
+          _reference._monitor = null;
+          monitor.cancel(true);
+        }
+
+        SettableFuture<V> watcher;
+        if((watcher = _watcher) != null){
+          _watcher = null;
+          watcher.cancel(false);
+        }
+
+        // changes being held are dropped
+        _pending = null;
+        if(_delivery != null){
+          _delivery.cancel(false);
+          _delivery = null;
+        }
+
+        return this;
+      }finally{
+        _mutex.unlock();
+      }
+    }
+    
+    /**
+     * Begin monitoring this value.
+     */
+    private void monitor() throws ConfigException {
+      _mutex.lock();
+      try {
+        if(_monitor == null){
+          try {
+          
+            // create our monitor future by watching our key on every provider
+            if((_monitor = _watch.next(_previous)) == null){
+              // no monitorable providers; just return, we don't throw an exception
+              return;
+            }
+          
+            // note it so it can be cancelled if we become unreachable
+            _reference._monitor = _monitor;
+          
+            // process callbacks; these only refer to us weakly, since a pending watch
+            // must not keep an otherwise unreachable value alive
+            Futures.addCallback(_monitor, new ValueCallback(_reference), Config.this.executor);
+          
+          }catch(IOException e){
+            throw new ConfigException("Could not monitor configuration value: "+ this, e);
+          }
+        }
+      }finally{
+        _mutex.unlock();
+      }
+    }
+    
+    /**
+     * Update the value. If changes are debounced or throttled the change is held
+     * rather than delivered, but we continue monitoring from it regardless, so that
+     * a held change costs nothing more than replacing the one held before it.
+     */
+    private void update(Property mutation) throws ConfigException {
+      _mutex.lock();
+      try {
+        if(_quiet > 0 || _interval > 0){
+          // hold the change and watch for the next one
+          _previous = mutation;
+          _pending = mutation;
+          _changed = System.nanoTime();
+          _monitor = null;
+          _failures = 0;
+          if(_autoupdate) monitor();
+          // deliver it when it's due; at most one delivery is ever scheduled
+          if(_delivery == null) deliver();
+          return;
+        }
+
+        // clear this monitor, it just completed
+        _monitor = null;
+        // we're healthy again
+        _failures = 0;
+
+        accept(mutation);
+
+        // if we're auto-updating begin monitoring again
+        if(_autoupdate) monitor();
+      }finally{
+        _mutex.unlock();
+      }
+    }
+    
+    /**
+     * Deliver the change being held if it is due, otherwise schedule its delivery
+     * for when it will be. A debounced change which is replaced before its delivery
+     * simply pushes the delivery back when it runs.
+     */
+    private void deliver() throws ConfigException {
+      _mutex.lock();
+      try {
+        _delivery = null;
+
+        Property pending;
+        if((pending = _pending) == null) return;
+
+        long now = System.nanoTime();
+        long due = Math.max(_changed + _quiet, _delivered + _interval);
+        if(due - now > 0){
+          _delivery = scheduler.schedule(new ValueDelivery(_reference), due - now, TimeUnit.NANOSECONDS);
+          return;
+        }
+
+        _pending = null;
+        _delivered = now;
+        accept(pending);
+      }finally{
+        _mutex.unlock();
+      }
+    }
+    
+    /**
+     * Accept a change as our current value and notify our watcher, unless it is not
+     * valid, in which case our current value is retained and our watcher waits for
+     * the next change.
+     */
+    private void accept(Property mutation) throws ConfigException {
+      _mutex.lock();
+      try {
+        try {
+          _value = validated(mutation);
+          _rejected = false;
+        }catch(ConfigException e){
+          rejected(mutation, e);
+          return;
+        }
+
+        // update the context mutation
+        _previous = mutation;
+        // and publish it
+        Config.this.publish(_key, mutation);
+        // expire it if it expires
+        expireAt(mutation);
+
+        // process the watcher future if we have one
+        SettableFuture<V> watcher;
+        if((watcher = _watcher) != null){
+          // clear it first
+          _watcher = null;
+          // propagate the value
+          watcher.set(_value);
+        }
+      }finally{
+        _mutex.unlock();
+      }
+    }
+    
+    /**
+     * Update failed
+     */
+    private void failed(Throwable thrown) throws ConfigException {
+      _mutex.lock();
+      try {
+        // we cancelled this monitor ourselves; our value is still fine
+        if(thrown instanceof CancellationException) return;
+
+        // clear our value? it's invalid, and we may have missed a valid one since
+        _value = null;
+        _rejected = false;
+        // and don't watch from where we failed; our value is read again when next
+        // accessed, and monitoring resumes from that read, or from now
+        _previous = null;
+        // clear the monitor, it just completed
+        _monitor = null;
+        // if we're auto-updating begin monitoring again, after backing off
+        if(_autoupdate){
+          Config.this.retry(new Runnable() {
+            public void run() {
+              Value.this.monitor();
+            }
+          }, ++_failures);
+        }
+
+        // process the watcher future if we have one
+        SettableFuture<V> watcher;
+        if((watcher = _watcher) != null){
+          // clear it first
+          _watcher = null;
+          // propagate the exception
+          watcher.setException(thrown);
+        }
+      }finally{
+        _mutex.unlock();
+      }
+    }
+    
+    /**
+     * Monitor the current value
+     */
+    public ListenableFuture<V> watch() throws ConfigException {
+      _mutex.lock();
+      try {
+        if(_watcher == null){
+          // create our watcher future, which is shared
+          _watcher = SettableFuture.create();
+          // begin monitoring
+          monitor();
+        }
+        return _watcher;
+      }finally{
+        _mutex.unlock();
+      }
+    }
+    
+    /**
+     * String description
+     */
+    public String toString() {
+      return String.format("'%s' in %s", _key, Config.this);
+    }
+    
+  }
+  
+  /**
+   * A validator for the values beneath a prefix
+   */
+  private static class PrefixValidator {
+    
+    private final String            _prefix;
+    private final Validator<Object> _validator;
+    
+    private PrefixValidator(String prefix, Validator<Object> validator) {
+      _prefix = prefix;
+      _validator = validator;
+    }
+    
+  }
+  
+  /**
+   * A weak reference to a value which remembers the value's outstanding monitor, so
+   * the monitor can be cancelled once the value is no longer reachable.
+   */
+  private static class ValueReference extends WeakReference<Value> {
+    
+    private volatile ListenableFuture<Property> _monitor;
+    
+    private ValueReference(Value value, ReferenceQueue<Value> queue) {
+      super(value, queue);
+    }
+    
+  }
+  
+  /**
+   * Delivers monitor results to a value, if it is still reachable.
+   */
+  private static class ValueCallback implements FutureCallback<Property> {
+    
+    private final ValueReference _reference;
+    
+    private ValueCallback(ValueReference reference) {
+      _reference = reference;
+    }
+    
+    public void onSuccess(Property mutation) {
+      Value value;
+      if((value = _reference.get()) != null) value.update(mutation);
+    }
+    
+    public void onFailure(Throwable thrown) {
+      Value value;
+      if((value = _reference.get()) != null) value.failed(thrown);
+    }
+    
+  }
+  
+  /**
+   * Delivers a held change to a value, if it is still reachable.
+   */
+  private static class ValueDelivery implements Runnable {
+    
+    private final ValueReference  _reference;
+    
+    private ValueDelivery(ValueReference reference) {
+      _reference = reference;
+    }
+    
+    public void run() {
+      Value value;
+      if((value = _reference.get()) != null){
+        try {
+          value.deliver();
+        }catch(ConfigException e){
+          logger.error("Could not deliver configuration value: "+ value, e);
+        }
+      }
+    }
+    
+  }
+  
+  /**
+   * Expires a value locally, if it is still reachable.
+   */
+  private static class ValueExpiration implements Runnable {
+    
+    private final ValueReference  _reference;
+    private final Property        _property;
+    
+    private ValueExpiration(ValueReference reference, Property property) {
+      _reference = reference;
+      _property = property;
+    }
+    
+    public void run() {
+      Value value;
+      if((value = _reference.get()) != null) value.expire(_property);
+    }
+    
+  }
+  
+  /**
+   * A view of the configuration values beneath a prefix
+   */
+  public class View {
+    
+    private String                              _prefix;
+    private Map<String, Object>                 _values;
+    private boolean                             _autoupdate;
+    private final Layers                        _layers;
+    private final Watch                         _watch;
+    private ListenableFuture<Property>          _monitor;
+    private SettableFuture<Map<String, Object>> _watcher;
+    private List<Binding<?>>                    _bindings;
+    private int                                 _failures;
+    
+    /**
+     * Construct a view of the specified prefix
+     */
+    protected View(String prefix) {
+      if((_prefix = prefix) == null || _prefix.isEmpty()) throw new IllegalArgumentException("Prefix must not be null or empty");
+      _bindings = new ArrayList<Binding<?>>();
+      _layers = Config.this.new Layers(prefix);
+      _watch = Config.this.new Watch(prefix, true);
+    }
+    
+    /**
+     * Obtain the prefix of this view
+     */
+    public String prefix() {
+      return _prefix;
+    }
+    
+    /**
+     * Obtain every value in this view, keyed relative to the prefix
+     */
+    public synchronized Map<String, Object> get() throws ConfigException {
+      if(_values == null) resolve();
+      return _values;
+    }
+    
+    /**
+     * Obtain the value for a key relative to the prefix
+     */
+    public Object get(String key) throws ConfigException {
+      return get().get(key);
+    }
+    
+    /**
+     * Obtain the value for a key relative to the prefix
+     */
+    public <V> V get(String key, Class<V> clazz) throws ConfigException {
+      return get(key, clazz, null);
+    }
+    
+    /**
+     * Obtain the value for a key relative to the prefix
+     */
+    public <V> V get(String key, Class<V> clazz, V ifnull) throws ConfigException {
+      Object value;
+      return ((value = get().get(key)) != null) ? Typecast.convert(value, clazz) : ifnull;
+    }
+    
+    /**
+     * Obtain a view of the values beneath a prefix relative to this view
+     */
+    public View view(String prefix) {
+      return Config.this.view(_prefix +"."+ prefix);
+    }
+    
+    /**
+     * Mark this view for auto-updating. The view will begin monitoring its prefix
+     * after it is first accessed.
+     */
+    public synchronized View autoUpdate() throws ConfigException {
+      // mark as auto-updating
+      _autoupdate = true;
+      // return this view, for chaining
+      return this;
+    }
+    
+    /**
+     * Bind this view to an instance of the specified type. A new instance is bound
+     * whenever any value in the view changes and published atomically, so readers
+     * always observe a consistent set of values.
+     */
+    public synchronized <T> Binding<T> bind(Class<T> clazz) throws ConfigException {
+      Binding<T> binding = Config.this.new Binding<T>(this, clazz);
+      binding.rebind(get());
+      _bindings.add(binding);
+      // bindings always follow their view
+      _autoupdate = true;
+      monitor();
+      return binding;
+    }
+    
+    /**
+     * Resolve the values beneath our prefix from every hierarchical provider.
+     */
+    private synchronized void resolve() throws ConfigException {
+      resolve(null);
+    }
+    
+    /**
+     * Resolve the values beneath our prefix from the specified provider, or from
+     * every hierarchical provider if none is specified. Each listing is where we
+     * watch its provider from.
+     */
+    private synchronized void resolve(Provider provider) throws ConfigException {
+      try {
+        
+        if(provider != null){
+          _layers.list(provider, _watch);
+        }else{
+          _layers.list(_watch);
+        }
+        
+        _values = _layers.values();
+        // publish the entire subtree at once
+        Config.this.publish(_prefix, _layers.properties());
+        if(_autoupdate) monitor();
+        
+      }catch(InterruptedException e){
+        Thread.currentThread().interrupt();
+        throw new ConfigException("Interrupted while resolving configuration view: "+ this, e);
+      }catch(IOException e){
+        throw new ConfigException("Could not resolve configuration view: "+ this, e);
+      }
+    }
+    
+    /**
+     * Begin monitoring this view.
+     */
+    private synchronized void monitor() throws ConfigException {
+      if(_monitor == null){
+        try {
+          
+          // create our monitor future by watching our prefix on every provider
+          if((_monitor = _watch.next(null)) == null){
+            // no recursive providers; just return, we don't throw an exception
+            return;
+          }
+          
+          // process callbacks; a provider which can't tell us what changed must be
+          // listed again, so these don't run on the shared executor
+          Futures.addCallback(_monitor, new FutureCallback<Property>() {
+            public void onSuccess(Property mutation) {
+              View.this.update(mutation);
+            }
+            public void onFailure(Throwable thrown) {
+              View.this.failed(thrown);
+            }
+          }, resolver);
+          
+        }catch(IOException e){
+          throw new ConfigException("Could not monitor configuration view: "+ this, e);
+        }
+      }
+    }
+    
+    /**
+     * Update the view.
+     */
+    private synchronized void update(Property mutation) throws ConfigException {
+      
+      // clear this monitor, it just completed
+      _monitor = null;
+      
+      try {
+        if(mutation instanceof Change && ((Change)mutation).key() != null){
+          // apply the change as a delta; our watch continues from it
+          Map<String, Property> changes = _layers.apply(_watch.source(), (Change)mutation);
+          _values = _layers.values();
+          Config.this.publish(null, changes);
+          if(_autoupdate) monitor();
+        }else{
+          // the provider can't tell us what changed; re-list what it provides
+          resolve(_watch.source());
+        }
+        _failures = 0;
+      }catch(ConfigException e){
+        failed(e);
+        return;
+      }
+      
+      // rebind everything bound to this view
+      for(Binding<?> binding : _bindings){
+        binding.rebind(_values);
+      }
+      
+      // process the watcher future if we have one
+      SettableFuture<Map<String, Object>> watcher;
+      if((watcher = _watcher) != null){
+        // clear it first
+        _watcher = null;
+        // propagate the values
+        watcher.set(_values);
+      }
+      
+    }
+    
+    /**
+     * Update failed
+     */
+    private synchronized void failed(Throwable thrown) throws ConfigException {
+      
+      // clear our values, they're invalid; bindings retain their last instance
+      _values = null;
+      // clear the monitor, it just completed
+      _monitor = null;
+      // if we're auto-updating begin monitoring again, after backing off
+      if(_autoupdate){
+        Config.this.retry(new Runnable() {
+          public void run() {
+            View.this.monitor();
+          }
+        }, ++_failures);
+      }
+      
+      // process the watcher future if we have one
+      SettableFuture<Map<String, Object>> watcher;
+      if((watcher = _watcher) != null){
+        // clear it first
+        _watcher = null;
+        // propagate the exception
+        watcher.setException(thrown);
+      }
+      
+    }
+    
+    /**
+     * Monitor the values in this view
+     */
+    public synchronized ListenableFuture<Map<String, Object>> watch() throws ConfigException {
+      if(_watcher == null){
+        // create our watcher future, which is shared
+        _watcher = SettableFuture.create();
+        // make sure we have a listing to watch from and begin monitoring
+        get();
+        monitor();
+      }
+      return _watcher;
+    }
+    
+    /**
+     * String description
+     */
+    public String toString() {
+      return String.format("'%s.*' in %s", _prefix, Config.this);
+    }
+    
+  }
+  
+  /**
+   * A live directory of the entries beneath a prefix, such as the members of a
+   * service. The directory is listed once and then maintained incrementally from
+   * the changes delivered by recursive watches, so reading the current membership
+   * never requires a request.
+   */
+  public class Directory {
+    
+    private String                              _prefix;
+    private volatile Map<String, Object>        _entries;
+    private final Layers                        _layers;
+    private final Watch                         _watch;
+    private ListenableFuture<Property>          _monitor;
+    private SettableFuture<Map<String, Object>> _watcher;
+    private int                                 _failures;
+    
+    /**
+     * Construct a directory of the specified prefix
+     */
+    protected Directory(String prefix) {
+      if((_prefix = prefix) == null || _prefix.isEmpty()) throw new IllegalArgumentException("Prefix must not be null or empty");
+      _layers = Config.this.new Layers(prefix);
+      _watch = Config.this.new Watch(prefix, true);
+    }
+    
+    /**
+     * Obtain the prefix of this directory
+     */
+    public String prefix() {
+      return _prefix;
+    }
+    
+    /**
+     * Obtain every entry in this directory, keyed relative to the prefix. The
+     * returned map is immutable and is replaced as a whole whenever the directory
+     * changes.
+     */
+    public Map<String, Object> get() throws ConfigException {
+      Map<String, Object> entries;
+      if((entries = _entries) != null) return entries;
+      synchronized(this){
+        if(_entries == null) resolve();
+        return _entries;
+      }
+    }
+    
+    /**
+     * Obtain the entry for a key relative to the prefix
+     */
+    public Object get(String key) throws ConfigException {
+      return get().get(key);
+    }
+    
+    /**
+     * Obtain the keys of every entry in this directory, relative to the prefix
+     */
+    public Set<String> members() throws ConfigException {
+      return get().keySet();
+    }
+    
+    /**
+     * Resolve the entries beneath our prefix from every hierarchical provider.
+     */
+    private synchronized void resolve() throws ConfigException {
+      resolve(null);
+    }
+    
+    /**
+     * Resolve the entries beneath our prefix from the specified provider, or from
+     * every hierarchical provider if none is specified. Each listing is where we
+     * watch its provider from.
+     */
+    private synchronized void resolve(Provider provider) throws ConfigException {
+      try {
+        
+        if(provider != null){
+          _layers.list(provider, _watch);
+        }else{
+          _layers.list(_watch);
+        }
+        
+        _entries = _layers.values();
+        // publish the entire directory at once
+        Config.this.publish(_prefix, _layers.properties());
+        monitor();
+        
+      }catch(InterruptedException e){
+        Thread.currentThread().interrupt();
+        throw new ConfigException("Interrupted while resolving configuration directory: "+ this, e);
+      }catch(IOException e){
+        throw new ConfigException("Could not resolve configuration directory: "+ this, e);
+      }
+    }
+    
+    /**
+     * Begin monitoring this directory.
+     */
+    private synchronized void monitor() throws ConfigException {
+      if(_monitor == null){
+        try {
+          
+          // create our monitor future by watching our prefix on every provider
+          if((_monitor = _watch.next(null)) == null){
+            // no recursive providers; just return, we don't throw an exception
+            return;
+          }
+          
+          // process callbacks; a provider which can't tell us what changed must be
+          // listed again, so these don't run on the shared executor
+          Futures.addCallback(_monitor, new FutureCallback<Property>() {
+            public void onSuccess(Property mutation) {
+              Directory.this.update(mutation);
+            }
+            public void onFailure(Throwable thrown) {
+              Directory.this.failed(thrown);
+            }
+          }, resolver);
+          
+        }catch(IOException e){
+          throw new ConfigException("Could not monitor configuration directory: "+ this, e);
+        }
+      }
+    }
+    
+    /**
+     * Update the directory.
+     */
+    private synchronized void update(Property mutation) throws ConfigException {
+      
+      // clear this monitor, it just completed
+      _monitor = null;
+      
+      try {
+        if(mutation instanceof Change && ((Change)mutation).key() != null){
+          // apply the change as a delta; our watch continues from it
+          Map<String, Property> changes = _layers.apply(_watch.source(), (Change)mutation);
+          _entries = _layers.values();
+          Config.this.publish(null, changes);
+          monitor();
+        }else{
+          // the provider can't tell us what changed; re-list what it provides
+          resolve(_watch.source());
+        }
+        _failures = 0;
+      }catch(ConfigException e){
+        failed(e);
+        return;
+      }
+      
+      // process the watcher future if we have one
+      SettableFuture<Map<String, Object>> watcher;
+      if((watcher = _watcher) != null){
+        // clear it first
+        _watcher = null;
+        // propagate the entries
+        watcher.set(_entries);
+      }
+      
     }
     
     /**
-     * Set the current value
+     * Update failed
      */
-    public synchronized V set(V value) throws ConfigException {
-      try {
-        Property property;
-        if((property = Config.this.__set(_key, _marshaler.marshal(value))) != null){
-          _value = _marshaler.unmarshal(property.value());
-          _previous = property;
-          if(_autoupdate) monitor();
-        }else{
-          _value = value;
+    private synchronized void failed(Throwable thrown) throws ConfigException {
+      
+      // clear the monitor, it just completed
+      _monitor = null;
+      
+      // our watch is broken and we may have missed changes; list the directory again
+      // after backing off, which also resumes monitoring. Listing blocks, so it is
+      // handed off rather than run on the scheduler
+      Config.this.retry(new Runnable() {
+        public void run() {
+          resolver.execute(new Runnable() {
+            public void run() {
+              synchronized(Directory.this){
+                if(_monitor != null) return; // already recovered
+                try {
+                  resolve();
+                }catch(ConfigException e){
+                  // clear our entries, they're invalid; they will be resolved when next accessed
+                  _entries = null;
+                  logger.error("Could not resolve configuration directory: "+ Directory.this, e);
+                }
+              }
+            }
+          });
         }
+      }, ++_failures);
+      
+      // process the watcher future if we have one
+      SettableFuture<Map<String, Object>> watcher;
+      if((watcher = _watcher) != null){
+        // clear it first
+        _watcher = null;
+        // propagate the exception
+        watcher.setException(thrown);
+      }
+      
+    }
+    
+    /**
+     * Monitor the entries in this directory
+     */
+    public synchronized ListenableFuture<Map<String, Object>> watch() throws ConfigException {
+      if(_watcher == null){
+        // create our watcher future, which is shared
+        _watcher = SettableFuture.create();
+        // make sure we have a listing to watch from, which begins monitoring
+        get();
+      }
+      return _watcher;
+    }
+    
+    /**
+     * String description
+     */
+    public String toString() {
+      return String.format("'%s/' in %s", _prefix, Config.this);
+    }
+    
+  }
+  
+  /**
+   * A value interpolated from a template. The values a template refers to form a
+   * graph, since they may refer to other values in turn; each is monitored, and the
+   * result is recomputed when any of them changes. A value which refers back to
+   * itself, directly or not, is an error.
+   */
+  public class Interpolated {
+    
+    private final Template                  _template;
+    private final Map<String, Dependency>   _dependencies;
+    private volatile String                 _value;
+    private SettableFuture<String>          _watcher;
+    
+    /**
+     * Construct with a template
+     */
+    protected Interpolated(String template) {
+      try {
+        _template = Template.parse(template);
+      }catch(IllegalArgumentException e){
+        throw new ConfigException("Invalid template: "+ template, e);
+      }
+      _dependencies = new HashMap<String, Dependency>();
+    }
+    
+    /**
+     * Obtain the interpolated value. The value is cached until a value it depends
+     * on changes.
+     */
+    public String get() throws ConfigException {
+      String value;
+      if((value = _value) != null) return value;
+      synchronized(this){
+        if(_value == null) _value = render();
         return _value;
-      }catch(IOException e){
-        throw new ConfigException("Could not set configuration value: "+ this, e);
       }
     }
     
     /**
-     * Mark this value for auto-updating. The value will begin monitoring itself after
-     * it is first accessed.
+     * Obtain the keys this value currently depends on, directly or not
      */
-    public synchronized Value<V> autoUpdate() throws ConfigException {
-      // mark as auto-updating
-      _autoupdate = true;
-      // return this value, for chaining
-      return this;
+    public synchronized Set<String> dependencies() {
+      return Collections.unmodifiableSet(new HashSet<String>(_dependencies.keySet()));
     }
     
     /**
-     * Begin monitoring this value.
+     * Monitor the interpolated value
+     */
+    public synchronized ListenableFuture<String> watch() throws ConfigException {
+      if(_watcher == null){
+        _watcher = SettableFuture.create();
+        // make sure we're resolved, which begins monitoring our dependencies
+        get();
+      }
+      return _watcher;
+    }
+    
+    /**
+     * Stop monitoring the values this value depends on
+     */
+    public synchronized void cancel() {
+      for(Dependency dependency : _dependencies.values()) dependency._value.cancel();
+      _dependencies.clear();
+      _value = null;
+    }
+    
+    /**
+     * Render our template, dropping dependencies which are no longer referred to
+     */
+    private synchronized String render() throws ConfigException {
+      Set<String> used = new HashSet<String>();
+      String value;
+      
+      try {
+        value = render(_template, new ArrayList<String>(), used);
+      }catch(IllegalArgumentException e){
+        throw new ConfigException("Could not interpolate configuration value: "+ this, e);
+      }
+      
+      for(Iterator<Map.Entry<String, Dependency>> i = _dependencies.entrySet().iterator(); i.hasNext(); ){
+        Map.Entry<String, Dependency> e = i.next();
+        if(!used.contains(e.getKey())){
+          e.getValue()._value.cancel();
+          i.remove();
+        }
+      }
+      
+      return value;
+    }
+    
+    /**
+     * Render a template, resolving references along the specified path
+     */
+    private String render(Template template, final List<String> path, final Set<String> used) throws ConfigException {
+      return template.render(new Template.Resolver() {
+        public String resolve(String key) {
+          return Interpolated.this.resolve(key, path, used);
+        }
+      });
+    }
+    
+    /**
+     * Resolve a reference, interpolating the references in its value in turn
+     */
+    private String resolve(String key, List<String> path, Set<String> used) throws ConfigException {
+      if(path.contains(key)){
+        StringBuilder cycle = new StringBuilder();
+        for(String element : path.subList(path.indexOf(key), path.size())) cycle.append(element).append(" -> ");
+        throw new ConfigException("Configuration values refer to each other: "+ cycle.append(key));
+      }
+      
+      Dependency dependency;
+      if((dependency = _dependencies.get(key)) == null){
+        _dependencies.put(key, dependency = new Dependency(key));
+        dependency.watch();
+      }
+      used.add(key);
+      
+      Template template;
+      if((template = dependency.template()) == null) return null;
+      if(template.isLiteral()) return template.render(null);
+      
+      path.add(key);
+      try {
+        return render(template, path, used);
+      }finally{
+        path.remove(path.size() - 1);
+      }
+    }
+    
+    /**
+     * A dependency changed; recompute our value and notify our watcher if it changed
+     */
+    private synchronized void changed(Dependency dependency) {
+      if(_dependencies.get(dependency._key) != dependency) return; // no longer relevant
+      
+      String previous = _value, value;
+      try {
+        value = _value = render();
+      }catch(ConfigException e){
+        logger.error("Could not interpolate configuration value, retaining the previous value: "+ this, e);
+        dependency.watch();
+        return;
+      }
+      
+      // keep watching it if we still depend on it
+      if(_dependencies.get(dependency._key) == dependency) dependency.watch();
+      
+      SettableFuture<String> watcher;
+      if(!value.equals(previous) && (watcher = _watcher) != null){
+        _watcher = null;
+        watcher.set(value);
+      }
+    }
+    
+    /**
+     * String description
+     */
+    public String toString() {
+      return String.format("'%s' in %s", _template, Config.this);
+    }
+    
+    /**
+     * A value we depend on, whose template is parsed once per change
+     */
+    private class Dependency {
+      
+      private final String                _key;
+      private final Value<String>         _value;
+      private String                      _text;
+      private Template                    _parsed;
+      private int                         _failures;
+      
+      private Dependency(String key) {
+        _key = key;
+        _value = Config.this.get(key, String.class).autoUpdate();
+      }
+      
+      /**
+       * Obtain our value as a template, or null if we have no value
+       */
+      private Template template() throws ConfigException {
+        String text;
+        if((text = _value.get()) == null) return null;
+        if(!text.equals(_text)){
+          _parsed = Template.parse(text);
+          _text = text;
+        }
+        return _parsed;
+      }
+      
+      /**
+       * Watch for our next change
+       */
+      private void watch() throws ConfigException {
+        Futures.addCallback(_value.watch(), new FutureCallback<String>() {
+          public void onSuccess(String value) {
+            _failures = 0;
+            Interpolated.this.changed(Dependency.this);
+          }
+          public void onFailure(Throwable thrown) {
+            if(thrown instanceof CancellationException) return;
+            Config.this.retry(new Runnable() {
+              public void run() {
+                Interpolated.this.changed(Dependency.this);
+              }
+            }, ++_failures);
+          }
+        }, Config.this.executor);
+      }
+      
+    }
+    
+  }
+  
+  /**
+   * A stream of the changes beneath a prefix, in the order the provider made them.
+   * Changes are consumed in batches; the index of the last change consumed is where
+   * a new stream should begin to resume this one.
+   */
+  public class Changes {
+    
+    private final String            _prefix;
+    private final int               _capacity;
+    private final ArrayDeque<Change> _buffer;
+    private Property                _previous;
+    private ListenableFuture<Property> _monitor;
+    private boolean                 _paused;
+    private boolean                 _closed;
+    private Throwable               _failure;
+    private long                    _index;
+    
+    /**
+     * Construct a stream of the specified prefix
+     */
+    protected Changes(String prefix, long index, int capacity) {
+      if((_prefix = prefix) == null || _prefix.isEmpty()) throw new IllegalArgumentException("Prefix must not be null or empty");
+      if((_capacity = capacity) < 1) throw new IllegalArgumentException("Capacity must be positive");
+      if(index < 0) throw new IllegalArgumentException("Index must not be negative");
+      _buffer = new ArrayDeque<Change>(Math.min(capacity, 1024));
+      _previous = (index > 0) ? new Position(prefix, index - 1) : null;
+      _index = Math.max(0, index - 1);
+    }
+    
+    /**
+     * Obtain the prefix of this stream
+     */
+    public String prefix() {
+      return _prefix;
+    }
+    
+    /**
+     * Obtain the index of the last change consumed from this stream
+     */
+    public synchronized long index() {
+      return _index;
+    }
+    
+    /**
+     * Obtain the number of changes buffered and not yet consumed
+     */
+    public synchronized int available() {
+      return _buffer.size();
+    }
+    
+    /**
+     * Consume up to the specified number of buffered changes, waiting no longer than
+     * the specified timeout for at least one to arrive. An empty batch is produced if
+     * none does or the stream is closed.
+     * 
+     * @throws ConfigException if the stream failed and every change delivered before
+     * the failure has been consumed
+     */
+    public synchronized List<Change> poll(int max, long timeout, TimeUnit unit) throws ConfigException, InterruptedException {
+      long deadline = System.nanoTime() + unit.toNanos(timeout);
+      long remaining;
+      
+      while(_buffer.isEmpty() && _failure == null && !_closed && (remaining = deadline - System.nanoTime()) > 0){
+        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+      }
+      
+      if(_buffer.isEmpty() && _failure != null){
+        throw new ConfigException("Could not stream configuration changes: "+ this, _failure);
+      }
+      
+      List<Change> batch = new ArrayList<Change>(Math.min(max, _buffer.size()));
+      while(batch.size() < max && !_buffer.isEmpty()) batch.add(_buffer.poll());
+      if(!batch.isEmpty()) _index = batch.get(batch.size() - 1).index();
+      
+      // there's room again; pick up from where we paused
+      if(_paused && !_closed){
+        _paused = false;
+        monitor();
+      }
+      
+      return batch;
+    }
+    
+    /**
+     * Stop streaming changes. Changes already buffered may still be consumed.
+     */
+    public synchronized void close() {
+      _closed = true;
+      if(_monitor != null){
+        _monitor.cancel(true);
+        _monitor = null;
+      }
+      notifyAll();
+    }
+    
+    /**
+     * Watch for the change following the last one we received
      */
     private synchronized void monitor() throws ConfigException {
-      if(_monitor == null){
+      if(_monitor == null && !_closed && _failure == null){
         try {
           
-          // create our monitor future by watching our key
-          if((_monitor = Config.this.__watch(_key, _previous)) == null){
-            // no monitorable providers; just return, we don't throw an exception
-            return;
+          if((_monitor = Config.this.__watchSequence(_prefix, _previous)) == null){
+            throw new ConfigException("No provider can stream configuration changes: "+ this);
           }
           
-          // process callbacks
           Futures.addCallback(_monitor, new FutureCallback<Property>() {
             public void onSuccess(Property mutation) {
-              Value.this.update(mutation);
+              Changes.this.update(mutation);
             }
             public void onFailure(Throwable thrown) {
-              Value.this.failed(thrown);
+              Changes.this.failed(thrown);
             }
           }, Config.this.executor);
           
         }catch(IOException e){
-          throw new ConfigException("Could not monitor configuration value: "+ this, e);
+          throw new ConfigException("Could not stream configuration changes: "+ this, e);
         }
       }
     }
     
     /**
-     * Update the value.
+     * Buffer a change and watch for the next one, unless our buffer is full
      */
-    private synchronized void update(Property mutation) throws ConfigException {
+    private synchronized void update(Property mutation) {
+      _monitor = null;
+      if(_closed) return;
       
-      try {
-        _value = _marshaler.unmarshal(mutation.value());
-      }catch(IOException e){
-        throw new ConfigException("Could not unmarshal value", e);
+      if(!(mutation instanceof Change) || ((Change)mutation).index() <= 0){
+        failed(new ConfigException("Provider does not report ordered changes: "+ this));
+        return;
       }
       
-      // update the context mutation
+      _buffer.add((Change)mutation);
       _previous = mutation;
-      // clear this monitor, it just completed
-      _monitor = null;
-      // if we're auto-updating begin monitoring again
-      if(_autoupdate) monitor();
+      notifyAll();
       
-      // process the watcher future if we have one
-      SettableFuture watcher;
-      if((watcher = _watcher) != null){
-        // clear it first
-        _watcher = null;
-        // propagate the value
-        watcher.set(_value);
+      if(_buffer.size() >= _capacity){
+        _paused = true;
+        return;
+      }
+      
+      try {
+        monitor();
+      }catch(ConfigException e){
+        failed(e);
       }
       
     }
     
     /**
-     * Update failed
+     * The stream failed; consumers are told once they have drained the buffer
      */
-    private synchronized void failed(Throwable thrown) throws ConfigException {
-      
-      // clear our value? it's invalid
-      _value = null;
-      // clear the monitor, it just completed
+    private synchronized void failed(Throwable thrown) {
       _monitor = null;
-      // if we're auto-updating begin monitoring again
-      if(_autoupdate) monitor();
+      if(_closed || thrown instanceof CancellationException) return;
+      _failure = thrown;
+      notifyAll();
+    }
+    
+    /**
+     * String description
+     */
+    public String toString() {
+      return String.format("'%s/' from %d in %s", _prefix, _index + 1, Config.this);
+    }
+    
+  }
+  
+  /**
+   * A position in a provider's sequence of changes, from which a watch resumes
+   */
+  private static class Position implements Change {
+    
+    private final String  _key;
+    private final long    _index;
+    
+    /**
+     * Construct
+     */
+    private Position(String key, long index) {
+      _key = key;
+      _index = index;
+    }
+    
+    public Object value() {
+      return null;
+    }
+    
+    public String key() {
+      return _key;
+    }
+    
+    public Change.Action action() {
+      return Change.Action.GET;
+    }
+    
+    public long index() {
+      return _index;
+    }
+    
+  }
+  
+  /**
+   * An immutable object bound to the values in a view
+   */
+  public class Binding <T> {
+    
+    private View                _view;
+    private Class<T>            _clazz;
+    private volatile T          _value;
+    private SettableFuture<T>   _watcher;
+    
+    /**
+     * Construct a binding
+     */
+    protected Binding(View view, Class<T> clazz) {
+      if((_view = view) == null) throw new IllegalArgumentException("View must not be null");
+      if((_clazz = clazz) == null) throw new IllegalArgumentException("Class must not be null");
+    }
+    
+    /**
+     * Obtain the currently bound instance
+     */
+    public T get() {
+      return _value;
+    }
+    
+    /**
+     * Bind a new instance from the specified values and publish it.
+     */
+    private synchronized void rebind(Map<String, Object> values) throws ConfigException {
+      T value;
+      
+      try {
+        value = Binder.bind(values, _clazz);
+      }catch(IllegalArgumentException e){
+        if(_value == null) throw new ConfigException("Could not bind configuration view: "+ this, e);
+        logger.error("Could not rebind configuration view, retaining the previous instance: "+ this, e);
+        return;
+      }
+      
+      // publish the new instance
+      _value = value;
       
       // process the watcher future if we have one
-      SettableFuture watcher;
+      SettableFuture<T> watcher;
       if((watcher = _watcher) != null){
         // clear it first
         _watcher = null;
-        // propagate the exception
-        watcher.setException(thrown);
+        // propagate the value
+        watcher.set(value);
       }
       
     }
     
     /**
-     * Monitor the current value
+     * Monitor the bound instance
      */
-    public synchronized ListenableFuture<V> watch() throws ConfigException {
+    public synchronized ListenableFuture<T> watch() {
       if(_watcher == null){
         // create our watcher future, which is shared
         _watcher = SettableFuture.create();
-        // begin monitoring
-        monitor();
       }
       return _watcher;
     }
@@ -386,10 +2770,9 @@ public class Config {
      * String description
      */
     public String toString() {
-      return String.format("'%s' in %s", _key, Config.this);
+      return String.format("%s bound to %s", _clazz.getName(), _view);
     }
     
   }
   
 }
-
@@ -32,6 +32,8 @@ package com.brianwolter.etc;
 
 import java.io.IOException;
 
+import java.nio.ByteBuffer;
+
 /**
  * Implemented by type marshalers
  */
@@ -47,5 +49,18 @@ public interface Marshaler <V> {
    */
   public Object marshal(V o) throws IOException;
   
+  /**
+   * Implemented by marshalers which can unmarshal directly from raw bytes. These
+   * are used in preference to the general form for binary properties.
+   */
+  public static interface Binary <V> extends Marshaler <V> {
+    
+    /**
+     * Unmarshal an object from the raw bytes of its external representation
+     */
+    public V unmarshal(ByteBuffer bytes) throws IOException;
+    
+  }
+  
 }
 
@@ -0,0 +1,172 @@
+// 
+// Copyright (c) 2014 Brian William Wolter, All rights reserved.
+// Etcd - an etcd SDK for Java
+// 
+// Redistribution and use in source and binary forms, with or without modification,
+// are permitted provided that the following conditions are met:
+// 
+//   * Redistributions of source code must retain the above copyright notice, this
+//     list of conditions and the following disclaimer.
+// 
+//   * Redistributions in binary form must reproduce the above copyright notice,
+//     this list of conditions and the following disclaimer in the documentation
+//     and/or other materials provided with the distribution.
+//     
+//   * Neither the names of Brian William Wolter, Wolter Group New York, nor the
+//     names of its contributors may be used to endorse or promote products derived
+//     from this software without specific prior written permission.
+//     
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+// IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+// INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+// BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+// LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+// OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+// 
+
+package com.brianwolter.etc;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.HashSet;
+import java.util.Collections;
+
+import com.brianwolter.etc.util.Property;
+import com.brianwolter.etc.util.Expirable;
+import com.brianwolter.etc.util.Change;
+import com.brianwolter.etc.util.OffHeapStore;
+
+/**
+ * A snapshot whose values are kept off the heap, in an {@link OffHeapStore}. Every
+ * revision of an off-heap snapshot shares the same store, so publishing a change
+ * costs space proportional to the change rather than a copy of every value, and
+ * properties are only materialized on the heap for the keys which are read.
+ * <p>
+ * The store is compacted into a new one, which later revisions use, once values
+ * that have been replaced take up more space than the values which are current.
+ */
+public class OffHeapSnapshot extends Snapshot {
+  
+  private static final long MIN_GARBAGE = 1 << 20;
+  
+  private final OffHeapStore  _store;
+  private final int           _size;
+  
+  /**
+   * Construct an empty snapshot
+   */
+  public OffHeapSnapshot() {
+    this(0, new OffHeapStore());
+  }
+  
+  /**
+   * Construct with a revision and the store it reads from
+   */
+  protected OffHeapSnapshot(long revision, OffHeapStore store) {
+    super(revision, Collections.<String, Property>emptyMap());
+    _store = store;
+    _size = store.size();
+  }
+  
+  /**
+   * Produce an off-heap snapshot containing the same values as another snapshot, at
+   * the next revision.
+   */
+  protected static OffHeapSnapshot copyOf(Snapshot snapshot) {
+    OffHeapStore store = new OffHeapStore(Math.max(16, snapshot.size()), 1 << 20);
+    long revision = snapshot.revision() + 1;
+    for(String key : snapshot.keys()) put(store, key, snapshot.property(key), revision);
+    store.advance(revision);
+    return new OffHeapSnapshot(revision, store);
+  }
+  
+  /**
+   * Obtain the store this snapshot reads from
+   */
+  public OffHeapStore store() {
+    return _store;
+  }
+  
+  /**
+   * Determine if this snapshot contains a value for the specified key.
+   */
+  public boolean contains(String key) {
+    return _store.get(key, revision()) != null;
+  }
+  
+  /**
+   * Obtain the keys in this snapshot. The keys are decoded from the store each time
+   * this method is called.
+   */
+  public Set<String> keys() {
+    return Collections.unmodifiableSet(new HashSet<String>(_store.keys(revision(), null)));
+  }
+  
+  /**
+   * Obtain the number of values in this snapshot.
+   */
+  public int size() {
+    return _size;
+  }
+  
+  /**
+   * Obtain the property for the specified key, if any.
+   */
+  public Property property(String key) {
+    return _store.get(key, revision());
+  }
+  
+  /**
+   * Produce the next revision of this snapshot by applying the specified changes.
+   */
+  protected Snapshot apply(Map<String, Property> changes, String prefix) {
+    long revision = revision() + 1;
+    OffHeapStore store = _store;
+    
+    synchronized(store){
+      
+      if(store.revision() != revision()){
+        // an earlier revision is being changed; branch from it rather than clobber later ones
+        store = store.compact(revision());
+      }else if(store.garbage() > Math.max(MIN_GARBAGE, store.used() / 2)){
+        store = store.compact(revision());
+      }
+      
+      if(prefix != null){
+        for(String key : store.keys(revision(), prefix +".")){
+          if(!changes.containsKey(key)) store.put(key, revision, null, 0, 0);
+        }
+      }
+      
+      for(Map.Entry<String, Property> e : changes.entrySet()){
+        put(store, e.getKey(), e.getValue(), revision);
+      }
+      
+      store.advance(revision);
+      return new OffHeapSnapshot(revision, store);
+    }
+    
+  }
+  
+  /**
+   * Write a property to a store, or remove its key if it has no value
+   */
+  private static void put(OffHeapStore store, String key, Property property, long revision) {
+    Object value = (property != null) ? property.value() : null;
+    long index = (property instanceof Change) ? ((Change)property).index() : (property instanceof OffHeapStore.Record) ? ((OffHeapStore.Record)property).index() : 0;
+    long expiration = (property instanceof Expirable) ? ((Expirable)property).expiration() : 0;
+    store.put(key, revision, value, index, expiration);
+  }
+  
+  /**
+   * String description
+   */
+  public String toString() {
+    return String.format("<OffHeapSnapshot %d: %d values>", revision(), _size);
+  }
+  
+}
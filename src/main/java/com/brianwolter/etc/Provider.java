@@ -32,6 +32,9 @@ package com.brianwolter.etc;
 
 import java.io.IOException;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
 import com.google.common.util.concurrent.ListenableFuture;
 
 import com.brianwolter.etc.util.Property;
@@ -53,6 +56,31 @@ public interface Provider {
     
   }
   
+  /**
+   * Implemented by providers whose reads can be bounded by a timeout
+   */
+  public static interface Bounded extends Observable {
+    
+    /**
+     * Obtain a configuration value, giving up after the specified timeout.
+     */
+    public Property get(final String key, final long timeout, final TimeUnit unit) throws IOException, InterruptedException, TimeoutException;
+    
+  }
+  
+  /**
+   * Implemented by providers which can enumerate the values beneath a prefix
+   */
+  public static interface Hierarchical extends Observable {
+    
+    /**
+     * Obtain every value beneath a prefix in a single operation. The value of the
+     * returned property is a map of keys, relative to the prefix, to properties.
+     */
+    public Property list(final String prefix) throws IOException, InterruptedException;
+    
+  }
+  
   /**
    * Implemented by mutable provdiers
    */
@@ -66,9 +94,21 @@ public interface Provider {
   }
   
   /**
-   * Implemented by mutable provdiers
+   * Implemented by providers which support values that expire
    */
-  public static interface Monitorable extends Mutable {
+  public static interface Expiring extends Mutable {
+    
+    /**
+     * Set a configuration value which expires after the specified time to live.
+     */
+    public Property set(final String key, final Object value, final long ttl, final TimeUnit unit) throws IOException, InterruptedException;
+    
+  }
+  
+  /**
+   * Implemented by monitorable provdiers
+   */
+  public static interface Monitorable extends Observable {
     
     /**
      * Watch a value for changes. Not all providers implement this method.
@@ -77,5 +117,25 @@ public interface Provider {
     
   }
   
+  /**
+   * Implemented by providers which can watch every value beneath a prefix
+   */
+  public static interface Recursive extends Hierarchical, Monitorable {
+    
+    /**
+     * Watch every value beneath a prefix for changes. The future completes when any
+     * value beneath the prefix changes after the listing or mutation provided as the
+     * previous property.
+     */
+    public ListenableFuture<Property> watchTree(final String prefix, final Property previous) throws IOException;
+    
+  }
+  
+  /**
+   * Implemented by providers whose changes are ordered by a single index, such that
+   * a stream of changes can resume after any change it has reported.
+   */
+  public static interface Sequenced extends Recursive {
+  }
+  
 }
-
@@ -0,0 +1,167 @@
+// 
+// Copyright (c) 2014 Brian William Wolter, All rights reserved.
+// Etcd - an etcd SDK for Java
+// 
+// Redistribution and use in source and binary forms, with or without modification,
+// are permitted provided that the following conditions are met:
+// 
+//   * Redistributions of source code must retain the above copyright notice, this
+//     list of conditions and the following disclaimer.
+// 
+//   * Redistributions in binary form must reproduce the above copyright notice,
+//     this list of conditions and the following disclaimer in the documentation
+//     and/or other materials provided with the distribution.
+//     
+//   * Neither the names of Brian William Wolter, Wolter Group New York, nor the
+//     names of its contributors may be used to endorse or promote products derived
+//     from this software without specific prior written permission.
+//     
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+// IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+// INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+// BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+// LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+// OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+// 
+
+package com.brianwolter.etc;
+
+import java.util.Map;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.Collections;
+
+import com.brianwolter.etc.util.Property;
+import com.brianwolter.etc.util.Typecast;
+
+/**
+ * An immutable, revision-stamped snapshot of the configuration values cached by
+ * a {@link Config}. Snapshots are replaced, never modified, when a cached value
+ * changes, so every value read from one snapshot is from the same point in time.
+ */
+public class Snapshot {
+  
+  /**
+   * The empty snapshot
+   */
+  public static final Snapshot EMPTY = new Snapshot(0, Collections.<String, Property>emptyMap());
+  
+  private final long                  _revision;
+  private final Map<String, Property> _properties;
+  
+  /**
+   * Construct with a revision and properties
+   */
+  protected Snapshot(long revision, Map<String, Property> properties) {
+    _revision = revision;
+    _properties = properties;
+  }
+  
+  /**
+   * Produce an ordinary snapshot containing the same values as another snapshot, at
+   * the next revision.
+   */
+  protected static Snapshot copyOf(Snapshot snapshot) {
+    Map<String, Property> properties = new HashMap<String, Property>();
+    for(String key : snapshot.keys()) properties.put(key, snapshot.property(key));
+    return new Snapshot(snapshot.revision() + 1, Collections.unmodifiableMap(properties));
+  }
+  
+  /**
+   * Obtain the revision of this snapshot. Revisions increase monotonically each
+   * time a new snapshot is published.
+   */
+  public long revision() {
+    return _revision;
+  }
+  
+  /**
+   * Determine if this snapshot contains a value for the specified key.
+   */
+  public boolean contains(String key) {
+    return _properties.containsKey(key);
+  }
+  
+  /**
+   * Obtain the keys in this snapshot.
+   */
+  public Set<String> keys() {
+    return _properties.keySet();
+  }
+  
+  /**
+   * Obtain the number of values in this snapshot.
+   */
+  public int size() {
+    return _properties.size();
+  }
+  
+  /**
+   * Obtain the property for the specified key, if any.
+   */
+  public Property property(String key) {
+    return _properties.get(key);
+  }
+  
+  /**
+   * Obtain the value for the specified key, if any.
+   */
+  public Object get(String key) {
+    Property property;
+    return ((property = property(key)) != null) ? property.value() : null;
+  }
+  
+  /**
+   * Obtain the value for the specified key, if any.
+   */
+  public <V> V get(String key, Class<V> clazz) {
+    return get(key, clazz, null);
+  }
+  
+  /**
+   * Obtain the value for the specified key, if any.
+   */
+  public <V> V get(String key, Class<V> clazz, V ifnull) {
+    Object value;
+    return ((value = get(key)) != null) ? Typecast.convert(value, clazz) : ifnull;
+  }
+  
+  /**
+   * Produce the next revision of this snapshot by applying the specified changes.
+   * Keys mapped to null, or to a property with a null value, are removed, as are
+   * keys beneath the specified prefix which are not changed, if a prefix is given.
+   */
+  protected Snapshot apply(Map<String, Property> changes, String prefix) {
+    Map<String, Property> properties = new HashMap<String, Property>(_properties);
+    
+    if(prefix != null){
+      String base = prefix +".";
+      for(String key : _properties.keySet()){
+        if(key.startsWith(base) && !changes.containsKey(key)) properties.remove(key);
+      }
+    }
+    
+    for(Map.Entry<String, Property> e : changes.entrySet()){
+      Property property;
+      if((property = e.getValue()) != null && property.value() != null){
+        properties.put(e.getKey(), property);
+      }else{
+        properties.remove(e.getKey());
+      }
+    }
+    
+    return new Snapshot(_revision + 1, Collections.unmodifiableMap(properties));
+  }
+  
+  /**
+   * String description
+   */
+  public String toString() {
+    return String.format("<Snapshot %d: %d values>", _revision, _properties.size());
+  }
+  
+}
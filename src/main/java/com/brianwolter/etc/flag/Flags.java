@@ -0,0 +1,246 @@
+// 
+// Copyright (c) 2014 Brian William Wolter, All rights reserved.
+// Etcd - an etcd SDK for Java
+// 
+// Redistribution and use in source and binary forms, with or without modification,
+// are permitted provided that the following conditions are met:
+// 
+//   * Redistributions of source code must retain the above copyright notice, this
+//     list of conditions and the following disclaimer.
+// 
+//   * Redistributions in binary form must reproduce the above copyright notice,
+//     this list of conditions and the following disclaimer in the documentation
+//     and/or other materials provided with the distribution.
+//     
+//   * Neither the names of Brian William Wolter, Wolter Group New York, nor the
+//     names of its contributors may be used to endorse or promote products derived
+//     from this software without specific prior written permission.
+//     
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+// IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+// INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+// BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+// LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+// OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+// 
+
+package com.brianwolter.etc.flag;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CancellationException;
+
+import org.apache.log4j.Logger;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import com.brianwolter.etc.Config;
+import com.brianwolter.etc.ConfigException;
+
+/**
+ * Feature flags, whose rules are configuration values beneath a prefix. Each flag's
+ * value is resolved and monitored the first time the flag is evaluated; its rule is
+ * compiled whenever that value changes, and only then, so evaluating a flag takes
+ * no locks and allocates nothing.
+ * 
+ * @see Rule
+ */
+public class Flags {
+  
+  private static final Logger logger = Logger.getLogger(Flags.class.getName());
+  
+  private final Config                    _config;
+  private final String                    _prefix;
+  private final ConcurrentMap<String, Flag> _flags;
+  
+  /**
+   * Construct with the configuration and the prefix beneath which flags are defined
+   */
+  public Flags(Config config, String prefix) {
+    if((_config = config) == null) throw new IllegalArgumentException("Configuration must not be null");
+    if((_prefix = prefix) == null || _prefix.isEmpty()) throw new IllegalArgumentException("Prefix must not be null or empty");
+    _flags = new ConcurrentHashMap<String, Flag>();
+  }
+  
+  /**
+   * Determine if a flag is enabled for the specified subject. Undefined flags are
+   * disabled.
+   */
+  public boolean isEnabled(String flag, String subject) {
+    return flag(flag).rule().isEnabled(subject);
+  }
+  
+  /**
+   * Obtain the current rule for a flag
+   */
+  public Rule rule(String flag) {
+    return flag(flag).rule();
+  }
+  
+  /**
+   * Obtain the named flag, resolving it if this is the first time it is used. A
+   * flag which can't be resolved evaluates as disabled until it is.
+   */
+  private Flag flag(String name) {
+    Flag flag, existing;
+    if((flag = _flags.get(name)) == null){
+      if((existing = _flags.putIfAbsent(name, flag = new Flag(name))) != null){
+        flag = existing;
+      }else{
+        flag.resolve();
+      }
+    }
+    return flag;
+  }
+  
+  /**
+   * String description
+   */
+  public String toString() {
+    return String.format("<Flags '%s/' in %s>", _prefix, _config);
+  }
+  
+  /**
+   * A flag, whose rule is recompiled whenever its own value changes
+   */
+  private class Flag {
+    
+    private final String              _name;
+    private final String              _key;
+    private Config.Value<String>      _value;
+    private volatile Compiled         _compiled;
+    private volatile int              _deliveries;
+    private int                       _failures;
+    
+    /**
+     * Construct
+     */
+    private Flag(String name) {
+      _name = name;
+      _key = _prefix +"."+ name;
+      _compiled = new Compiled(null, Rule.OFF);
+    }
+    
+    /**
+     * Resolve our value, compile it and begin watching it. A flag which is not
+     * defined yet is watched so that it takes effect when it is.
+     */
+    private void resolve() {
+      _value = _config.get(_key, String.class).autoUpdate();
+      watch();
+      read(1);
+    }
+    
+    /**
+     * Read and compile our value. A value which can't be read is read again after
+     * backing off, unless our watch delivers it first; until then we evaluate as
+     * we did before.
+     */
+    private void read(final int attempt) {
+      final int deliveries = _deliveries;
+      String text;
+      try {
+        text = _value.get();
+      }catch(ConfigException e){
+        logger.error("Could not resolve flag '"+ _name +"', retrying", e);
+        _config.retry(new Runnable() {
+          public void run() {
+            if(_deliveries == deliveries) read(attempt + 1);
+          }
+        }, attempt);
+        return;
+      }
+      synchronized(this){
+        // a change delivered while we were reading is newer than what we read
+        if(_deliveries == deliveries) compile(text);
+      }
+    }
+    
+    /**
+     * Watch our value, recompiling our rule each time it changes. A watch which
+     * fails is resumed after backing off, so a persistent failure doesn't become a
+     * busy loop.
+     */
+    private void watch() {
+      try {
+        Futures.addCallback(_value.watch(), new FutureCallback<String>() {
+          public void onSuccess(String value) {
+            _failures = 0;
+            synchronized(Flag.this){
+              _deliveries++;
+              compile(value);
+            }
+            watch();
+          }
+          public void onFailure(Throwable thrown) {
+            if(thrown instanceof CancellationException) return;
+            // our value retries on its own; keep our current rule until it recovers
+            retry();
+          }
+        }, MoreExecutors.sameThreadExecutor());
+      }catch(ConfigException e){
+        logger.error("Could not watch flag '"+ _name +"', retrying", e);
+        retry();
+      }
+    }
+    
+    /**
+     * Resume watching after backing off
+     */
+    private void retry() {
+      _config.retry(new Runnable() {
+        public void run() {
+          Flag.this.watch();
+        }
+      }, ++_failures);
+    }
+    
+    /**
+     * Compile a value, unless it is the value we last compiled
+     */
+    private void compile(String text) {
+      Compiled compiled = _compiled;
+      if(text == null ? compiled._text == null : text.equals(compiled._text)) return;
+      
+      Rule rule;
+      try {
+        rule = Rule.compile(text, _name);
+      }catch(IllegalArgumentException e){
+        logger.error("Invalid rule for flag '"+ _name +"', retaining the previous rule: "+ text, e);
+        rule = compiled._rule;
+      }
+      
+      _compiled = new Compiled(text, rule);
+    }
+    
+    /**
+     * Obtain our rule
+     */
+    private Rule rule() {
+      return _compiled._rule;
+    }
+    
+  }
+  
+  /**
+   * A rule and the value it was compiled from
+   */
+  private static class Compiled {
+    
+    private final String  _text;
+    private final Rule    _rule;
+    
+    private Compiled(String text, Rule rule) {
+      _text = text;
+      _rule = rule;
+    }
+    
+  }
+  
+}
@@ -0,0 +1,249 @@
+// 
+// Copyright (c) 2014 Brian William Wolter, All rights reserved.
+// Etcd - an etcd SDK for Java
+// 
+// Redistribution and use in source and binary forms, with or without modification,
+// are permitted provided that the following conditions are met:
+// 
+//   * Redistributions of source code must retain the above copyright notice, this
+//     list of conditions and the following disclaimer.
+// 
+//   * Redistributions in binary form must reproduce the above copyright notice,
+//     this list of conditions and the following disclaimer in the documentation
+//     and/or other materials provided with the distribution.
+//     
+//   * Neither the names of Brian William Wolter, Wolter Group New York, nor the
+//     names of its contributors may be used to endorse or promote products derived
+//     from this software without specific prior written permission.
+//     
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+// IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+// INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+// BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+// LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+// OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+// 
+
+package com.brianwolter.etc.flag;
+
+import java.util.Set;
+import java.util.HashSet;
+import java.util.Collections;
+
+/**
+ * A compiled feature flag rule. Rules are compiled once, when the flag's value
+ * changes, and evaluated without allocating.
+ * <p>
+ * A rule is either a constant, <code>on</code> or <code>off</code> (also
+ * <code>true</code> or <code>false</code>), or a list of clauses separated by
+ * semicolons:
+ * <ul>
+ * <li><code>deny=a,b</code> &mdash; subjects for which the flag is always disabled</li>
+ * <li><code>allow=c,d</code> &mdash; subjects for which the flag is always enabled</li>
+ * <li><code>percent=12.5</code> &mdash; the percentage of other subjects for which the flag is enabled</li>
+ * <li><code>buckets=0-9,42</code> &mdash; the hash buckets, of 100, for which the flag is enabled</li>
+ * <li><code>salt=s</code> &mdash; the salt subjects are hashed with, by default the flag name</li>
+ * </ul>
+ * Denials take precedence over allowances, which take precedence over buckets and
+ * percentages. Subjects are hashed into 10,000 buckets, so a percentage has a
+ * resolution of one hundredth and <code>percent=10</code> enables the same subjects
+ * as <code>buckets=0-9</code>. Subjects keep their buckets as a rollout grows, so
+ * raising a percentage only ever enables more of them.
+ */
+public class Rule {
+  
+  /**
+   * A rule which is always disabled
+   */
+  public static final Rule OFF = new Rule("off", false);
+  
+  /**
+   * A rule which is always enabled
+   */
+  public static final Rule ON = new Rule("on", true);
+  
+  private static final int BUCKETS  = 10000;
+  private static final int SCALE    = BUCKETS / 100;
+  
+  private final String      _text;
+  private final boolean     _constant;
+  private final Set<String> _allow;
+  private final Set<String> _deny;
+  private final int         _threshold;
+  private final long        _low;
+  private final long        _high;
+  private final int         _seed;
+  
+  /**
+   * Construct a constant rule
+   */
+  private Rule(String text, boolean enabled) {
+    _text = text;
+    _constant = true;
+    _allow = Collections.emptySet();
+    _deny = Collections.emptySet();
+    _threshold = enabled ? BUCKETS : 0;
+    _low = 0;
+    _high = 0;
+    _seed = 0;
+  }
+  
+  /**
+   * Construct a rule from clauses
+   */
+  private Rule(String text, Set<String> allow, Set<String> deny, int threshold, long low, long high, int seed) {
+    _text = text;
+    _constant = false;
+    _allow = allow;
+    _deny = deny;
+    _threshold = threshold;
+    _low = low;
+    _high = high;
+    _seed = seed;
+  }
+  
+  /**
+   * Compile a rule. The flag name salts subject hashes unless the rule provides its
+   * own salt, so that separate flags roll out to separate subjects.
+   * 
+   * @throws IllegalArgumentException if the rule is malformed
+   */
+  public static Rule compile(String text, String flag) {
+    if(text == null) return OFF;
+    
+    String trimmed = text.trim();
+    if(trimmed.isEmpty() || trimmed.equalsIgnoreCase("off") || trimmed.equalsIgnoreCase("false")) return OFF;
+    if(trimmed.equalsIgnoreCase("on") || trimmed.equalsIgnoreCase("true")) return ON;
+    
+    Set<String> allow = new HashSet<String>();
+    Set<String> deny = new HashSet<String>();
+    String salt = flag;
+    int threshold = 0;
+    long low = 0, high = 0;
+    
+    for(String clause : trimmed.split(";")){
+      if((clause = clause.trim()).isEmpty()) continue;
+      
+      int separator;
+      if((separator = clause.indexOf('=')) < 1) throw new IllegalArgumentException("Invalid clause: "+ clause);
+      String name = clause.substring(0, separator).trim().toLowerCase();
+      String value = clause.substring(separator + 1).trim();
+      
+      if(name.equals("allow")){
+        list(value, allow);
+      }else if(name.equals("deny")){
+        list(value, deny);
+      }else if(name.equals("salt")){
+        salt = value;
+      }else if(name.equals("percent")){
+        double percent;
+        try {
+          percent = Double.parseDouble(value);
+        }catch(NumberFormatException e){
+          throw new IllegalArgumentException("Invalid percentage: "+ value, e);
+        }
+        if(percent < 0 || percent > 100) throw new IllegalArgumentException("Percentage out of range: "+ value);
+        threshold = (int)Math.round(percent * SCALE);
+      }else if(name.equals("buckets")){
+        for(String range : value.split(",")){
+          if((range = range.trim()).isEmpty()) continue;
+          int dash = range.indexOf('-', 1);
+          int first, last;
+          try {
+            first = Integer.parseInt(((dash > 0) ? range.substring(0, dash) : range).trim());
+            last = (dash > 0) ? Integer.parseInt(range.substring(dash + 1).trim()) : first;
+          }catch(NumberFormatException e){
+            throw new IllegalArgumentException("Invalid bucket range: "+ range, e);
+          }
+          if(first < 0 || last > 99 || first > last) throw new IllegalArgumentException("Bucket range out of range: "+ range);
+          for(int i = first; i <= last; i++){
+            if(i < 64) low |= 1L << i; else high |= 1L << (i - 64);
+          }
+        }
+      }else{
+        throw new IllegalArgumentException("Unknown clause: "+ name);
+      }
+    }
+    
+    return new Rule(text, Collections.unmodifiableSet(allow), Collections.unmodifiableSet(deny), threshold, low, high, (salt != null) ? salt.hashCode() : 0);
+  }
+  
+  /**
+   * Determine if this rule is enabled for the specified subject. A null subject is
+   * only enabled by a rule which is enabled for everyone.
+   */
+  public boolean isEnabled(String subject) {
+    if(_constant) return _threshold > 0;
+    if(subject == null) return _threshold >= BUCKETS;
+    if(!_deny.isEmpty() && _deny.contains(subject)) return false;
+    if(!_allow.isEmpty() && _allow.contains(subject)) return true;
+    if(_threshold == 0 && _low == 0 && _high == 0) return false;
+    
+    int bucket = bucket(subject, _seed);
+    if(bucket < _threshold) return true;
+    
+    int coarse = bucket / SCALE;
+    return (coarse < 64) ? (_low & (1L << coarse)) != 0 : (_high & (1L << (coarse - 64))) != 0;
+  }
+  
+  /**
+   * Obtain the bucket, of 10,000, the specified subject hashes to with the specified
+   * seed. The subject's characters are hashed directly, two at a time, with 32-bit
+   * MurmurHash3, so nothing is allocated.
+   */
+  public static int bucket(String subject, int seed) {
+    int h = seed;
+    int length = subject.length();
+    int i;
+    
+    for(i = 1; i < length; i += 2){
+      h = mix(h, subject.charAt(i - 1) | (subject.charAt(i) << 16));
+    }
+    if(i == length){
+      h ^= mixK(subject.charAt(i - 1));
+    }
+    
+    // finalize
+    h ^= length * 2;
+    h ^= h >>> 16;
+    h *= 0x85EBCA6B;
+    h ^= h >>> 13;
+    h *= 0xC2B2AE35;
+    h ^= h >>> 16;
+    
+    return (h & 0x7FFFFFFF) % BUCKETS;
+  }
+  
+  private static int mixK(int k) {
+    k *= 0xCC9E2D51;
+    k = Integer.rotateLeft(k, 15);
+    return k * 0x1B873593;
+  }
+  
+  private static int mix(int h, int k) {
+    h ^= mixK(k);
+    h = Integer.rotateLeft(h, 13);
+    return h * 5 + 0xE6546B64;
+  }
+  
+  /**
+   * Add the members of a comma separated list to a set
+   */
+  private static void list(String value, Set<String> members) {
+    for(String member : value.split(",")){
+      if(!(member = member.trim()).isEmpty()) members.add(member);
+    }
+  }
+  
+  /**
+   * String description
+   */
+  public String toString() {
+    return _text;
+  }
+  
+}
@@ -0,0 +1,122 @@
+// 
+// Copyright (c) 2014 Brian William Wolter, All rights reserved.
+// Etcd - an etcd SDK for Java
+// 
+// Redistribution and use in source and binary forms, with or without modification,
+// are permitted provided that the following conditions are met:
+// 
+//   * Redistributions of source code must retain the above copyright notice, this
+//     list of conditions and the following disclaimer.
+// 
+//   * Redistributions in binary form must reproduce the above copyright notice,
+//     this list of conditions and the following disclaimer in the documentation
+//     and/or other materials provided with the distribution.
+//     
+//   * Neither the names of Brian William Wolter, Wolter Group New York, nor the
+//     names of its contributors may be used to endorse or promote products derived
+//     from this software without specific prior written permission.
+//     
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+// IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+// INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+// BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+// LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+// OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+// 
+
+package com.brianwolter.etc.marshal;
+
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+
+import com.google.common.io.BaseEncoding;
+
+import com.brianwolter.etc.Marshaler;
+
+/**
+ * Marshals binary values stored as base64 text. Binary properties are decoded
+ * directly from their bytes, without first being converted to a string.
+ */
+public class Base64Marshaler implements Marshaler.Binary <byte[]> {
+  
+  private static final BaseEncoding encoding = BaseEncoding.base64();
+  
+  /**
+   * Unmarshal an object from it's external representation to its internal representation
+   */
+  public byte[] unmarshal(Object o) throws IOException {
+    if(o == null){
+      return null;
+    }else if(o instanceof byte[]){
+      return (byte[])o;
+    }else if(o instanceof ByteBuffer){
+      return unmarshal((ByteBuffer)o);
+    }else{
+      return decode(o.toString());
+    }
+  }
+  
+  /**
+   * Unmarshal an object from the raw bytes of its external representation
+   */
+  public byte[] unmarshal(ByteBuffer bytes) throws IOException {
+    return (bytes != null) ? decode(new ASCIISequence(bytes)) : null;
+  }
+  
+  /**
+   * Marshal an object from it's internal representation to its external representation
+   */
+  public Object marshal(byte[] o) throws IOException {
+    return (o != null) ? encoding.encode(o) : null;
+  }
+  
+  /**
+   * Decode base64 text
+   */
+  private static byte[] decode(CharSequence text) throws IOException {
+    try {
+      return encoding.decode(text);
+    }catch(IllegalArgumentException e){
+      throw new IOException("Invalid base64 value", e);
+    }
+  }
+  
+  /**
+   * A character sequence over ASCII bytes, which lets us decode base64 text in place.
+   */
+  private static class ASCIISequence implements CharSequence {
+    
+    private final ByteBuffer _bytes;
+    
+    private ASCIISequence(ByteBuffer bytes) {
+      _bytes = bytes;
+    }
+    
+    public int length() {
+      return _bytes.remaining();
+    }
+    
+    public char charAt(int index) {
+      return (char)(_bytes.get(_bytes.position() + index) & 0xff);
+    }
+    
+    public CharSequence subSequence(int start, int end) {
+      ByteBuffer bytes = _bytes.duplicate();
+      bytes.position(_bytes.position() + start);
+      bytes.limit(_bytes.position() + end);
+      return new ASCIISequence(bytes.slice());
+    }
+    
+    public String toString() {
+      StringBuilder builder = new StringBuilder(length());
+      return builder.append(this, 0, length()).toString();
+    }
+    
+  }
+  
+}
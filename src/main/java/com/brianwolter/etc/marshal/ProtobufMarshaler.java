@@ -0,0 +1,119 @@
+// 
+// Copyright (c) 2014 Brian William Wolter, All rights reserved.
+// Etcd - an etcd SDK for Java
+// 
+// Redistribution and use in source and binary forms, with or without modification,
+// are permitted provided that the following conditions are met:
+// 
+//   * Redistributions of source code must retain the above copyright notice, this
+//     list of conditions and the following disclaimer.
+// 
+//   * Redistributions in binary form must reproduce the above copyright notice,
+//     this list of conditions and the following disclaimer in the documentation
+//     and/or other materials provided with the distribution.
+//     
+//   * Neither the names of Brian William Wolter, Wolter Group New York, nor the
+//     names of its contributors may be used to endorse or promote products derived
+//     from this software without specific prior written permission.
+//     
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+// IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+// INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+// BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+// LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+// OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+// 
+
+package com.brianwolter.etc.marshal;
+
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.InvocationTargetException;
+
+import com.brianwolter.etc.Marshaler;
+
+/**
+ * Marshals protocol buffer messages stored as base64 text. Messages are handled
+ * reflectively through their generated <code>parseFrom(byte[])</code> and
+ * <code>toByteArray()</code> methods, so no particular version of the protobuf
+ * runtime is required.
+ */
+public class ProtobufMarshaler <V> implements Marshaler.Binary <V> {
+  
+  private final Class<V>        _clazz;
+  private final Method          _parse;
+  private final Method          _serialize;
+  private final Base64Marshaler _base64 = new Base64Marshaler();
+  
+  /**
+   * Construct with a generated message type
+   */
+  public ProtobufMarshaler(Class<V> clazz) {
+    if((_clazz = clazz) == null) throw new IllegalArgumentException("Class must not be null");
+    try {
+      _parse = clazz.getMethod("parseFrom", byte[].class);
+      _serialize = clazz.getMethod("toByteArray");
+    }catch(NoSuchMethodException e){
+      throw new IllegalArgumentException("Class is not a protocol buffer message: "+ clazz.getName(), e);
+    }
+    if(!Modifier.isStatic(_parse.getModifiers())){
+      throw new IllegalArgumentException("Class is not a protocol buffer message: "+ clazz.getName());
+    }
+  }
+  
+  /**
+   * Unmarshal an object from it's external representation to its internal representation
+   */
+  public V unmarshal(Object o) throws IOException {
+    if(o == null){
+      return null;
+    }else if(_clazz.isInstance(o)){
+      return _clazz.cast(o);
+    }else{
+      return parse(_base64.unmarshal(o));
+    }
+  }
+  
+  /**
+   * Unmarshal an object from the raw bytes of its external representation
+   */
+  public V unmarshal(ByteBuffer bytes) throws IOException {
+    return (bytes != null) ? parse(_base64.unmarshal(bytes)) : null;
+  }
+  
+  /**
+   * Marshal an object from it's internal representation to its external representation
+   */
+  public Object marshal(V o) throws IOException {
+    if(o == null) return null;
+    try {
+      return _base64.marshal((byte[])_serialize.invoke(o));
+    }catch(IllegalAccessException e){
+      throw new IOException("Could not serialize message: "+ _clazz.getName(), e);
+    }catch(InvocationTargetException e){
+      throw new IOException("Could not serialize message: "+ _clazz.getName(), e.getCause());
+    }
+  }
+  
+  /**
+   * Parse a message
+   */
+  private V parse(byte[] bytes) throws IOException {
+    try {
+      return _clazz.cast(_parse.invoke(null, (Object)bytes));
+    }catch(IllegalAccessException e){
+      throw new IOException("Could not parse message: "+ _clazz.getName(), e);
+    }catch(InvocationTargetException e){
+      throw new IOException("Could not parse message: "+ _clazz.getName(), e.getCause());
+    }
+  }
+  
+}
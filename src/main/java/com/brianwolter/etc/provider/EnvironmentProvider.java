@@ -0,0 +1,179 @@
+// 
+// Copyright (c) 2014 Brian William Wolter, All rights reserved.
+// Etcd - an etcd SDK for Java
+// 
+// Redistribution and use in source and binary forms, with or without modification,
+// are permitted provided that the following conditions are met:
+// 
+//   * Redistributions of source code must retain the above copyright notice, this
+//     list of conditions and the following disclaimer.
+// 
+//   * Redistributions in binary form must reproduce the above copyright notice,
+//     this list of conditions and the following disclaimer in the documentation
+//     and/or other materials provided with the distribution.
+//     
+//   * Neither the names of Brian William Wolter, Wolter Group New York, nor the
+//     names of its contributors may be used to endorse or promote products derived
+//     from this software without specific prior written permission.
+//     
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+// IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+// INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+// BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+// LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+// OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+// 
+
+package com.brianwolter.etc.provider;
+
+import java.io.IOException;
+
+import java.util.Map;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Collections;
+
+import org.apache.log4j.Logger;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import com.brianwolter.etc.Provider;
+import com.brianwolter.etc.util.Property;
+
+/**
+ * Environment provider. Configuration keys are mapped to environment variable names
+ * by upper-casing them and replacing '.' and '-' with '_', optionally with a prefix;
+ * for example, with the prefix "APP_" the key "db.pool.max" is provided by the
+ * variable APP_DB_POOL_MAX.
+ * <p>
+ * The environment is indexed once, when the provider is constructed, and lookups
+ * are memoized per key in a bounded cache, so resolving a recently used key does
+ * not allocate.
+ */
+public class EnvironmentProvider implements Provider.Observable, Provider.Hierarchical {
+  
+  private static final Logger   logger  = Logger.getLogger(EnvironmentProvider.class.getName());
+  private static final Property NONE    = new EnvironmentProperty(null);
+  
+  private final String                          _prefix;
+  private final Map<String, Property>           _index;
+  private final Cache<String, Property>         _keys;
+  
+  /**
+   * Construct
+   */
+  public EnvironmentProvider() {
+    this(null);
+  }
+  
+  /**
+   * Construct with a variable name prefix
+   */
+  public EnvironmentProvider(String prefix) {
+    this(prefix, System.getenv());
+  }
+  
+  /**
+   * Construct with a variable name prefix and an environment
+   */
+  public EnvironmentProvider(String prefix, Map<String, String> environment) {
+    if(environment == null) throw new IllegalArgumentException("Environment must not be null");
+    _prefix = (prefix != null) ? prefix : "";
+    
+    Map<String, Property> index = new HashMap<String, Property>();
+    for(Map.Entry<String, String> e : environment.entrySet()){
+      if(e.getKey().startsWith(_prefix)){
+        index.put(e.getKey(), new EnvironmentProperty(e.getValue()));
+      }
+    }
+    
+    int keyCacheSize;
+    String stemp;
+    if((stemp = System.getProperty("etc.provider.environment.keycache")) != null && !stemp.isEmpty()){
+      keyCacheSize = Integer.valueOf(stemp);
+    }else{
+      keyCacheSize = 4096;
+    }
+    
+    _index = Collections.unmodifiableMap(index);
+    _keys = CacheBuilder.newBuilder().maximumSize(keyCacheSize).concurrencyLevel(16).build();
+    
+  }
+  
+  /**
+   * Obtain a configuration value.
+   */
+  public Property get(final String key) throws IOException, InterruptedException {
+    Property property;
+    if((property = _keys.getIfPresent(key)) == null){
+      if((property = _index.get(keyToName(key))) == null) property = NONE;
+      _keys.put(key, property);
+    }
+    return (property != NONE) ? property : null;
+  }
+  
+  /**
+   * Obtain every value beneath a prefix. Since '_' separates segments in variable
+   * names, the keys produced by listing never contain underscores.
+   */
+  public Property list(final String prefix) throws IOException, InterruptedException {
+    Map<String, Property> values = new HashMap<String, Property>();
+    String base = keyToName(prefix) +"_";
+    
+    for(Map.Entry<String, Property> e : _index.entrySet()){
+      if(e.getKey().startsWith(base) && e.getKey().length() > base.length()){
+        values.put(e.getKey().substring(base.length()).toLowerCase(Locale.ROOT).replace('_', '.'), e.getValue());
+      }
+    }
+    
+    return new EnvironmentProperty(Collections.unmodifiableMap(values));
+  }
+  
+  /**
+   * Convert a configuration key to an environment variable name
+   */
+  public String keyToName(String key) {
+    StringBuilder sb = new StringBuilder(_prefix.length() + key.length()).append(_prefix);
+    for(int i = 0; i < key.length(); i++){
+      char c = key.charAt(i);
+      sb.append((c == '.' || c == '-') ? '_' : Character.toUpperCase(c));
+    }
+    return sb.toString();
+  }
+  
+  /**
+   * String description
+   */
+  public String toString() {
+    return "environment";
+  }
+  
+  /**
+   * An environment variable
+   */
+  public static class EnvironmentProperty implements Property {
+    
+    private final Object _value;
+    
+    /**
+     * Construct with a value
+     */
+    public EnvironmentProperty(Object value) {
+      _value = value;
+    }
+    
+    /**
+     * Obtain the value
+     */
+    public Object value() {
+      return _value;
+    }
+    
+  }
+  
+}
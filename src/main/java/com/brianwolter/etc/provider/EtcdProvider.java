@@ -35,67 +35,99 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 
 import java.net.URI;
-import java.net.URISyntaxException;
 import java.net.URLEncoder;
+import java.net.SocketTimeoutException;
+import java.net.URISyntaxException;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 
 import java.util.Map;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Collections;
 import java.util.List;
-import java.util.ArrayList;
 import java.util.Date;
 
-import org.apache.log4j.Logger;
-
-import org.apache.http.Header;
-import org.apache.http.HttpEntity;
-import org.apache.http.HttpResponse;
-import org.apache.http.NameValuePair;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.message.BasicNameValuePair;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
-import org.apache.http.client.HttpClient;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.client.methods.HttpPut;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.client.methods.HttpUriRequest;
-import org.apache.http.client.config.RequestConfig;
-import org.apache.http.client.utils.URLEncodedUtils;
-
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.impl.client.HttpClientBuilder;
-import org.apache.http.impl.client.CloseableHttpClient;
-
-import org.apache.http.concurrent.FutureCallback;
-import org.apache.http.impl.nio.client.HttpAsyncClients;
-import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.log4j.Logger;
 
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
 import java.lang.reflect.Type;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
 import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.common.util.concurrent.SettableFuture;
 import com.google.common.util.concurrent.ListenableFuture;
 
 import com.brianwolter.etc.Provider;
 import com.brianwolter.etc.util.Property;
+import com.brianwolter.etc.util.Expirable;
+import com.brianwolter.etc.util.Change;
+import com.brianwolter.etc.util.BinaryProperty;
+import com.brianwolter.etc.util.Backoff;
+import com.brianwolter.etc.util.CircuitBreaker;
+import com.brianwolter.etc.util.TLS;
+import com.brianwolter.etc.transport.Transport;
+import com.brianwolter.etc.transport.ApacheTransport;
+import com.brianwolter.etc.transport.JdkTransport;
+import com.brianwolter.etc.transport.Request;
+import com.brianwolter.etc.transport.Response;
 
 /**
  * Etcd provider.
  */
-public class EtcdProvider implements Provider.Observable, Provider.Mutable, Provider.Monitorable {
+public class EtcdProvider implements Provider.Observable, Provider.Bounded, Provider.Mutable, Provider.Monitorable, Provider.Recursive, Provider.Sequenced, Provider.Expiring {
   
   private static final Logger logger = Logger.getLogger(EtcdProvider.class.getName());
   
   private static final String ENCODING                = "UTF-8";
-  private static final String HEADER_CONTENT_TYPE     = "Content-Type";
+  private static final Charset UTF_8                  = Charset.forName(ENCODING);
+  private static final String KEYS_PATH               = "/v2/keys/";
+  private static final char[] HEX                     = "0123456789ABCDEF".toCharArray();
+  private static final String HEADER_ETCD_INDEX       = "X-Etcd-Index";
   private static final String CONTENT_TYPE_JSON       = "application/json";
   private static final String CONTENT_TYPE_FORM       = "application/x-www-form-urlencoded";
   private static final Gson   GSON                    = new Gson();
+  private static final long   LEASE_INTERVAL          = 500;
+  
+  private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setDaemon(true).setNameFormat("etc-etcd-scheduler").build());
+  private static final RateLimiter limiter    = RateLimiter.create(doubleProperty("etc.provider.etcd.reconnect.rate", 50));
+  private static final AtomicLong  throttled  = new AtomicLong();
   
-  private final CloseableHttpAsyncClient  _httpclient;
+  private final Transport                 _transport;
+  private final String                    _scheme;
   private final String                    _host;
   private final int                       _port;
+  private final String                    _base;
+  private final Cache<String, URI>        _uris;
+  private final ConcurrentMap<String, Lease> _leases;
+  private ScheduledFuture<?>              _keepalive;
+  private final Backoff                   _backoff;
+  private final CircuitBreaker            _breaker;
+  private final AtomicLong                _reconnects;
+  private final long                      _readTimeout;
   
   /**
    * Construct
@@ -112,48 +144,134 @@ public class EtcdProvider implements Provider.Observable, Provider.Mutable, Prov
   }
   
   /**
-   * Construct
+   * Construct. If <code>etc.provider.etcd.tls</code> is true, HTTPS is used with the
+   * key and trust stores named by <code>etc.provider.etcd.tls.keystore</code> and
+   * <code>etc.provider.etcd.tls.truststore</code> (and their <code>.password</code>
+   * properties); a key store is only required for mutual TLS.
    */
   public EtcdProvider(String host, int port) {
+    this(host, port, defaultContext());
+  }
+  
+  /**
+   * Construct. If a TLS context is provided HTTPS is used. Requests are made over
+   * the transport named by <code>etc.provider.etcd.transport</code>, either
+   * <code>apache</code> (the default) or <code>jdk</code>.
+   */
+  public EtcdProvider(String host, int port, SSLContext context) {
+    this(host, port, transport(context));
+  }
+  
+  /**
+   * Construct with the transport requests are made over
+   */
+  public EtcdProvider(String host, int port, Transport transport) {
     String stemp;
     
     if((_host = host) == null || _host.isEmpty()) throw new IllegalArgumentException("Etcd server host is invalid");
+    if((_transport = transport) == null) throw new IllegalArgumentException("Transport must not be null");
     _port = (port <= 0) ? 4001 : port;
+    _scheme = _transport.scheme();
     
-    int requestTimeout;
-    if((stemp = System.getProperty("etc.provider.etcd.timeout")) != null && !stemp.isEmpty()){
-      requestTimeout = Integer.valueOf(stemp) * 1000;
+    int pathCacheSize;
+    if((stemp = System.getProperty("etc.provider.etcd.pathcache")) != null && !stemp.isEmpty()){
+      pathCacheSize = Integer.valueOf(stemp);
     }else{
-      requestTimeout = 60 * 5 * 1000;
+      pathCacheSize = 4096;
     }
     
-    int concurrentConnections;
-    if((stemp = System.getProperty("etc.provider.etcd.maxconn")) != null && !stemp.isEmpty()){
-      concurrentConnections = Integer.valueOf(stemp);
-    }else{
-      concurrentConnections = 1024; // use a large number by default; we only have one route
-    }
+    _base = _scheme +"://"+ _host +":"+ _port + KEYS_PATH;
+    _uris = CacheBuilder.newBuilder().maximumSize(pathCacheSize).concurrencyLevel(16).build();
+    _leases = new ConcurrentHashMap<String, Lease>();
     
-    RequestConfig requestConfig = RequestConfig.custom()
-      .setConnectTimeout(1000)
-      .setSocketTimeout(requestTimeout)
-      .setConnectionRequestTimeout(requestTimeout)
-      .build();
+    // reconnect watches with backoff and stop talking to an endpoint which is down
+    _backoff = new Backoff((long)doubleProperty("etc.provider.etcd.backoff.base", 100), (long)doubleProperty("etc.provider.etcd.backoff.max", 30000), TimeUnit.MILLISECONDS);
+    _breaker = new CircuitBreaker((int)doubleProperty("etc.provider.etcd.breaker.threshold", 5), (long)doubleProperty("etc.provider.etcd.breaker.timeout", 5000), TimeUnit.MILLISECONDS);
+    _reconnects = new AtomicLong();
     
-    _httpclient = HttpAsyncClients.custom()
-      .setDefaultRequestConfig(requestConfig)
-      .setMaxConnPerRoute(concurrentConnections)
-      .build();
+    // the transport's request timeout must accommodate long polling watches; reads
+    // are bounded separately so a stalled endpoint can't hold a caller for as long
+    _readTimeout = (long)(doubleProperty("etc.provider.etcd.readtimeout", 10) * 1000);
     
-    _httpclient.start();
+  }
+  
+  /**
+   * Produce the transport configured by system properties
+   */
+  private static Transport transport(SSLContext context) {
+    
+    if(context != null){
+      // cache sessions so new connections resume them rather than doing a full handshake
+      SSLSessionContext sessions = context.getClientSessionContext();
+      sessions.setSessionCacheSize((int)doubleProperty("etc.provider.etcd.tls.sessions", 1024));
+      sessions.setSessionTimeout((int)doubleProperty("etc.provider.etcd.tls.sessiontimeout", 24 * 60 * 60));
+    }
+    
+    String name = System.getProperty("etc.provider.etcd.transport", "apache");
+    if(name.equals("apache")){
+      return new ApacheTransport(context);
+    }else if(name.equals("jdk")){
+      return new JdkTransport(context);
+    }else{
+      throw new IllegalArgumentException("Unsupported etcd transport: "+ name);
+    }
     
   }
   
   /**
-   * Close the HTTP client
+   * Obtain the TLS context configured by system properties, if TLS is enabled
+   */
+  private static SSLContext defaultContext() {
+    if(!Boolean.getBoolean("etc.provider.etcd.tls")) return null;
+    try {
+      return TLS.context("etc.provider.etcd.tls");
+    }catch(IOException e){
+      throw new IllegalArgumentException("Etcd TLS configuration is invalid", e);
+    }
+  }
+  
+  /**
+   * Obtain the scheme used to reach etcd, either http or https
+   */
+  public String scheme() {
+    return _scheme;
+  }
+  
+  /**
+   * Obtain the transport requests are made over
+   */
+  public Transport transport() {
+    return _transport;
+  }
+  
+  /**
+   * Close the transport
    */
   protected void finalize() throws Throwable {
-    _httpclient.close();
+    _transport.close();
+  }
+  
+  /**
+   * Obtain the circuit breaker guarding this provider's endpoint
+   */
+  public CircuitBreaker breaker() {
+    return _breaker;
+  }
+  
+  /**
+   * Obtain the number of times watches on this provider have attempted to reconnect
+   * after failing
+   */
+  public long reconnects() {
+    return _reconnects.get();
+  }
+  
+  /**
+   * Obtain the number of reconnect attempts, across every provider, which have been
+   * deferred by the global reconnect rate limit
+   */
+  public static long throttled() {
+    return throttled.get();
   }
   
   /**
@@ -164,53 +282,120 @@ public class EtcdProvider implements Provider.Observable, Provider.Mutable, Prov
   }
   
   /**
-   * Obtain a configuration value.
+   * Obtain a configuration value. The request is bounded by the read timeout, which
+   * is configured by <code>etc.provider.etcd.readtimeout</code> in seconds (default 10).
    */
   public Property get(final String key) throws IOException, InterruptedException {
-    HttpGet get;
-    
     try {
-      get = new HttpGet(new URI("http", null, _host, _port, String.format("/v2/keys/%s", keyToPath(key)), null, null));
-    }catch(URISyntaxException e){
-      throw new IOException(e);
+      return get(key, _readTimeout, TimeUnit.MILLISECONDS);
+    }catch(TimeoutException e){
+      throw new SocketTimeoutException("Etcd request timed out: "+ key);
     }
+  }
+  
+  /**
+   * Obtain a configuration value, giving up after the specified timeout.
+   */
+  public Property get(final String key, final long timeout, final TimeUnit unit) throws IOException, InterruptedException, TimeoutException {
+    Request get = new Request(Request.GET, uriForKey(key));
     
     try {
       
       // note it for debugging
       logger.debug(get);
       // send our request synchronously
-      HttpResponse response = executeRequest(get).get();
+      Response response = executeRead(get, unit.toMillis(timeout));
       
       // check out status code
-      switch(response.getStatusLine().getStatusCode()){
+      switch(response.status()){
         case 200:
-          logger.debug(get +": "+ response.getStatusLine());
+          logger.debug(get +": "+ response);
           break;        // ok
         case 404:
-          logger.debug(get +": "+ response.getStatusLine());
+          logger.debug(get +": "+ response);
           return null;  // not found
         default:
           invalidStatus(key.toString(), response);
       }
       
-      // obtain our response entity
-      HttpEntity entity;
-      if((entity = response.getEntity()) == null){
+      // check that we have a response body
+      if(response.body() == null){
         throw new IOException("Etcd response contains no data");
       }
       
       // return the canonical value
-      return resultForEntity(entity);
+      return resultForResponse(response);
       
     }catch(InterruptedException e){
       throw e;
+    }catch(TimeoutException e){
+      throw e;
+    }catch(IOException e){
+      throw e;
+    }catch(Exception e){
+      throw new IOException("Etcd request failed: "+ get, e);
+    }
+    
+  }
+  
+  /**
+   * Obtain every value beneath a prefix with a single recursive request.
+   */
+  public Property list(final String prefix) throws IOException, InterruptedException {
+    Request get = new Request(Request.GET, URI.create(uriForKey(prefix).toString() +"?recursive=true"));
+    
+    try {
+      
+      // note it for debugging
+      logger.debug(get);
+      // send our request synchronously
+      Response response = executeRead(get, _readTimeout);
+      
+      // check out status code
+      switch(response.status()){
+        case 200:
+          logger.debug(get +": "+ response);
+          break;        // ok
+        case 404:
+          logger.debug(get +": "+ response);
+          return null;  // not found
+        default:
+          invalidStatus(prefix, response);
+      }
+      
+      // check that we have a response body
+      if(response.body() == null){
+        throw new IOException("Etcd response contains no data");
+      }
+      
+      Map<String, Object> content;
+      Map<String, Object> node;
+      if((content = jsonForResponse(response)) == null || (node = (Map<String, Object>)content.get("node")) == null){
+        throw new IOException("Invalid node");
+      }
+      
+      // flatten the tree into keys relative to the listed directory
+      Map<String, Property> values = new HashMap<String, Property>();
+      String base = (String)node.get("key");
+      flattenNode(values, (base != null) ? base.length() : 0, node);
+      
+      // the etcd index of the response is where watchers of this tree resume from
+      long index = 0;
+      String header;
+      if((header = response.header(HEADER_ETCD_INDEX)) != null){
+        index = Long.parseLong(header);
+      }
+      
+      return new Result(Collections.unmodifiableMap(values), index, index + 1);
+      
+    }catch(InterruptedException e){
+      throw e;
+    }catch(TimeoutException e){
+      throw new SocketTimeoutException("Etcd request timed out: "+ prefix);
     }catch(IOException e){
       throw e;
     }catch(Exception e){
       throw new IOException("Etcd request failed: "+ get, e);
-    }finally{
-      get.releaseConnection();
     }
     
   }
@@ -219,48 +404,157 @@ public class EtcdProvider implements Provider.Observable, Provider.Mutable, Prov
    * Set a configuration value.
    */
   public Property set(final String key, final Object value) throws IOException, InterruptedException {
-    HttpPut put;
+    Map<String, String> params = new LinkedHashMap<String, String>();
+    params.put("value", String.valueOf(value));
+    return put(key, params);
+  }
+  
+  /**
+   * Set a configuration value which expires after the specified time to live. Etcd
+   * expires keys with a resolution of one second; shorter durations are rounded up.
+   */
+  public Property set(final String key, final Object value, final long ttl, final TimeUnit unit) throws IOException, InterruptedException {
+    Map<String, String> params = new LinkedHashMap<String, String>();
+    params.put("value", String.valueOf(value));
+    params.put("ttl", String.valueOf(ttlSeconds(ttl, unit)));
+    return put(key, params);
+  }
+  
+  /**
+   * Set a configuration value which expires after the specified time to live and
+   * keep it alive until the returned lease is cancelled. Leases are refreshed in
+   * batches by a scheduler shared by every provider each time a third of their time
+   * to live elapses, which leaves room for a failed refresh to be retried.
+   * <p>
+   * Refreshing a key does not notify its watchers, so a value which caches the key
+   * will still expire it locally at the expiration it last observed.
+   */
+  public Lease keepAlive(final String key, final Object value, final long ttl, final TimeUnit unit) throws IOException, InterruptedException {
+    Lease lease = new Lease(key, value, ttlSeconds(ttl, unit));
+    Lease previous;
     
-    // our value
-    List<NameValuePair> params = new ArrayList<NameValuePair>();
-    params.add(new BasicNameValuePair("value", String.valueOf(value)));
-    String update = URLEncodedUtils.format(params, ENCODING);
+    set(key, value, ttl, unit);
+    if((previous = _leases.put(key, lease)) != null){
+      previous._cancelled = true;
+    }
     
-    try {
-      put = new HttpPut(new URI("http", null, _host, _port, String.format("/v2/keys/%s", keyToPath(key)), null, null));
-    }catch(URISyntaxException e){
-      throw new IOException(e);
+    synchronized(this){
+      if(_keepalive == null){
+        _keepalive = scheduler.scheduleWithFixedDelay(new Runnable() {
+          public void run() {
+            EtcdProvider.this.refreshLeases();
+          }
+        }, LEASE_INTERVAL, LEASE_INTERVAL, TimeUnit.MILLISECONDS);
+      }
     }
     
+    return lease;
+  }
+  
+  /**
+   * Refresh every lease which is due. Refreshes are issued asynchronously so that a
+   * large number of leases are refreshed concurrently.
+   */
+  private void refreshLeases() {
+    long now = System.currentTimeMillis();
+    for(final Lease lease : _leases.values()){
+      if(lease._cancelled || lease._refresh > now) continue;
+      
+      // schedule the next refresh up front so slow responses don't cause duplicates
+      lease._refresh = now + (lease._ttl * 1000 / 3);
+      
+      Map<String, String> params = new LinkedHashMap<String, String>();
+      params.put("ttl", String.valueOf(lease._ttl));
+      params.put("refresh", "true");
+      params.put("prevExist", "true");
+      
+      Request put = new Request(Request.PUT, uriForKey(lease._key), CONTENT_TYPE_FORM, form(params));
+      
+      Futures.addCallback(executeRequest(put), new FutureCallback<Response>() {
+        public void onSuccess(Response response) {
+          int status = response.status();
+          if(status == 404 && !lease._cancelled){
+            // the key has expired or been removed, so recreate it
+            logger.warn("Leased key has expired; recreating: "+ lease._key);
+            lease._refresh = 0;
+            recreate(lease);
+          }else if(status != 200){
+            logger.warn("Could not refresh leased key: "+ lease._key +": "+ response);
+          }
+        }
+        public void onFailure(Throwable thrown) {
+          logger.warn("Could not refresh leased key: "+ lease._key, thrown);
+        }
+      }, scheduler);
+      
+    }
+  }
+  
+  /**
+   * Recreate a leased key which has expired or been removed. Like a refresh, this
+   * is asynchronous, so an unresponsive server can't hold up the scheduler shared
+   * by every provider. A lease which is cancelled while its key is being recreated
+   * has the key removed again rather than left behind.
+   */
+  private void recreate(final Lease lease) {
+    Request put = new Request(Request.PUT, uriForKey(lease._key), CONTENT_TYPE_FORM, form(lease.params()));
+    logger.debug(put);
+    
+    Futures.addCallback(executeRequest(put), new FutureCallback<Response>() {
+      public void onSuccess(Response response) {
+        int status = response.status();
+        if(status != 200 && status != 201){
+          logger.error("Could not recreate leased key: "+ lease._key +": "+ response);
+        }else if(lease._cancelled && !_leases.containsKey(lease._key)){
+          logger.debug("Lease cancelled while recreating its key; removing: "+ lease._key);
+          Futures.addCallback(executeRequest(new Request(Request.DELETE, uriForKey(lease._key))), new FutureCallback<Response>() {
+            public void onSuccess(Response response) {
+              if(response.status() != 200) logger.warn("Could not remove leased key: "+ lease._key +": "+ response);
+            }
+            public void onFailure(Throwable thrown) {
+              logger.warn("Could not remove leased key: "+ lease._key, thrown);
+            }
+          }, scheduler);
+        }
+      }
+      public void onFailure(Throwable thrown) {
+        logger.error("Could not recreate leased key: "+ lease._key, thrown);
+      }
+    }, scheduler);
+  }
+  
+  /**
+   * Put a configuration value.
+   */
+  private Property put(final String key, final Map<String, String> params) throws IOException, InterruptedException {
+    
     // setup our put request
-    put.setHeader(HEADER_CONTENT_TYPE, CONTENT_TYPE_FORM);
-    put.setEntity(new StringEntity(update));
+    Request put = new Request(Request.PUT, uriForKey(key), CONTENT_TYPE_FORM, form(params));
     
     try {
       
       // note it for debugging
       logger.debug(put);
       // send our request
-      HttpResponse response = executeRequest(put).get();
+      Response response = executeRequest(put).get();
       
       // check out status code
-      switch(response.getStatusLine().getStatusCode()){
+      switch(response.status()){
         case 200:
         case 201:
-          logger.debug(put +": "+ response.getStatusLine());
+          logger.debug(put +": "+ response);
           break;        // ok
         default:
           invalidStatus(key, response);
       }
       
-      // obtain our response entity
-      HttpEntity entity;
-      if((entity = response.getEntity()) == null){
+      // check that we have a response body
+      if(response.body() == null){
         throw new IOException("Etcd response contains no data");
       }
       
       // return the canonical value
-      return resultForEntity(entity);
+      return resultForResponse(response);
       
     }catch(InterruptedException e){
       throw e;
@@ -268,8 +562,6 @@ public class EtcdProvider implements Provider.Observable, Provider.Mutable, Prov
       throw e;
     }catch(Exception e){
       throw new IOException("Etcd request failed: "+ put, e);
-    }finally{
-      put.releaseConnection();
     }
     
   }
@@ -278,22 +570,46 @@ public class EtcdProvider implements Provider.Observable, Provider.Mutable, Prov
    * Watch a value for changes.
    */
   public ListenableFuture watch(final String key, final Property previous) throws IOException {
-    try {
-      final SettableFuture future = SettableFuture.create();
-      
-      List<NameValuePair> params = new ArrayList<NameValuePair>();
-      params.add(new BasicNameValuePair("wait", "true"));
-      
-      if(previous != null && previous instanceof Result){
-        params.add(new BasicNameValuePair("waitIndex", String.valueOf(((Result)previous).nextIndex())));
-      }
-      
-      String query = URLEncodedUtils.format(params, ENCODING);
-      watch(key, new URI("http", null, _host, _port, String.format("/v2/keys/%s", keyToPath(key)), query, null), null, future);
-      
-      return future;
-    }catch(URISyntaxException e){
-      throw new IOException(e);
+    final SettableFuture future = SettableFuture.create();
+    
+    // the cached key URI is already encoded, so the query is appended directly
+    StringBuilder sb = new StringBuilder(uriForKey(key).toString()).append("?wait=true");
+    long next;
+    if((next = nextIndex(previous)) > 0){
+      sb.append("&waitIndex=").append(next);
+    }
+    
+    watch(key, URI.create(sb.toString()), null, future);
+    return future;
+  }
+  
+  /**
+   * Watch every value beneath a prefix for changes.
+   */
+  public ListenableFuture<Property> watchTree(final String prefix, final Property previous) throws IOException {
+    final SettableFuture future = SettableFuture.create();
+    
+    StringBuilder sb = new StringBuilder(uriForKey(prefix).toString()).append("?wait=true&recursive=true");
+    long next;
+    if((next = nextIndex(previous)) > 0){
+      sb.append("&waitIndex=").append(next);
+    }
+    
+    watch(prefix, URI.create(sb.toString()), null, future);
+    return future;
+  }
+  
+  /**
+   * Obtain the index a watch following the specified property waits from. Any other
+   * change is taken as a position in our sequence of changes to resume after.
+   */
+  private static long nextIndex(Property previous) {
+    if(previous instanceof Result){
+      return ((Result)previous).nextIndex();
+    }else if(previous instanceof Change){
+      return ((Change)previous).index() + 1;
+    }else{
+      return 0;
     }
   }
   
@@ -301,37 +617,71 @@ public class EtcdProvider implements Provider.Observable, Provider.Mutable, Prov
    * Watch a value for changes.
    */
   protected void watch(final String key, final URI uri, final Date until, final SettableFuture future) {
+    final AtomicReference<ListenableFuture<Response>> request = new AtomicReference<ListenableFuture<Response>>();
+    
+    // cancelling the watch aborts whichever request is in flight, which releases its
+    // connection immediately rather than when the long poll eventually times out
+    future.addListener(new Runnable() {
+      public void run() {
+        ListenableFuture<Response> response;
+        if(future.isCancelled() && (response = request.get()) != null){
+          response.cancel(true);
+        }
+      }
+    }, MoreExecutors.sameThreadExecutor());
+    
+    watch(key, uri, until, future, request, 0);
+  }
+  
+  /**
+   * Watch a value for changes. Watches which fail to reach etcd are retried with
+   * backoff rather than failed, since the server is typically just restarting; a
+   * watch which simply times out is re-issued immediately.
+   */
+  private void watch(final String key, final URI uri, final Date until, final SettableFuture future, final AtomicReference<ListenableFuture<Response>> request, final int attempt) {
+    
+    // the watch may have been abandoned while we were waiting to reconnect
+    if(future.isDone()) return;
+    
+    // don't bother while our endpoint is known to be down; wait for it instead
+    if(!_breaker.allow()){
+      reconnect(key, uri, until, future, request, attempt + 1);
+      return;
+    }
     
     // setup our request
-    final HttpGet get = new HttpGet(uri);
+    final Request get = new Request(Request.GET, uri);
     // note it for debugging
     logger.debug(get);
     
-    // send our request asynchronously
-    _httpclient.execute(get, new FutureCallback<HttpResponse>() {
+    // send our request asynchronously and note it as the one in flight
+    ListenableFuture<Response> response = _transport.execute(get);
+    request.set(response);
+    
+    Futures.addCallback(response, new FutureCallback<Response>() {
       
-      public void completed(HttpResponse response) {
+      public void onSuccess(Response response) {
+        _breaker.succeeded();
         try {
           
           // check out status code
-          if(response.getStatusLine().getStatusCode() != 200){
+          if(response.status() != 200){
             invalidStatus(key.toString(), response);
           }else{
-            logger.debug(get +": "+ response.getStatusLine());
+            logger.debug(get +": "+ response);
           }
           
-          // obtain our response entity
-          HttpEntity entity;
-          if((entity = response.getEntity()) == null){
+          // check that we have a response body
+          if(response.body() == null){
             throw new IOException("Etcd response contains no data");
           }
           
           // check that we have a valid result and respond
           Result result;
-          if((result = resultForEntity(entity)) != null){
+          if((result = resultForResponse(response)) != null){
             future.set(result);
           }else{
-            EtcdProvider.this.watch(key, uri, until, future);
+            EtcdProvider.this.watch(key, uri, until, future, request, 0);
           }
           
         }catch(Exception e){
@@ -339,136 +689,329 @@ public class EtcdProvider implements Provider.Observable, Provider.Mutable, Prov
         }
       }
       
-      public void failed(Exception e) {
-        if(e instanceof java.net.SocketTimeoutException){
-          EtcdProvider.this.watch(key, uri, until, future);
+      public void onFailure(Throwable thrown) {
+        if(future.isDone()){
+          // the watch was cancelled and its request aborted; nothing to do
+          return;
+        }else if(thrown instanceof SocketTimeoutException){
+          // the long poll expired without a change; this is normal. Transports report
+          // connections which can't be established as failures, never as timeouts
+          EtcdProvider.this.watch(key, uri, until, future, request, 0);
+        }else if(thrown instanceof InterruptedException || thrown instanceof CancellationException){
+          future.setException(new InterruptedException());
         }else{
-          future.setException(e);
+          logger.debug(get +": "+ thrown);
+          _breaker.failed();
+          reconnect(key, uri, until, future, request, attempt + 1);
         }
       }
       
-      public void cancelled() {
-        future.setException(new InterruptedException());
-      }
-      
-    });
+    }, MoreExecutors.sameThreadExecutor());
+    
+    // the watch may have been cancelled before it could see this request
+    if(future.isCancelled()) response.cancel(true);
     
   }
   
   /**
-   * Execute a request
+   * Reconnect a watch after a backoff delay, subject to the global reconnect rate
+   * limit. A reconnect which can't acquire a permit backs off again.
    */
-  private ListenableFuture<HttpResponse> executeRequest(HttpUriRequest request) throws IOException {
-    final SettableFuture<HttpResponse> future = SettableFuture.create();
-    _httpclient.execute(request, new FutureCallback<HttpResponse>() {
-      public void completed(HttpResponse result) {
-        future.set(result);
+  private void reconnect(final String key, final URI uri, final Date until, final SettableFuture future, final AtomicReference<ListenableFuture<Response>> request, final int attempt) {
+    long delay = Math.max(_backoff.delay(attempt), _breaker.remaining());
+    scheduler.schedule(new Runnable() {
+      public void run() {
+        if(future.isDone()) return;
+        if(!limiter.tryAcquire()){
+          throttled.incrementAndGet();
+          reconnect(key, uri, until, future, request, attempt);
+        }else{
+          _reconnects.incrementAndGet();
+          watch(key, uri, until, future, request, attempt);
+        }
+      }
+    }, delay, TimeUnit.MILLISECONDS);
+  }
+  
+  /**
+   * Execute a request, noting its outcome with our circuit breaker
+   */
+  private ListenableFuture<Response> executeRequest(Request request) {
+    final SettableFuture<Response> future = SettableFuture.create();
+    
+    // fail fast while our endpoint is known to be down
+    if(!_breaker.allow()){
+      future.setException(new IOException("Etcd endpoint is unavailable: "+ _host +":"+ _port));
+      return future;
+    }
+    
+    // cancelling the request aborts it
+    final ListenableFuture<Response> response = _transport.execute(request);
+    future.addListener(new Runnable() {
+      public void run() {
+        if(future.isCancelled()) response.cancel(true);
       }
-      public void failed(Exception e) {
-        future.setException(e);
+    }, MoreExecutors.sameThreadExecutor());
+    
+    Futures.addCallback(response, new FutureCallback<Response>() {
+      public void onSuccess(Response result) {
+        _breaker.succeeded();
+        future.set(result);
       }
-      public void cancelled() {
-        future.setException(new InterruptedException());
+      public void onFailure(Throwable thrown) {
+        if(thrown instanceof CancellationException || thrown instanceof InterruptedException){
+          future.setException(new InterruptedException());
+        }else{
+          _breaker.failed();
+          future.setException(thrown);
+        }
       }
-    });
+    }, MoreExecutors.sameThreadExecutor());
+    
     return future;
   }
   
   /**
-   * Obtain a value from the specified entity
+   * Execute a read request, waiting no longer than the specified timeout in
+   * milliseconds for a response. A request which times out is aborted.
+   */
+  private Response executeRead(Request request, long timeout) throws InterruptedException, ExecutionException, TimeoutException {
+    long millis = Math.max(1, timeout);
+    ListenableFuture<Response> future = executeRequest(request.setTimeout(millis, TimeUnit.MILLISECONDS));
+    try {
+      return future.get(millis, TimeUnit.MILLISECONDS);
+    }catch(ExecutionException e){
+      if(e.getCause() instanceof SocketTimeoutException) throw new TimeoutException(e.getCause().getMessage());
+      throw e;
+    }catch(TimeoutException e){
+      future.cancel(true);
+      throw e;
+    }
+  }
+  
+  /**
+   * Encode form parameters
+   */
+  private static byte[] form(Map<String, String> params) {
+    StringBuilder sb = new StringBuilder();
+    try {
+      for(Map.Entry<String, String> e : params.entrySet()){
+        if(sb.length() > 0) sb.append('&');
+        sb.append(URLEncoder.encode(e.getKey(), ENCODING)).append('=').append(URLEncoder.encode(e.getValue(), ENCODING));
+      }
+    }catch(java.io.UnsupportedEncodingException e){
+      throw new RuntimeException(e); // UTF-8 is always supported
+    }
+    return sb.toString().getBytes(UTF_8);
+  }
+  
+  /**
+   * Obtain a numeric system property, or a default if it is not set
    */
-  private Object valueForEntity(HttpEntity entity) throws IOException {
-    return resultForEntity(entity).value();
+  private static double doubleProperty(String name, double ifnull) {
+    String stemp;
+    if((stemp = System.getProperty(name)) != null && !stemp.isEmpty()){
+      return Double.valueOf(stemp);
+    }else{
+      return ifnull;
+    }
   }
   
   /**
-   * Obtain a result from the specified entity
+   * Obtain a result from the specified response
    */
-  private Result resultForEntity(HttpEntity entity) throws IOException {
+  private Result resultForResponse(Response response) throws IOException {
     
     Map<String, Object> content;
-    if((content = jsonForEntity(entity)) == null){
+    if((content = jsonForResponse(response)) == null){
       return null;
     }
     
-    List<Map<String, Object>> subnodes;
     Map<String, Object> node;
-    long index = 0;
-    
-    if((subnodes = (List<Map<String, Object>>)content.get("nodes")) != null){
-      throw new IOException("Directory nodes are not supported");
-    }else if((node = (Map<String, Object>)content.get("node")) == null){
+    if((node = (Map<String, Object>)content.get("node")) == null){
       throw new IOException("Invalid node");
     }
     
+    // a read is current as of the etcd index of its response, which is where watching
+    // from it resumes; its value may have been modified long enough ago that the
+    // change which did so has been cleared from the history
+    String action = (String)content.get("action");
+    String header;
+    if((action == null || action.equals("get")) && (header = response.header(HEADER_ETCD_INDEX)) != null){
+      return resultForNode(node, action, Long.parseLong(header) + 1);
+    }else{
+      return resultForNode(node, action);
+    }
+  }
+  
+  /**
+   * Obtain a result from the specified node, which is watched from the change
+   * after it
+   */
+  private Result resultForNode(Map<String, Object> node, String action) {
+    return resultForNode(node, action, 0);
+  }
+  
+  /**
+   * Obtain a result from the specified node, which is watched from the specified
+   * index, or from the change after it if none is specified
+   */
+  private Result resultForNode(Map<String, Object> node, String action, long next) {
+    long index = 0, ttl = 0, expiration = 0;
+    
     Number number;
     if((number = (Number)node.get("modifiedIndex")) != null){
       index = number.longValue();
     }
     
-    return new Result(node.get("value"), index, index + 1);
+    // expiration is computed from the remaining time to live against our own clock,
+    // rather than the server's expiration, so that clock skew doesn't matter
+    if((number = (Number)node.get("ttl")) != null){
+      ttl = number.longValue();
+      expiration = System.currentTimeMillis() + (ttl * 1000);
+    }
+    
+    String key;
+    if((key = (String)node.get("key")) != null){
+      key = trimLeadingSlash(key).replace('/', '.');
+    }
+    
+    return new Result(node.get("value"), index, (next > 0) ? next : index + 1, ttl, expiration, key, actionForName(action));
+  }
+  
+  /**
+   * Obtain the change action corresponding to an etcd action
+   */
+  private static Change.Action actionForName(String action) {
+    if(action == null || action.equals("get")){
+      return Change.Action.GET;
+    }else if(action.equals("delete") || action.equals("compareAndDelete")){
+      return Change.Action.DELETE;
+    }else if(action.equals("expire")){
+      return Change.Action.EXPIRE;
+    }else{
+      return Change.Action.SET; // set, create, update, compareAndSwap
+    }
   }
   
   /**
-   * Obtain an error from the specified entity
+   * Flatten the leaves of a directory node into dotted keys relative to a base path
    */
-  private String errorForEntity(HttpEntity entity) throws IOException {
-    Map<String, Object> content = jsonForEntity(entity);
+  private void flattenNode(Map<String, Property> values, int base, Map<String, Object> node) {
+    List<Map<String, Object>> subnodes;
+    if((subnodes = (List<Map<String, Object>>)node.get("nodes")) != null){
+      for(Map<String, Object> subnode : subnodes){
+        flattenNode(values, base, subnode);
+      }
+    }else if(!Boolean.TRUE.equals(node.get("dir"))){
+      String key = (String)node.get("key");
+      if(key != null && key.length() > base){
+        values.put(trimLeadingSlash(key.substring(base)).replace('/', '.'), resultForNode(node, null));
+      }
+    }
+  }
+  
+  /**
+   * Obtain an error from the specified response
+   */
+  private String errorForResponse(Response response) throws IOException {
+    Map<String, Object> content = jsonForResponse(response);
     StringBuffer sb = new StringBuffer();
     Object temp;
+    if(content == null) return "Undefined error";
     sb.append(((temp = content.get("message")) != null) ? temp : "Undefined error");
     if((temp = content.get("cause")) != null) sb.append(String.format(" (%s)", temp));
     return sb.toString();
   }
   
   /**
-   * Obtain an error from the specified entity
+   * Obtain the JSON content of the specified response
    */
-  private Map<String, Object> jsonForEntity(HttpEntity entity) throws IOException {
+  private Map<String, Object> jsonForResponse(Response response) throws IOException {
     Type type = new TypeToken<Map<String, Object>>(){}.getType();
-    return GSON.fromJson(new InputStreamReader(entity.getContent(), ENCODING), type);
+    InputStream content;
+    if((content = response.content()) == null) return null;
+    return GSON.fromJson(new InputStreamReader(content, ENCODING), type);
   }
   
   /**
    * Report an invalid status
    */
-  private void invalidStatus(String key, HttpResponse response) throws IOException {
-    HttpEntity entity;
-    if((entity = response.getEntity()) != null){
-      throw new IOException(String.format("[%s] %s: %s", key, response.getStatusLine(), errorForEntity(response.getEntity())));
+  private void invalidStatus(String key, Response response) throws IOException {
+    if(response.body() != null){
+      throw new IOException(String.format("[%s] %s: %s", key, response, errorForResponse(response)));
     }else{
-      throw new IOException(String.format("[%s] %s", key, response.getStatusLine()));
+      throw new IOException(String.format("[%s] %s", key, response));
+    }
+  }
+  
+  /**
+   * Obtain the request URI for a configuration key. Encoded URIs are cached per key
+   * so repeated requests for the same key don't re-encode their path.
+   */
+  public URI uriForKey(String key) {
+    URI uri;
+    if((uri = _uris.getIfPresent(key)) == null){
+      uri = URI.create(_base + keyToPath(key));
+      _uris.put(key, uri);
     }
+    return uri;
   }
   
   /**
-   * Convert a configuration key to an etcd path
+   * Convert a configuration key to an etcd path. Each segment is percent-encoded
+   * as a URI path segment.
    */
   public static String keyToPath(String key) {
-    try {
-      StringBuffer sb = new StringBuffer();
-      
-      int p = 0;
-      for(int i = 0; i < key.length(); i++){
-        char c;
-        if((c = key.charAt(i)) == '.'){
-          if(i <= p) continue;
-          sb.append(URLEncoder.encode(key.substring(p, i), ENCODING));
+    StringBuilder sb = new StringBuilder(key.length() + 16);
+    
+    int p = 0;
+    for(int i = 0; i < key.length(); i++){
+      if(key.charAt(i) == '.'){
+        if(i > p){
+          encodePathSegment(sb, key, p, i);
           sb.append('/');
-          p = i + 1;
         }
+        p = i + 1;
       }
-      
-      if(p < key.length()){
-        sb.append(key.substring(p));
+    }
+    
+    if(p < key.length()){
+      encodePathSegment(sb, key, p, key.length());
+    }
+    
+    return sb.toString();
+  }
+  
+  /**
+   * Percent-encode the specified range of a key as a URI path segment
+   */
+  private static void encodePathSegment(StringBuilder sb, String key, int start, int end) {
+    for(int i = start; i < end; i++){
+      char c = key.charAt(i);
+      if(isUnreserved(c)){
+        sb.append(c);
+      }else{
+        // fall back to encoding the remainder of the segment as UTF-8
+        for(byte b : key.substring(i, end).getBytes(UTF_8)){
+          if(isUnreserved((char)b)){
+            sb.append((char)b);
+          }else{
+            sb.append('%').append(HEX[(b >> 4) & 0xf]).append(HEX[b & 0xf]);
+          }
+        }
+        return;
       }
-      
-      return sb.toString();
-    }catch(java.io.UnsupportedEncodingException e){
-      throw new RuntimeException(e);
     }
   }
   
+  /**
+   * Determine if a character may appear unencoded in a URI path segment
+   */
+  private static boolean isUnreserved(char c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-' || c == '_' || c == '~';
+  }
+  
   /**
    * Strip off leading '/' from a path
    */
@@ -481,6 +1024,14 @@ public class EtcdProvider implements Provider.Observable, Provider.Mutable, Prov
     return new String();
   }
   
+  /**
+   * Convert a time to live to whole seconds, rounding up
+   */
+  private static long ttlSeconds(long ttl, TimeUnit unit) {
+    if(ttl <= 0) throw new IllegalArgumentException("Time to live must be positive");
+    return Math.max(1, (unit.toMillis(ttl) + 999) / 1000);
+  }
+  
   /**
    * String description
    */
@@ -488,22 +1039,100 @@ public class EtcdProvider implements Provider.Observable, Provider.Mutable, Prov
     return String.format("etcd@%s:%s", _host, _port);
   }
   
+  /**
+   * A key which is kept alive until it is cancelled
+   */
+  public class Lease {
+    
+    private final String      _key;
+    private final Object      _value;
+    private final long        _ttl;
+    private volatile long     _refresh;
+    private volatile boolean  _cancelled;
+    
+    /**
+     * Construct
+     */
+    private Lease(String key, Object value, long ttl) {
+      _key = key;
+      _value = value;
+      _ttl = ttl;
+      _refresh = System.currentTimeMillis() + (ttl * 1000 / 3);
+    }
+    
+    /**
+     * Obtain the leased key
+     */
+    public String key() {
+      return _key;
+    }
+    
+    /**
+     * Obtain the time to live, in seconds
+     */
+    public long ttl() {
+      return _ttl;
+    }
+    
+    /**
+     * Stop keeping the key alive. The key is left to expire.
+     */
+    public void cancel() {
+      _cancelled = true;
+      _leases.remove(_key, this);
+    }
+    
+    /**
+     * Parameters used to recreate the key
+     */
+    private Map<String, String> params() {
+      Map<String, String> params = new LinkedHashMap<String, String>();
+      params.put("value", String.valueOf(_value));
+      params.put("ttl", String.valueOf(_ttl));
+      return params;
+    }
+    
+  }
+  
   /**
    * A watched value
    */
-  public static class Result implements Property {
+  public static class Result implements Expirable, Change, BinaryProperty {
     
-    private Object  _value;
-    private long    _valueIndex;
-    private long    _nextIndex;
+    private Object        _value;
+    private long          _valueIndex;
+    private long          _nextIndex;
+    private long          _ttl;
+    private long          _expiration;
+    private String        _key;
+    private Change.Action _action;
+    private ByteBuffer    _bytes;
     
     /**
      * Construct with a value and indices
      */
     public Result(Object value, long valueIndex, long nextIndex) {
+      this(value, valueIndex, nextIndex, 0, 0);
+    }
+    
+    /**
+     * Construct with a value, indices and expiration
+     */
+    public Result(Object value, long valueIndex, long nextIndex, long ttl, long expiration) {
+      this(value, valueIndex, nextIndex, ttl, expiration, null, Change.Action.GET);
+    }
+    
+    /**
+     * Construct with a value, indices, expiration and the change that produced it
+     */
+    public Result(Object value, long valueIndex, long nextIndex, long ttl, long expiration, String key, Change.Action action) {
       _value = value;
       _valueIndex = valueIndex;
       _nextIndex = nextIndex;
+      _ttl = ttl;
+      _expiration = expiration;
+      _key = key;
+      _action = action;
     }
     
     /**
@@ -513,6 +1142,18 @@ public class EtcdProvider implements Provider.Observable, Provider.Mutable, Prov
       return _value;
     }
     
+    /**
+     * Obtain a read-only view of the encoded value. The value is encoded once, the
+     * first time it is requested.
+     */
+    public ByteBuffer bytes() {
+      if(_value == null) return null;
+      synchronized(this){
+        if(_bytes == null) _bytes = ByteBuffer.wrap(_value.toString().getBytes(UTF_8)).asReadOnlyBuffer();
+      }
+      return _bytes.duplicate();
+    }
+    
     /**
      * Obtain the value index
      */
@@ -527,6 +1168,42 @@ public class EtcdProvider implements Provider.Observable, Provider.Mutable, Prov
       return _nextIndex;
     }
     
+    /**
+     * Obtain the remaining time to live in seconds when this result was produced, or
+     * zero if the value does not expire
+     */
+    public long ttl() {
+      return _ttl;
+    }
+    
+    /**
+     * Obtain the time at which this value expires, or zero if it does not
+     */
+    public long expiration() {
+      return _expiration;
+    }
+    
+    /**
+     * Obtain the key of the node which produced this result
+     */
+    public String key() {
+      return _key;
+    }
+    
+    /**
+     * Obtain the action which produced this result
+     */
+    public Change.Action action() {
+      return _action;
+    }
+    
+    /**
+     * Obtain the index at which this result was produced
+     */
+    public long index() {
+      return _valueIndex;
+    }
+    
   }
   
 }
@@ -0,0 +1,540 @@
+// 
+// Copyright (c) 2014 Brian William Wolter, All rights reserved.
+// Etcd - an etcd SDK for Java
+// 
+// Redistribution and use in source and binary forms, with or without modification,
+// are permitted provided that the following conditions are met:
+// 
+//   * Redistributions of source code must retain the above copyright notice, this
+//     list of conditions and the following disclaimer.
+// 
+//   * Redistributions in binary form must reproduce the above copyright notice,
+//     this list of conditions and the following disclaimer in the documentation
+//     and/or other materials provided with the distribution.
+//     
+//   * Neither the names of Brian William Wolter, Wolter Group New York, nor the
+//     names of its contributors may be used to endorse or promote products derived
+//     from this software without specific prior written permission.
+//     
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+// IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+// INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+// BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+// LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+// OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+// 
+
+package com.brianwolter.etc.provider;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Closeable;
+import java.io.RandomAccessFile;
+
+import java.nio.MappedByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+import java.nio.file.Path;
+import java.nio.file.FileSystems;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchService;
+import java.nio.file.ClosedWatchServiceException;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+
+import java.util.Map;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Properties;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import java.lang.reflect.Type;
+
+import com.google.common.io.CharSource;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import com.brianwolter.etc.Provider;
+import com.brianwolter.etc.util.Property;
+
+/**
+ * File provider. Values are loaded from properties or JSON files (by extension)
+ * and served from an immutable in-memory index; files are only read again when
+ * the file system reports that they have changed. Nested JSON objects are
+ * flattened into dotted keys.
+ * <p>
+ * When several files are provided, values in earlier files take precedence over
+ * values in later files, as providers do in a configuration.
+ */
+public class FileProvider implements Provider.Observable, Provider.Monitorable, Provider.Hierarchical, Provider.Recursive, Closeable {
+  
+  private static final Logger   logger    = Logger.getLogger(FileProvider.class.getName());
+  private static final Charset  UTF_8     = Charset.forName("UTF-8");
+  private static final Gson     GSON      = new Gson();
+  
+  private final List<Source>      _sources;
+  private final WatchService      _watcher;
+  private final long              _settle;
+  private final Set<Watcher>      _watchers;
+  private volatile Index          _index;
+  
+  /**
+   * Construct with files
+   */
+  public FileProvider(File... files) throws IOException {
+    this(Arrays.asList(files));
+  }
+  
+  /**
+   * Construct with files
+   */
+  public FileProvider(Collection<File> files) throws IOException {
+    if(files == null || files.isEmpty()) throw new IllegalArgumentException("Files must not be null or empty");
+    
+    List<Source> sources = new ArrayList<Source>();
+    for(File file : files){
+      sources.add(new Source(file.getAbsoluteFile()));
+    }
+    
+    String stemp;
+    if((stemp = System.getProperty("etc.provider.file.settle")) != null && !stemp.isEmpty()){
+      _settle = Long.valueOf(stemp);
+    }else{
+      _settle = 100;
+    }
+    
+    _sources = Collections.unmodifiableList(sources);
+    _watchers = new LinkedHashSet<Watcher>();
+    _index = new Index(0, Collections.<String, Entry>emptyMap());
+    
+    // load everything up front
+    for(Source source : _sources){
+      source.load();
+    }
+    
+    _index = _index.merge(_sources);
+    
+    // watch the directories containing our files
+    _watcher = FileSystems.getDefault().newWatchService();
+    Set<Path> directories = new HashSet<Path>();
+    for(Source source : _sources){
+      Path directory = source.file.toPath().getParent();
+      if(directories.add(directory)){
+        directory.register(_watcher, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+      }
+    }
+    
+    Thread thread = new Thread(new Runnable() {
+      public void run() {
+        FileProvider.this.run();
+      }
+    }, "etc-file-provider");
+    
+    thread.setDaemon(true);
+    thread.start();
+    
+  }
+  
+  /**
+   * Stop watching our files
+   */
+  public void close() throws IOException {
+    _watcher.close();
+  }
+  
+  /**
+   * Obtain a configuration value.
+   */
+  public Property get(final String key) throws IOException, InterruptedException {
+    Entry entry;
+    if((entry = _index.entries.get(key)) != null && entry.value() != null){
+      return entry;
+    }else{
+      return null;
+    }
+  }
+  
+  /**
+   * Obtain every value beneath a prefix.
+   */
+  public Property list(final String prefix) throws IOException, InterruptedException {
+    Index index = _index;
+    String base = prefix +".";
+    
+    Map<String, Property> values = new HashMap<String, Property>();
+    for(Map.Entry<String, Entry> e : index.entries.entrySet()){
+      if(e.getKey().startsWith(base) && e.getValue().value() != null){
+        values.put(e.getKey().substring(base.length()), e.getValue());
+      }
+    }
+    
+    return new Entry(Collections.unmodifiableMap(values), index.generation);
+  }
+  
+  /**
+   * Watch a value for changes.
+   */
+  public ListenableFuture<Property> watch(final String key, final Property previous) throws IOException {
+    return watch(new Watcher(key, false, revision(previous)));
+  }
+  
+  /**
+   * Watch every value beneath a prefix for changes.
+   */
+  public ListenableFuture<Property> watchTree(final String prefix, final Property previous) throws IOException {
+    return watch(new Watcher(prefix, true, revision(previous)));
+  }
+  
+  /**
+   * Register a watcher, completing it immediately if the index has already changed
+   * since the watcher's revision. A watcher which is cancelled is forgotten rather
+   * than held until the next change.
+   */
+  private ListenableFuture<Property> watch(final Watcher watcher) {
+    Entry entry;
+    synchronized(_watchers){
+      if((entry = watcher.changed(_index)) == null){
+        _watchers.add(watcher);
+      }
+    }
+    if(entry != null){
+      watcher.future.set(entry);
+    }else{
+      watcher.future.addListener(new Runnable() {
+        public void run() {
+          if(watcher.future.isCancelled()){
+            synchronized(_watchers){
+              _watchers.remove(watcher);
+            }
+          }
+        }
+      }, MoreExecutors.sameThreadExecutor());
+    }
+    return watcher.future;
+  }
+  
+  /**
+   * Obtain the revision of a property produced by this provider
+   */
+  private long revision(Property previous) {
+    return (previous != null && previous instanceof Entry) ? ((Entry)previous).revision() : _index.generation;
+  }
+  
+  /**
+   * Process file system events until we are closed. Events are coalesced until the
+   * file system has been quiet for the settle interval so that files which are being
+   * rewritten in place are not loaded partially written.
+   */
+  private void run() {
+    try {
+      for(;;){
+        
+        Set<Source> changed = new HashSet<Source>();
+        WatchKey key = _watcher.take();
+        while(key != null){
+          Path directory = (Path)key.watchable();
+          for(WatchEvent<?> event : key.pollEvents()){
+            Object context;
+            if((context = event.context()) == null || !(context instanceof Path)){
+              changed.addAll(_sources); // overflow; check everything
+            }else{
+              File file = directory.resolve((Path)context).toFile();
+              for(Source source : _sources){
+                if(source.file.equals(file)) changed.add(source);
+              }
+            }
+          }
+          key.reset();
+          key = _watcher.poll(_settle, TimeUnit.MILLISECONDS);
+        }
+        
+        boolean reloaded = false;
+        for(Source source : changed){
+          reloaded |= source.reload();
+        }
+        
+        if(reloaded) update();
+        
+      }
+    }catch(ClosedWatchServiceException e){
+      logger.debug("File provider closed: "+ this);
+    }catch(InterruptedException e){
+      logger.debug("File provider interrupted: "+ this);
+    }
+  }
+  
+  /**
+   * Rebuild our index and notify watchers of changed values
+   */
+  private void update() {
+    List<Watcher> completed = new ArrayList<Watcher>();
+    List<Entry> entries = new ArrayList<Entry>();
+    
+    synchronized(_watchers){
+      Index index = _index = _index.merge(_sources);
+      Iterator<Watcher> iterator = _watchers.iterator();
+      while(iterator.hasNext()){
+        Watcher watcher = iterator.next();
+        Entry entry;
+        if((entry = watcher.changed(index)) != null){
+          iterator.remove();
+          completed.add(watcher);
+          entries.add(entry);
+        }
+      }
+    }
+    
+    // complete outside the lock
+    for(int i = 0; i < completed.size(); i++){
+      completed.get(i).future.set(entries.get(i));
+    }
+    
+  }
+  
+  /**
+   * String description
+   */
+  public String toString() {
+    return String.format("file@%s", _sources);
+  }
+  
+  /**
+   * A source file
+   */
+  private static class Source {
+    
+    private final File            file;
+    private long                  modified;
+    private long                  length;
+    private Map<String, Object>   values = Collections.emptyMap();
+    
+    private Source(File file) {
+      this.file = file;
+    }
+    
+    /**
+     * Reload this file if it has changed since it was last loaded.
+     */
+    private boolean reload() {
+      if(file.lastModified() == modified && file.length() == length){
+        return false;
+      }else{
+        return load();
+      }
+    }
+    
+    /**
+     * Load this file. If the file cannot be parsed the previous values are retained.
+     */
+    private boolean load() {
+      modified = file.lastModified();
+      length = file.length();
+      
+      if(!file.exists()){
+        logger.warn("Configuration file does not exist: "+ file);
+        values = Collections.emptyMap();
+        return true;
+      }
+      
+      try {
+        CharBuffer content = read(file);
+        Map<String, Object> values = new HashMap<String, Object>();
+        
+        if(file.getName().endsWith(".json")){
+          Type type = new TypeToken<Map<String, Object>>(){}.getType();
+          Map<String, Object> json;
+          if((json = GSON.fromJson(CharSource.wrap(content).openStream(), type)) != null){
+            flatten(values, null, json);
+          }
+        }else{
+          Properties properties = new Properties();
+          properties.load(CharSource.wrap(content).openStream());
+          for(String name : properties.stringPropertyNames()){
+            values.put(name, properties.getProperty(name));
+          }
+        }
+        
+        this.values = values;
+        return true;
+      }catch(Exception e){
+        logger.error("Could not load configuration file, retaining previous values: "+ file, e);
+        return false;
+      }
+    }
+    
+    /**
+     * Flatten nested objects into dotted keys
+     */
+    private static void flatten(Map<String, Object> values, String prefix, Map<String, Object> json) {
+      for(Map.Entry<String, Object> e : json.entrySet()){
+        String key = (prefix != null) ? prefix +"."+ e.getKey() : e.getKey();
+        if(e.getValue() instanceof Map){
+          flatten(values, key, (Map<String, Object>)e.getValue());
+        }else if(e.getValue() != null){
+          values.put(key, e.getValue());
+        }
+      }
+    }
+    
+    /**
+     * Read a file by mapping it into memory and decoding it directly
+     */
+    private static CharBuffer read(File file) throws IOException {
+      RandomAccessFile input = new RandomAccessFile(file, "r");
+      try {
+        FileChannel channel = input.getChannel();
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        return UTF_8.decode(buffer);
+      }finally{
+        input.close();
+      }
+    }
+    
+    /**
+     * String description
+     */
+    public String toString() {
+      return file.toString();
+    }
+    
+  }
+  
+  /**
+   * An immutable index of values. Keys which have been removed are retained with a
+   * null value so that watchers can observe their removal.
+   */
+  private static class Index {
+    
+    private final long                generation;
+    private final Map<String, Entry>  entries;
+    
+    private Index(long generation, Map<String, Entry> entries) {
+      this.generation = generation;
+      this.entries = entries;
+    }
+    
+    /**
+     * Merge sources into the next generation of this index. Entries whose values
+     * have not changed are carried over as-is.
+     */
+    private Index merge(List<Source> sources) {
+      long next = generation + 1;
+      
+      // later sources are merged first so that earlier ones take precedence
+      Map<String, Object> values = new HashMap<String, Object>();
+      for(int i = sources.size() - 1; i >= 0; i--){
+        values.putAll(sources.get(i).values);
+      }
+      
+      Map<String, Entry> merged = new HashMap<String, Entry>();
+      for(Map.Entry<String, Object> e : values.entrySet()){
+        Entry entry;
+        if((entry = entries.get(e.getKey())) != null && e.getValue().equals(entry.value())){
+          merged.put(e.getKey(), entry);
+        }else{
+          merged.put(e.getKey(), new Entry(e.getValue(), next));
+        }
+      }
+      
+      for(Map.Entry<String, Entry> e : entries.entrySet()){
+        if(!merged.containsKey(e.getKey())){
+          merged.put(e.getKey(), (e.getValue().value() == null) ? e.getValue() : new Entry(null, next));
+        }
+      }
+      
+      return new Index(next, Collections.unmodifiableMap(merged));
+    }
+    
+  }
+  
+  /**
+   * A pending watch
+   */
+  private static class Watcher {
+    
+    private final String                    key;
+    private final boolean                   recursive;
+    private final long                      revision;
+    private final SettableFuture<Property>  future = SettableFuture.create();
+    
+    private Watcher(String key, boolean recursive, long revision) {
+      this.key = key;
+      this.recursive = recursive;
+      this.revision = revision;
+    }
+    
+    /**
+     * Obtain the first entry this watcher is interested in which changed after its
+     * revision, if any.
+     */
+    private Entry changed(Index index) {
+      if(!recursive){
+        Entry entry;
+        return ((entry = index.entries.get(key)) != null && entry.revision() > revision) ? entry : null;
+      }else{
+        String base = key +".";
+        for(Map.Entry<String, Entry> e : index.entries.entrySet()){
+          if(e.getKey().startsWith(base) && e.getValue().revision() > revision) return e.getValue();
+        }
+        return null;
+      }
+    }
+    
+  }
+  
+  /**
+   * A file value
+   */
+  public static class Entry implements Property {
+    
+    private Object  _value;
+    private long    _revision;
+    
+    /**
+     * Construct with a value and the revision at which it was loaded
+     */
+    public Entry(Object value, long revision) {
+      _value = value;
+      _revision = revision;
+    }
+    
+    /**
+     * Obtain the value
+     */
+    public Object value() {
+      return _value;
+    }
+    
+    /**
+     * Obtain the revision at which this value last changed
+     */
+    public long revision() {
+      return _revision;
+    }
+    
+  }
+  
+}
@@ -0,0 +1,342 @@
+// 
+// Copyright (c) 2014 Brian William Wolter, All rights reserved.
+// Etcd - an etcd SDK for Java
+// 
+// Redistribution and use in source and binary forms, with or without modification,
+// are permitted provided that the following conditions are met:
+// 
+//   * Redistributions of source code must retain the above copyright notice, this
+//     list of conditions and the following disclaimer.
+// 
+//   * Redistributions in binary form must reproduce the above copyright notice,
+//     this list of conditions and the following disclaimer in the documentation
+//     and/or other materials provided with the distribution.
+//     
+//   * Neither the names of Brian William Wolter, Wolter Group New York, nor the
+//     names of its contributors may be used to endorse or promote products derived
+//     from this software without specific prior written permission.
+//     
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+// IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+// INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+// BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+// LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+// OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+// 
+
+package com.brianwolter.etc.provider;
+
+import java.io.IOException;
+
+import java.util.List;
+import java.util.Arrays;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import com.brianwolter.etc.Provider;
+import com.brianwolter.etc.util.Property;
+
+/**
+ * An etcd provider which hedges reads across two endpoints of the same cluster.
+ * Reads go to the primary endpoint; if one takes longer than a recent latency
+ * percentile, or fails, a duplicate is sent to the secondary endpoint and whichever
+ * answers first is used. Writes, watches and leases go to the primary.
+ * <p>
+ * The percentile is configured by <code>etc.provider.hedge.percentile</code>
+ * (default 95) and the delay is never less than <code>etc.provider.hedge.min</code>
+ * milliseconds (default 2).
+ */
+public class HedgedProvider implements Provider.Observable, Provider.Bounded, Provider.Mutable, Provider.Monitorable, Provider.Recursive, Provider.Sequenced, Provider.Expiring {
+  
+  private static final Logger logger = Logger.getLogger(HedgedProvider.class.getName());
+  
+  private static final int  SAMPLES   = 1024;
+  private static final int  INTERVAL  = 64;
+  
+  private static final ListeningExecutorService executor = MoreExecutors.listeningDecorator(Executors.newCachedThreadPool(new ThreadFactoryBuilder().setDaemon(true).setNameFormat("etc-hedge-%d").build()));
+  
+  private final EtcdProvider  _primary;
+  private final EtcdProvider  _secondary;
+  private final double        _percentile;
+  private final long          _min;
+  private final long[]        _samples;
+  private int                 _next;
+  private int                 _filled;
+  private int                 _sampled;
+  private volatile long       _threshold;
+  private final AtomicLong    _hedges;
+  private final AtomicLong    _wins;
+  
+  /**
+   * Construct with a primary and secondary endpoint
+   */
+  public HedgedProvider(EtcdProvider primary, EtcdProvider secondary) {
+    if((_primary = primary) == null) throw new IllegalArgumentException("Primary provider must not be null");
+    if((_secondary = secondary) == null) throw new IllegalArgumentException("Secondary provider must not be null");
+    
+    String stemp;
+    if((stemp = System.getProperty("etc.provider.hedge.percentile")) != null && !stemp.isEmpty()){
+      _percentile = Double.valueOf(stemp);
+    }else{
+      _percentile = 95;
+    }
+    if((stemp = System.getProperty("etc.provider.hedge.min")) != null && !stemp.isEmpty()){
+      _min = TimeUnit.MILLISECONDS.toNanos(Long.valueOf(stemp));
+    }else{
+      _min = TimeUnit.MILLISECONDS.toNanos(2);
+    }
+    
+    _samples = new long[SAMPLES];
+    _threshold = Math.max(_min, TimeUnit.MILLISECONDS.toNanos(50)); // until we know better
+    _hedges = new AtomicLong();
+    _wins = new AtomicLong();
+  }
+  
+  /**
+   * Obtain the current hedging delay
+   */
+  public long threshold(TimeUnit unit) {
+    return unit.convert(_threshold, TimeUnit.NANOSECONDS);
+  }
+  
+  /**
+   * Obtain the number of reads which were hedged
+   */
+  public long hedges() {
+    return _hedges.get();
+  }
+  
+  /**
+   * Obtain the number of hedged reads answered by the secondary endpoint
+   */
+  public long wins() {
+    return _wins.get();
+  }
+  
+  /**
+   * Obtain a configuration value.
+   */
+  public Property get(final String key) throws IOException, InterruptedException {
+    return hedge(new Read() {
+      public Property read(EtcdProvider provider) throws IOException, InterruptedException {
+        return provider.get(key);
+      }
+    });
+  }
+  
+  /**
+   * Obtain a configuration value, giving up after the specified timeout. The
+   * deadline covers both endpoints; a hedged read only gets what is left of it.
+   */
+  public Property get(final String key, long timeout, TimeUnit unit) throws IOException, InterruptedException, TimeoutException {
+    final long deadline = System.nanoTime() + unit.toNanos(timeout);
+    return hedge(new Read() {
+      public Property read(EtcdProvider provider) throws IOException, InterruptedException, TimeoutException {
+        return provider.get(key, deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+      }
+    }, deadline);
+  }
+  
+  /**
+   * Obtain every value beneath a prefix.
+   */
+  public Property list(final String prefix) throws IOException, InterruptedException {
+    return hedge(new Read() {
+      public Property read(EtcdProvider provider) throws IOException, InterruptedException {
+        return provider.list(prefix);
+      }
+    });
+  }
+  
+  /**
+   * Set a configuration value on the primary.
+   */
+  public Property set(String key, Object value) throws IOException, InterruptedException {
+    return _primary.set(key, value);
+  }
+  
+  /**
+   * Set an expiring configuration value on the primary.
+   */
+  public Property set(String key, Object value, long ttl, TimeUnit unit) throws IOException, InterruptedException {
+    return _primary.set(key, value, ttl, unit);
+  }
+  
+  /**
+   * Watch a value on the primary.
+   */
+  public ListenableFuture<Property> watch(String key, Property previous) throws IOException {
+    return _primary.watch(key, previous);
+  }
+  
+  /**
+   * Watch every value beneath a prefix on the primary.
+   */
+  public ListenableFuture<Property> watchTree(String prefix, Property previous) throws IOException {
+    return _primary.watchTree(prefix, previous);
+  }
+  
+  /**
+   * Perform a read on the primary, hedging it on the secondary if the primary is
+   * slow or fails.
+   */
+  private Property hedge(final Read read) throws IOException, InterruptedException {
+    try {
+      return hedge(read, 0);
+    }catch(TimeoutException e){
+      throw new IOException("Etcd read timed out", e); // unbounded reads don't time out here
+    }
+  }
+  
+  /**
+   * Perform a read on the primary, hedging it on the secondary if the primary is
+   * slow or fails, and giving up at the specified deadline if one is provided.
+   */
+  private Property hedge(final Read read, final long deadline) throws IOException, InterruptedException, TimeoutException {
+    final long start = System.nanoTime();
+    final SettableFuture<Property> result = SettableFuture.create();
+    
+    ListenableFuture<Property> primary = executor.submit(new Callable<Property>() {
+      public Property call() throws Exception {
+        return read.read(_primary);
+      }
+    });
+    
+    // the primary only contributes latency samples when it answers
+    Futures.addCallback(primary, new FutureCallback<Property>() {
+      public void onSuccess(Property property) {
+        sample(System.nanoTime() - start);
+        result.set(property);
+      }
+      public void onFailure(Throwable thrown) {
+        // leave it to the secondary
+      }
+    });
+    
+    ListenableFuture<Property> secondary = null;
+    try {
+      
+      try {
+        primary.get((deadline != 0) ? Math.min(_threshold, deadline - start) : _threshold, TimeUnit.NANOSECONDS);
+      }catch(TimeoutException e){
+        // slow; hedge below
+      }catch(ExecutionException e){
+        // failed; hedge below
+      }
+      
+      if(!result.isDone() && (deadline == 0 || deadline - System.nanoTime() > 0)){
+        _hedges.incrementAndGet();
+        secondary = executor.submit(new Callable<Property>() {
+          public Property call() throws Exception {
+            return read.read(_secondary);
+          }
+        });
+        Futures.addCallback(secondary, new FutureCallback<Property>() {
+          public void onSuccess(Property property) {
+            if(result.set(property)) _wins.incrementAndGet();
+          }
+          public void onFailure(Throwable thrown) {
+            // fall through to the primary's outcome
+          }
+        });
+        
+        // wait for whichever answers first, or for both to fail
+        ListenableFuture<List<Property>> both = Futures.successfulAsList(primary, secondary);
+        Futures.addCallback(both, new FutureCallback<List<Property>>() {
+          public void onSuccess(List<Property> ignored) {
+            result.setException(new IOException("Both etcd endpoints failed"));
+          }
+          public void onFailure(Throwable thrown) {
+            result.setException(thrown);
+          }
+        });
+      }else if(!result.isDone()){
+        // out of time to hedge; the primary's outcome is all we have
+        Futures.addCallback(primary, new FutureCallback<Property>() {
+          public void onSuccess(Property property) {
+            // already propagated
+          }
+          public void onFailure(Throwable thrown) {
+            result.setException(thrown);
+          }
+        });
+      }
+      
+      return (deadline != 0) ? result.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS) : result.get();
+      
+    }catch(ExecutionException e){
+      if(e.getCause() instanceof TimeoutException) throw (TimeoutException)e.getCause();
+      // prefer the primary's failure, which is the more meaningful one
+      try {
+        primary.get();
+      }catch(ExecutionException f){
+        if(f.getCause() instanceof IOException) throw (IOException)f.getCause();
+        if(f.getCause() instanceof TimeoutException) throw (TimeoutException)f.getCause();
+        throw new IOException("Etcd read failed", f.getCause());
+      }
+      throw new IOException("Etcd read failed", e.getCause());
+    }finally{
+      // abandon whichever request lost
+      primary.cancel(true);
+      if(secondary != null) secondary.cancel(true);
+    }
+    
+  }
+  
+  /**
+   * Record a primary latency sample, periodically recomputing our threshold
+   */
+  private void sample(long latency) {
+    long[] window = null;
+    synchronized(_samples){
+      // the window wraps and is filled only once; neither grows without bound
+      _samples[_next] = latency;
+      _next = (_next + 1) % SAMPLES;
+      if(_filled < SAMPLES) _filled++;
+      if(++_sampled == INTERVAL){
+        _sampled = 0;
+        window = Arrays.copyOf(_samples, _filled);
+      }
+    }
+    if(window != null){
+      Arrays.sort(window);
+      int index = (int)Math.min(window.length - 1, Math.ceil(window.length * _percentile / 100d) - 1);
+      _threshold = Math.max(_min, window[Math.max(0, index)]);
+      if(logger.isDebugEnabled()) logger.debug(this +": hedging after "+ TimeUnit.NANOSECONDS.toMicros(_threshold) +"us");
+    }
+  }
+  
+  /**
+   * String description
+   */
+  public String toString() {
+    return String.format("hedged(%s, %s)", _primary, _secondary);
+  }
+  
+  /**
+   * A read which may be performed on either endpoint
+   */
+  private static interface Read {
+    public Property read(EtcdProvider provider) throws IOException, InterruptedException, TimeoutException;
+  }
+  
+}
@@ -32,6 +32,14 @@ package com.brianwolter.etc.provider;
 
 import java.io.IOException;
 
+import java.util.Map;
+import java.util.HashMap;
+import java.util.Collections;
+import java.util.Properties;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentHashMap;
+
 import org.apache.log4j.Logger;
 
 import com.google.common.util.concurrent.ListenableFuture;
@@ -42,22 +50,46 @@ import com.brianwolter.etc.util.Property;
 /**
  * System provider.
  */
-public class SystemProvider implements Provider.Observable {
+public class SystemProvider implements Provider.Observable, Provider.Hierarchical {
   
   private static final Logger logger = Logger.getLogger(SystemProvider.class.getName());
   
+  private final ConcurrentMap<String, SystemProperty> _properties = new ConcurrentHashMap<String, SystemProperty>();
+  
   /**
-   * Obtain a configuration value.
+   * Obtain a configuration value. Properties are cached per key and reused for as
+   * long as the underlying system property is unchanged.
    */
   public Property get(final String key) throws IOException, InterruptedException {
     Object value;
     if((value = System.getProperty(key)) != null){
-      return new SystemProperty(value);
+      SystemProperty property;
+      if((property = _properties.get(key)) == null || property.value() != value){
+        _properties.put(key, (property = new SystemProperty(value)));
+      }
+      return property;
     }else{
       return null;
     }
   }
   
+  /**
+   * Obtain every value beneath a prefix.
+   */
+  public Property list(final String prefix) throws IOException, InterruptedException {
+    Properties properties = System.getProperties();
+    Map<String, Property> values = new HashMap<String, Property>();
+    String base = prefix +".";
+    
+    for(String key : properties.stringPropertyNames()){
+      if(key.startsWith(base)){
+        values.put(key.substring(base.length()), get(key));
+      }
+    }
+    
+    return new SystemProperty(Collections.unmodifiableMap(values));
+  }
+  
   /**
    * String description
    */
@@ -70,7 +102,7 @@ public class SystemProvider implements Provider.Observable {
    */
   public static class SystemProperty implements Property {
     
-    private Object _value;
+    private final Object _value;
     
     /**
      * Construct with a value
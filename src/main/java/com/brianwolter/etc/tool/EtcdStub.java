@@ -0,0 +1,980 @@
+// 
+// Copyright (c) 2014 Brian William Wolter, All rights reserved.
+// Etcd - an etcd SDK for Java
+// 
+// Redistribution and use in source and binary forms, with or without modification,
+// are permitted provided that the following conditions are met:
+// 
+//   * Redistributions of source code must retain the above copyright notice, this
+//     list of conditions and the following disclaimer.
+// 
+//   * Redistributions in binary form must reproduce the above copyright notice,
+//     this list of conditions and the following disclaimer in the documentation
+//     and/or other materials provided with the distribution.
+//     
+//   * Neither the names of Brian William Wolter, Wolter Group New York, nor the
+//     names of its contributors may be used to endorse or promote products derived
+//     from this software without specific prior written permission.
+//     
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+// IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+// INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+// BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+// LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+// OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+// 
+
+package com.brianwolter.etc.tool;
+
+import java.io.IOException;
+import java.io.Closeable;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import java.net.URLDecoder;
+import java.net.URI;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+
+import java.nio.charset.Charset;
+
+import java.util.Map;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.TreeMap;
+import java.util.SortedMap;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.ArrayDeque;
+import java.util.Random;
+import java.util.Date;
+import java.util.TimeZone;
+
+import java.text.SimpleDateFormat;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import com.google.gson.Gson;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpsServer;
+import com.sun.net.httpserver.HttpsParameters;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.Headers;
+
+import com.brianwolter.etc.transport.Transport;
+import com.brianwolter.etc.transport.Request;
+import com.brianwolter.etc.transport.Response;
+
+/**
+ * An in-process stand-in for an etcd server implementing the parts of the v2 keys
+ * API used by the etcd provider: GET (including recursive listings), PUT, DELETE
+ * and long-polling waits with <code>waitIndex</code>. Responses carry the
+ * <code>X-Etcd-Index</code> header and etcd's error bodies for missing keys and
+ * cleared event history. Keys may be set with a <code>ttl</code>, refreshed without
+ * notifying watchers with <code>refresh=true</code>, and expire with an
+ * <code>expire</code> event.
+ * <p>
+ * Faults can be injected by delaying responses and by dropping a fraction of
+ * requests, which closes their connections without a response. Pending waits can
+ * be dropped all at once to simulate a server restart.
+ * <p>
+ * The stub serves HTTPS when constructed with a TLS context, optionally requiring
+ * clients to present a certificate. It can also be reached without a socket at all
+ * through its in-memory {@link #transport}.
+ */
+public class EtcdStub implements Closeable {
+  
+  private static final Logger   logger        = Logger.getLogger(EtcdStub.class.getName());
+  private static final Charset  UTF_8         = Charset.forName("UTF-8");
+  private static final Gson     GSON          = new Gson();
+  private static final String   KEYS_PATH     = "/v2/keys";
+  private static final int      HISTORY       = 1000;
+  
+  static {
+    // don't hold small responses back waiting on delayed acknowledgements
+    if(System.getProperty("sun.net.httpserver.nodelay") == null){
+      System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+  }
+  
+  private final HttpServer                  _server;
+  private final ExecutorService             _executor;
+  private final ScheduledExecutorService    _scheduler;
+  private final SortedMap<String, Node>     _nodes;
+  private final ArrayDeque<Event>           _history;
+  private final Map<String, List<Waiter>>   _waiters;
+  private final Map<String, ScheduledFuture<?>> _expirations;
+  private final Random                      _random;
+  private final AtomicLong                  _requests;
+  private final AtomicLong                  _watches;
+  private long                              _index;
+  private volatile long                     _latency;
+  private volatile double                   _dropRate;
+  
+  /**
+   * Construct a stub listening on an ephemeral port
+   */
+  public EtcdStub() throws IOException {
+    this(0);
+  }
+  
+  /**
+   * Construct a stub listening on the specified port
+   */
+  public EtcdStub(int port) throws IOException {
+    this(port, null, false);
+  }
+  
+  /**
+   * Construct a stub serving HTTPS on an ephemeral port
+   */
+  public EtcdStub(SSLContext context, boolean clientAuth) throws IOException {
+    this(0, context, clientAuth);
+  }
+  
+  /**
+   * Construct a stub listening on the specified port, which serves HTTPS if a TLS
+   * context is provided and, if so, may require clients to authenticate.
+   */
+  public EtcdStub(int port, SSLContext context, final boolean clientAuth) throws IOException {
+    if(context != null){
+      HttpsServer server = HttpsServer.create(new InetSocketAddress("localhost", port), 1024);
+      server.setHttpsConfigurator(new HttpsConfigurator(context) {
+        public void configure(HttpsParameters params) {
+          SSLParameters parameters = getSSLContext().getDefaultSSLParameters();
+          parameters.setNeedClientAuth(clientAuth);
+          // the JDK's HTTPS server occasionally stalls TLS 1.3 exchanges under load
+          parameters.setProtocols(new String[]{ "TLSv1.2" });
+          params.setSSLParameters(parameters);
+        }
+      });
+      _server = server;
+    }else{
+      _server = HttpServer.create(new InetSocketAddress("localhost", port), 1024);
+    }
+    _executor = Executors.newFixedThreadPool(Math.max(4, Runtime.getRuntime().availableProcessors()));
+    _scheduler = Executors.newSingleThreadScheduledExecutor();
+    _nodes = new TreeMap<String, Node>();
+    _history = new ArrayDeque<Event>(HISTORY);
+    _waiters = new HashMap<String, List<Waiter>>();
+    _expirations = new HashMap<String, ScheduledFuture<?>>();
+    _random = new Random();
+    _requests = new AtomicLong();
+    _watches = new AtomicLong();
+    _nodes.put("/", new Node("/", null, true, 0));
+    
+    _server.setExecutor(_executor);
+    _server.createContext(KEYS_PATH, new HttpHandler() {
+      public void handle(HttpExchange exchange) throws IOException {
+        EtcdStub.this.handle(exchange);
+      }
+    });
+    
+  }
+  
+  /**
+   * Start serving requests
+   */
+  public EtcdStub start() {
+    _server.start();
+    return this;
+  }
+  
+  /**
+   * Stop serving requests
+   */
+  public void close() {
+    dropWatches();
+    _server.stop(0);
+    _executor.shutdownNow();
+    _scheduler.shutdownNow();
+  }
+  
+  /**
+   * Obtain the scheme we serve, either http or https
+   */
+  public String scheme() {
+    return (_server instanceof HttpsServer) ? "https" : "http";
+  }
+  
+  /**
+   * Obtain the host we are listening on
+   */
+  public String host() {
+    return _server.getAddress().getHostName();
+  }
+  
+  /**
+   * Obtain the port we are listening on
+   */
+  public int port() {
+    return _server.getAddress().getPort();
+  }
+  
+  /**
+   * Obtain the current etcd index
+   */
+  public synchronized long index() {
+    return _index;
+  }
+  
+  /**
+   * Obtain the number of requests handled
+   */
+  public long requests() {
+    return _requests.get();
+  }
+  
+  /**
+   * Obtain the number of waits currently pending
+   */
+  public long watches() {
+    return _watches.get();
+  }
+  
+  /**
+   * Obtain the number of waits currently pending on the specified key
+   */
+  public synchronized int watches(String key) {
+    List<Waiter> waiters;
+    return ((waiters = _waiters.get(normalize(key.replace('.', '/')))) != null) ? waiters.size() : 0;
+  }
+  
+  /**
+   * Delay every response by the specified latency
+   */
+  public EtcdStub setLatency(long latency, TimeUnit unit) {
+    _latency = unit.toMillis(latency);
+    return this;
+  }
+  
+  /**
+   * Drop the specified fraction of requests by closing their connections without
+   * responding
+   */
+  public EtcdStub setDropRate(double rate) {
+    if(rate < 0 || rate > 1) throw new IllegalArgumentException("Drop rate must be between 0 and 1");
+    _dropRate = rate;
+    return this;
+  }
+  
+  /**
+   * Drop every pending wait, as a server restart would
+   */
+  public void dropWatches() {
+    List<Waiter> dropped = new ArrayList<Waiter>();
+    synchronized(this){
+      for(List<Waiter> waiters : _waiters.values()){
+        dropped.addAll(waiters);
+      }
+      _waiters.clear();
+    }
+    for(Waiter waiter : dropped){
+      _watches.decrementAndGet();
+      waiter.exchange.close();
+    }
+  }
+  
+  /**
+   * Set a value directly
+   */
+  public long set(String key, String value) {
+    return set(key, value, 0, TimeUnit.SECONDS);
+  }
+  
+  /**
+   * Set a value directly which expires after the specified time to live
+   */
+  public long set(String key, String value, long ttl, TimeUnit unit) {
+    List<Waiter> notify = new ArrayList<Waiter>();
+    Event event;
+    synchronized(this){
+      event = put(normalize(key.replace('.', '/')), value, unit.toSeconds(ttl), notify);
+    }
+    notify(notify, event);
+    return event.index;
+  }
+  
+  /**
+   * Delete a value, or a directory and everything beneath it, directly. Returns the
+   * index of the deletion or zero if the key does not exist.
+   */
+  public long delete(String key) {
+    List<Waiter> notify = new ArrayList<Waiter>();
+    Event event;
+    synchronized(this){
+      Node node;
+      String path = normalize(key.replace('.', '/'));
+      if((node = _nodes.get(path)) == null) return 0;
+      event = remove(path, node, notify);
+    }
+    notify(notify, event);
+    return event.index;
+  }
+  
+  /**
+   * Obtain a transport which delivers requests to this stub in memory rather than
+   * over a socket; the stub needn't be started to use it. Injected latency and
+   * dropped requests apply just as they do to requests made over the network.
+   */
+  public Transport transport() {
+    return new Transport() {
+      
+      public String scheme() {
+        return "http";
+      }
+      
+      public ListenableFuture<Response> execute(Request request) {
+        final Exchange exchange = new Exchange(request);
+        
+        // fail requests which aren't answered in time, as a socket would
+        long timeout;
+        if((timeout = request.getTimeout(TimeUnit.MILLISECONDS)) > 0){
+          final ScheduledFuture<?> expiry = _scheduler.schedule(new Runnable() {
+            public void run() {
+              exchange._future.setException(new SocketTimeoutException("Read timed out"));
+            }
+          }, timeout, TimeUnit.MILLISECONDS);
+          exchange._future.addListener(new Runnable() {
+            public void run() {
+              expiry.cancel(false);
+            }
+          }, MoreExecutors.sameThreadExecutor());
+        }
+        
+        _executor.execute(new Runnable() {
+          public void run() {
+            try {
+              EtcdStub.this.handle(exchange);
+            }catch(Exception e){
+              exchange._future.setException(e);
+            }
+          }
+        });
+        
+        return exchange._future;
+      }
+      
+      public void close() {
+        // nothing to release
+      }
+      
+      public String toString() {
+        return "memory-"+ EtcdStub.this;
+      }
+      
+    };
+  }
+  
+  /**
+   * Handle a request
+   */
+  private void handle(final HttpExchange exchange) throws IOException {
+    _requests.incrementAndGet();
+    
+    if(_dropRate > 0 && _random.nextDouble() < _dropRate){
+      logger.debug("Dropping request: "+ exchange.getRequestURI());
+      exchange.close();
+      return;
+    }
+    
+    try {
+      String method = exchange.getRequestMethod();
+      String key = normalize(exchange.getRequestURI().getPath().substring(KEYS_PATH.length()));
+      Map<String, String> params = parse(exchange.getRequestURI().getRawQuery());
+      
+      if(method.equals("GET")){
+        get(exchange, key, params);
+      }else if(method.equals("PUT")){
+        params.putAll(parse(new String(ByteStreams.toByteArray(exchange.getRequestBody()), UTF_8)));
+        put(exchange, key, params);
+      }else if(method.equals("DELETE")){
+        delete(exchange, key, params);
+      }else{
+        respond(exchange, 405, error(405, "Method not allowed", method));
+      }
+      
+    }catch(RuntimeException e){
+      logger.error("Stub request failed: "+ exchange.getRequestURI(), e);
+      respond(exchange, 500, error(300, "Raft internal error", e.getMessage()));
+    }
+    
+  }
+  
+  /**
+   * Handle a get or wait
+   */
+  private void get(HttpExchange exchange, String key, Map<String, String> params) throws IOException {
+    boolean recursive = "true".equals(params.get("recursive"));
+    Map<String, Object> response;
+    int status = 200;
+    
+    synchronized(this){
+      if("true".equals(params.get("wait"))){
+        String stemp;
+        
+        if((stemp = params.get("waitIndex")) != null){
+          long since = Long.parseLong(stemp);
+          
+          // waits from before our history has been cleared are an error
+          if(!_history.isEmpty() && since < _history.peekFirst().index){
+            respond(exchange, 400, error(401, "The event in requested index is outdated and cleared", String.format("the requested history has been cleared [%d/%d]", _history.peekFirst().index, since)));
+            return;
+          }
+          
+          // if a matching event already happened, respond with it immediately
+          for(Event event : _history){
+            if(event.index >= since && matches(key, recursive, event.key)){
+              respond(exchange, 200, event.json());
+              return;
+            }
+          }
+          
+        }
+        
+        // otherwise park until something matching happens
+        List<Waiter> waiters;
+        if((waiters = _waiters.get(key)) == null){
+          _waiters.put(key, (waiters = new LinkedList<Waiter>()));
+        }
+        
+        waiters.add(new Waiter(exchange, recursive));
+        _watches.incrementAndGet();
+        return;
+      }
+      
+      Node node;
+      if((node = _nodes.get(key)) == null){
+        status = 404;
+        response = error(100, "Key not found", key);
+      }else{
+        response = new LinkedHashMap<String, Object>();
+        response.put("action", "get");
+        response.put("node", json(node, true, recursive));
+      }
+      
+    }
+    
+    respond(exchange, status, response);
+  }
+  
+  /**
+   * Handle a put
+   */
+  private void put(HttpExchange exchange, String key, Map<String, String> params) throws IOException {
+    List<Waiter> notify = new ArrayList<Waiter>();
+    Event event;
+    
+    synchronized(this){
+      Node node = _nodes.get(key);
+      String stemp;
+      long ttl = ((stemp = params.get("ttl")) != null && !stemp.isEmpty()) ? Long.parseLong(stemp) : 0;
+      
+      if(node != null && node.dir){
+        respond(exchange, 403, error(102, "Not a file", key));
+        return;
+      }else if(node == null && "true".equals(params.get("prevExist"))){
+        respond(exchange, 404, error(100, "Key not found", key));
+        return;
+      }
+      
+      if("true".equals(params.get("refresh"))){
+        // refreshing only resets the time to live and doesn't notify anyone
+        if(node == null){
+          respond(exchange, 404, error(100, "Key not found", key));
+          return;
+        }
+        expire(node, ttl);
+        Map<String, Object> response = new LinkedHashMap<String, Object>();
+        response.put("action", "update");
+        response.put("node", node.json());
+        respond(exchange, 200, response);
+        return;
+      }
+      
+      event = put(key, params.get("value"), ttl, notify);
+    }
+    
+    respond(exchange, (event.previous != null) ? 200 : 201, event.json());
+    notify(notify, event);
+  }
+  
+  /**
+   * Handle a delete
+   */
+  private void delete(HttpExchange exchange, String key, Map<String, String> params) throws IOException {
+    List<Waiter> notify = new ArrayList<Waiter>();
+    Event event;
+    
+    synchronized(this){
+      Node node;
+      if((node = _nodes.get(key)) == null){
+        respond(exchange, 404, error(100, "Key not found", key));
+        return;
+      }else if(node.dir && !"true".equals(params.get("recursive")) && !"true".equals(params.get("dir"))){
+        respond(exchange, 403, error(102, "Not a file", key));
+        return;
+      }
+      
+      event = remove(key, node, notify);
+    }
+    
+    respond(exchange, 200, event.json());
+    notify(notify, event);
+  }
+  
+  /**
+   * Remove a node and everything beneath it and record the event. The caller must
+   * hold our lock.
+   */
+  private Event remove(String key, Node node, List<Waiter> notify) {
+    
+    ScheduledFuture<?> expiration;
+    if((expiration = _expirations.remove(key)) != null){
+      expiration.cancel(false);
+    }
+    
+    // remove the node and everything beneath it
+    _nodes.keySet().removeAll(new ArrayList<String>(_nodes.subMap(key +"/", key +"0").keySet()));
+    _nodes.remove(key);
+    
+    Node removed = new Node(key, null, node.dir, node.created);
+    removed.modified = ++_index;
+    return record(new Event("delete", removed, node, _index), notify);
+  }
+  
+  /**
+   * Set a value and record the event. The caller must hold our lock.
+   */
+  private Event put(String key, String value, long ttl, List<Waiter> notify) {
+    long index = ++_index;
+    
+    // create intermediate directories
+    for(int i = key.indexOf('/', 1); i > 0; i = key.indexOf('/', i + 1)){
+      String parent = key.substring(0, i);
+      if(!_nodes.containsKey(parent)) _nodes.put(parent, new Node(parent, null, true, index));
+    }
+    
+    Node previous = _nodes.get(key);
+    Node node = new Node(key, value, false, (previous != null) ? previous.created : index);
+    node.modified = index;
+    _nodes.put(key, node);
+    expire(node, ttl);
+    
+    return record(new Event("set", node, previous, index), notify);
+  }
+  
+  /**
+   * Schedule a node to expire after the specified time to live, replacing any
+   * expiration already scheduled for its key. The caller must hold our lock.
+   */
+  private void expire(final Node node, long ttl) {
+    ScheduledFuture<?> previous;
+    if((previous = _expirations.remove(node.key)) != null){
+      previous.cancel(false);
+    }
+    
+    if(ttl > 0){
+      node.expiration = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(ttl);
+      _expirations.put(node.key, _scheduler.schedule(new Runnable() {
+        public void run() {
+          EtcdStub.this.expired(node);
+        }
+      }, ttl, TimeUnit.SECONDS));
+    }else{
+      node.expiration = 0;
+    }
+    
+  }
+  
+  /**
+   * Remove a node which has expired, if it is still current
+   */
+  private void expired(Node node) {
+    List<Waiter> notify = new ArrayList<Waiter>();
+    Event event;
+    
+    synchronized(this){
+      if(_nodes.get(node.key) != node) return;
+      _nodes.remove(node.key);
+      _expirations.remove(node.key);
+      Node removed = new Node(node.key, null, false, node.created);
+      removed.modified = ++_index;
+      event = record(new Event("expire", removed, node, _index), notify);
+    }
+    
+    notify(notify, event);
+  }
+  
+  /**
+   * Record an event in our history and collect the waiters it satisfies. The caller
+   * must hold our lock.
+   */
+  private Event record(Event event, List<Waiter> notify) {
+    if(_history.size() >= HISTORY) _history.removeFirst();
+    _history.addLast(event);
+    
+    // waiters on the key itself, then recursive waiters on each of its parents
+    List<Waiter> waiters;
+    if((waiters = _waiters.remove(event.key)) != null){
+      notify.addAll(waiters);
+    }
+    
+    String parent = event.key;
+    while(parent.length() > 1){
+      int i = parent.lastIndexOf('/');
+      parent = (i > 0) ? parent.substring(0, i) : "/";
+      if((waiters = _waiters.get(parent)) != null){
+        for(java.util.Iterator<Waiter> iterator = waiters.iterator(); iterator.hasNext(); ){
+          Waiter waiter = iterator.next();
+          if(waiter.recursive){
+            iterator.remove();
+            notify.add(waiter);
+          }
+        }
+        if(waiters.isEmpty()) _waiters.remove(parent);
+      }
+    }
+    
+    return event;
+  }
+  
+  /**
+   * Respond to waiters
+   */
+  private void notify(List<Waiter> waiters, Event event) {
+    if(waiters.isEmpty()) return;
+    Map<String, Object> json = event.json();
+    for(Waiter waiter : waiters){
+      _watches.decrementAndGet();
+      respond(waiter.exchange, 200, json);
+    }
+  }
+  
+  /**
+   * Send a response, after our injected latency if any
+   */
+  private void respond(final HttpExchange exchange, final int status, final Map<String, Object> content) {
+    final long index;
+    synchronized(this){
+      index = _index;
+    }
+    
+    if(_latency > 0){
+      _scheduler.schedule(new Runnable() {
+        public void run() {
+          send(exchange, status, content, index);
+        }
+      }, _latency, TimeUnit.MILLISECONDS);
+    }else{
+      send(exchange, status, content, index);
+    }
+    
+  }
+  
+  /**
+   * Send a response
+   */
+  private void send(HttpExchange exchange, int status, Map<String, Object> content, long index) {
+    try {
+      byte[] body = GSON.toJson(content).getBytes(UTF_8);
+      exchange.getResponseHeaders().set("Content-Type", "application/json");
+      exchange.getResponseHeaders().set("X-Etcd-Index", String.valueOf(index));
+      exchange.sendResponseHeaders(status, body.length);
+      OutputStream output = exchange.getResponseBody();
+      output.write(body);
+      output.close();
+    }catch(IOException e){
+      logger.debug("Could not respond (client has likely gone away): "+ exchange.getRequestURI(), e);
+    }finally{
+      exchange.close();
+    }
+  }
+  
+  /**
+   * Produce the JSON representation of a node. The caller must hold our lock.
+   */
+  private Map<String, Object> json(Node node, boolean children, boolean recursive) {
+    Map<String, Object> json = node.json();
+    if(node.dir && children){
+      List<Map<String, Object>> nodes = new ArrayList<Map<String, Object>>();
+      String base = node.key.equals("/") ? "/" : node.key +"/";
+      for(Node child : _nodes.subMap(base, base.substring(0, base.length() - 1) +"0").values()){
+        if(child.key.length() > base.length() && child.key.indexOf('/', base.length()) < 0){
+          nodes.add(json(child, recursive, recursive));
+        }
+      }
+      if(!nodes.isEmpty()) json.put("nodes", nodes);
+    }
+    return json;
+  }
+  
+  /**
+   * Produce an error body
+   */
+  private Map<String, Object> error(int code, String message, String cause) {
+    Map<String, Object> json = new LinkedHashMap<String, Object>();
+    json.put("errorCode", code);
+    json.put("message", message);
+    json.put("cause", cause);
+    synchronized(this){
+      json.put("index", _index);
+    }
+    return json;
+  }
+  
+  /**
+   * Determine if an event key is matched by a wait
+   */
+  private static boolean matches(String key, boolean recursive, String candidate) {
+    return candidate.equals(key) || (recursive && (key.equals("/") || candidate.startsWith(key +"/")));
+  }
+  
+  /**
+   * Normalize a key path
+   */
+  private static String normalize(String path) {
+    StringBuilder sb = new StringBuilder();
+    for(String segment : path.split("/")){
+      if(!segment.isEmpty()) sb.append('/').append(segment);
+    }
+    return (sb.length() > 0) ? sb.toString() : "/";
+  }
+  
+  /**
+   * Parse form or query parameters
+   */
+  private static Map<String, String> parse(String query) {
+    Map<String, String> params = new HashMap<String, String>();
+    if(query != null && !query.isEmpty()){
+      for(String pair : query.split("&")){
+        int i = pair.indexOf('=');
+        try {
+          if(i < 0){
+            params.put(URLDecoder.decode(pair, "UTF-8"), "");
+          }else{
+            params.put(URLDecoder.decode(pair.substring(0, i), "UTF-8"), URLDecoder.decode(pair.substring(i + 1), "UTF-8"));
+          }
+        }catch(java.io.UnsupportedEncodingException e){
+          throw new RuntimeException(e);
+        }
+      }
+    }
+    return params;
+  }
+  
+  /**
+   * String description
+   */
+  public String toString() {
+    return String.format("etcd-stub@%s:%d", host(), port());
+  }
+  
+  /**
+   * A node
+   */
+  private static class Node {
+    
+    private final String  key;
+    private final String  value;
+    private final boolean dir;
+    private final long    created;
+    private long          modified;
+    private long          expiration;
+    
+    private Node(String key, String value, boolean dir, long created) {
+      this.key = key;
+      this.value = value;
+      this.dir = dir;
+      this.created = created;
+      this.modified = created;
+    }
+    
+    private Map<String, Object> json() {
+      Map<String, Object> json = new LinkedHashMap<String, Object>();
+      json.put("key", key);
+      if(dir) json.put("dir", true);
+      if(value != null) json.put("value", value);
+      if(expiration > 0){
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        json.put("expiration", format.format(new Date(expiration)));
+        json.put("ttl", Math.max(1, (expiration - System.currentTimeMillis() + 999) / 1000));
+      }
+      json.put("modifiedIndex", modified);
+      json.put("createdIndex", created);
+      return json;
+    }
+    
+  }
+  
+  /**
+   * An event in our history
+   */
+  private static class Event {
+    
+    private final String  action;
+    private final String  key;
+    private final Node    node;
+    private final Node    previous;
+    private final long    index;
+    
+    private Event(String action, Node node, Node previous, long index) {
+      this.action = action;
+      this.key = node.key;
+      this.node = node;
+      this.previous = previous;
+      this.index = index;
+    }
+    
+    private Map<String, Object> json() {
+      Map<String, Object> json = new LinkedHashMap<String, Object>();
+      json.put("action", action);
+      json.put("node", node.json());
+      if(previous != null) json.put("prevNode", previous.json());
+      return json;
+    }
+    
+  }
+  
+  /**
+   * A pending wait
+   */
+  /**
+   * An exchange made in memory, which completes its future when it is closed
+   */
+  private static class Exchange extends HttpExchange {
+    
+    private final Request                   _request;
+    private final SettableFuture<Response>  _future;
+    private final Headers                   _requestHeaders;
+    private final Headers                   _responseHeaders;
+    private final ByteArrayOutputStream     _body;
+    private int                             _status;
+    
+    private Exchange(Request request) {
+      _request = request;
+      _future = SettableFuture.create();
+      _requestHeaders = new Headers();
+      _responseHeaders = new Headers();
+      _body = new ByteArrayOutputStream();
+      _status = -1;
+      if(request.contentType() != null) _requestHeaders.set("Content-Type", request.contentType());
+    }
+    
+    public synchronized void close() {
+      if(_status < 0){
+        _future.setException(new IOException("Connection closed without a response: "+ _request));
+      }else{
+        Map<String, String> headers = new HashMap<String, String>();
+        for(Map.Entry<String, List<String>> e : _responseHeaders.entrySet()){
+          if(!e.getValue().isEmpty()) headers.put(e.getKey(), e.getValue().get(0));
+        }
+        _future.set(new Response(_status, null, headers, _body.toByteArray()));
+      }
+    }
+    
+    public synchronized void sendResponseHeaders(int status, long length) {
+      _status = status;
+    }
+    
+    public synchronized int getResponseCode() {
+      return _status;
+    }
+    
+    public Headers getRequestHeaders() {
+      return _requestHeaders;
+    }
+    
+    public Headers getResponseHeaders() {
+      return _responseHeaders;
+    }
+    
+    public URI getRequestURI() {
+      return _request.uri();
+    }
+    
+    public String getRequestMethod() {
+      return _request.method();
+    }
+    
+    public InputStream getRequestBody() {
+      return new ByteArrayInputStream((_request.body() != null) ? _request.body() : new byte[0]);
+    }
+    
+    public OutputStream getResponseBody() {
+      return _body;
+    }
+    
+    public String getProtocol() {
+      return "HTTP/1.1";
+    }
+    
+    public HttpContext getHttpContext() {
+      return null;
+    }
+    
+    public InetSocketAddress getRemoteAddress() {
+      return null;
+    }
+    
+    public InetSocketAddress getLocalAddress() {
+      return null;
+    }
+    
+    public Object getAttribute(String name) {
+      return null;
+    }
+    
+    public void setAttribute(String name, Object value) {
+      // no attributes
+    }
+    
+    public void setStreams(InputStream input, OutputStream output) {
+      // streams are fixed
+    }
+    
+    public com.sun.net.httpserver.HttpPrincipal getPrincipal() {
+      return null;
+    }
+    
+  }
+  
+  private static class Waiter {
+    
+    private final HttpExchange  exchange;
+    private final boolean       recursive;
+    
+    private Waiter(HttpExchange exchange, boolean recursive) {
+      this.exchange = exchange;
+      this.recursive = recursive;
+    }
+    
+  }
+  
+}
@@ -0,0 +1,118 @@
+// 
+// Copyright (c) 2014 Brian William Wolter, All rights reserved.
+// Etcd - an etcd SDK for Java
+// 
+// Redistribution and use in source and binary forms, with or without modification,
+// are permitted provided that the following conditions are met:
+// 
+//   * Redistributions of source code must retain the above copyright notice, this
+//     list of conditions and the following disclaimer.
+// 
+//   * Redistributions in binary form must reproduce the above copyright notice,
+//     this list of conditions and the following disclaimer in the documentation
+//     and/or other materials provided with the distribution.
+//     
+//   * Neither the names of Brian William Wolter, Wolter Group New York, nor the
+//     names of its contributors may be used to endorse or promote products derived
+//     from this software without specific prior written permission.
+//     
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+// IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+// INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+// BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+// LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+// OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+// 
+
+package com.brianwolter.etc.tool;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A concurrent, log-bucketed latency histogram. Latencies are recorded in
+ * microseconds with roughly one percent precision.
+ */
+public class Histogram {
+  
+  private static final double RATIO   = 1.01;
+  private static final double LOG     = Math.log(RATIO);
+  private static final long   MAXIMUM = TimeUnit.MINUTES.toMicros(10);
+  
+  private final AtomicLongArray _buckets;
+  private final AtomicLong      _count;
+  private final AtomicLong      _max;
+  
+  /**
+   * Construct
+   */
+  public Histogram() {
+    _buckets = new AtomicLongArray(bucket(MAXIMUM) + 1);
+    _count = new AtomicLong();
+    _max = new AtomicLong();
+  }
+  
+  /**
+   * Record a latency
+   */
+  public void record(long latency, TimeUnit unit) {
+    long micros = Math.min(MAXIMUM, Math.max(0, unit.toMicros(latency)));
+    _buckets.incrementAndGet(bucket(micros));
+    _count.incrementAndGet();
+    
+    long max;
+    while(micros > (max = _max.get()) && !_max.compareAndSet(max, micros));
+    
+  }
+  
+  /**
+   * Obtain the number of recorded latencies
+   */
+  public long count() {
+    return _count.get();
+  }
+  
+  /**
+   * Obtain the maximum recorded latency
+   */
+  public long max(TimeUnit unit) {
+    return unit.convert(_max.get(), TimeUnit.MICROSECONDS);
+  }
+  
+  /**
+   * Obtain the latency at the specified percentile (0-100)
+   */
+  public double percentile(double percentile, TimeUnit unit) {
+    long total = _count.get();
+    if(total < 1) return 0;
+    
+    long target = (long)Math.ceil(total * (percentile / 100d)), seen = 0;
+    for(int i = 0; i < _buckets.length(); i++){
+      if((seen += _buckets.get(i)) >= target){
+        return (double)upper(i) / (unit.toNanos(1) / 1000d);
+      }
+    }
+    
+    return (double)_max.get() / (unit.toNanos(1) / 1000d);
+  }
+  
+  /**
+   * Obtain the bucket for a latency in microseconds
+   */
+  private static int bucket(long micros) {
+    return (micros < 1) ? 0 : 1 + (int)(Math.log(micros) / LOG);
+  }
+  
+  /**
+   * Obtain the upper bound of a bucket in microseconds
+   */
+  private static long upper(int bucket) {
+    return (bucket < 1) ? 0 : (long)Math.ceil(Math.pow(RATIO, bucket));
+  }
+  
+}
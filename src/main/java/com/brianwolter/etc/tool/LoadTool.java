@@ -0,0 +1,337 @@
+// 
+// Copyright (c) 2014 Brian William Wolter, All rights reserved.
+// Etcd - an etcd SDK for Java
+// 
+// Redistribution and use in source and binary forms, with or without modification,
+// are permitted provided that the following conditions are met:
+// 
+//   * Redistributions of source code must retain the above copyright notice, this
+//     list of conditions and the following disclaimer.
+// 
+//   * Redistributions in binary form must reproduce the above copyright notice,
+//     this list of conditions and the following disclaimer in the documentation
+//     and/or other materials provided with the distribution.
+//     
+//   * Neither the names of Brian William Wolter, Wolter Group New York, nor the
+//     names of its contributors may be used to endorse or promote products derived
+//     from this software without specific prior written permission.
+//     
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+// IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+// INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+// BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+// LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+// OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+// 
+
+package com.brianwolter.etc.tool;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+
+import java.util.Map;
+import java.util.HashMap;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.BitSet;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.log4j.Logger;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import com.brianwolter.etc.Config;
+import com.brianwolter.etc.provider.EtcdProvider;
+
+/**
+ * A load generator. Creates a number of configurations, each with a number of
+ * auto-updating values watching a shared set of keys, drives writes to those keys
+ * at a target rate, and reports how updates propagate.
+ * <p>
+ * Usage: <code>java com.brianwolter.etc.tool.LoadTool [options]</code>
+ * <ul>
+ * <li><code>--target host:port</code> the etcd server to load; an in-process stub is used if omitted</li>
+ * <li><code>--configs N</code> the number of configurations (default 100)</li>
+ * <li><code>--values M</code> the number of values (and keys) per configuration (default 10)</li>
+ * <li><code>--providers P</code> the number of etcd providers the configurations share (default 4)</li>
+ * <li><code>--rate W</code> writes per second (default 100)</li>
+ * <li><code>--duration S</code> seconds to write for (default 30)</li>
+ * <li><code>--latency L</code> stub response latency in milliseconds (default 0)</li>
+ * <li><code>--drop R</code> stub request drop rate between 0 and 1, applied once setup completes (default 0)</li>
+ * </ul>
+ */
+public class LoadTool {
+  
+  private static final Logger logger = Logger.getLogger(LoadTool.class.getName());
+  private static final String PREFIX = "load.value.";
+  
+  private final String              _host;
+  private final int                 _port;
+  private final int                 _configs;
+  private final int                 _values;
+  private final int                 _providers;
+  private final int                 _rate;
+  private final int                 _duration;
+  private final EtcdStub            _stub;
+  private final double              _drop;
+  private final Histogram           _latency;
+  private final AtomicLong          _observed;
+  private final AtomicLong          _duplicates;
+  private final AtomicLong          _failures;
+  private final AtomicLong          _pending;
+  private final AtomicLongArray     _written;
+  private final List<Watcher>       _watchers;
+  
+  /**
+   * Construct with options
+   */
+  public LoadTool(Map<String, String> options) throws Exception {
+    _configs = Integer.parseInt(option(options, "configs", "100"));
+    _values = Integer.parseInt(option(options, "values", "10"));
+    _providers = Math.max(1, Math.min(_configs, Integer.parseInt(option(options, "providers", "4"))));
+    _rate = Integer.parseInt(option(options, "rate", "100"));
+    _duration = Integer.parseInt(option(options, "duration", "30"));
+    _drop = Double.parseDouble(option(options, "drop", "0"));
+    
+    String target;
+    if((target = options.get("target")) != null){
+      int i = target.lastIndexOf(':');
+      _host = (i < 0) ? target : target.substring(0, i);
+      _port = (i < 0) ? 4001 : Integer.parseInt(target.substring(i + 1));
+      _stub = null;
+    }else{
+      _stub = new EtcdStub().start();
+      _stub.setLatency(Long.parseLong(option(options, "latency", "0")), TimeUnit.MILLISECONDS);
+      _host = _stub.host();
+      _port = _stub.port();
+    }
+    
+    _latency = new Histogram();
+    _observed = new AtomicLong();
+    _duplicates = new AtomicLong();
+    _failures = new AtomicLong();
+    _pending = new AtomicLong();
+    _written = new AtomicLongArray(_values);
+    _watchers = new ArrayList<Watcher>();
+    
+  }
+  
+  /**
+   * Run the load test and report the results
+   */
+  public void run() throws Exception {
+    MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    
+    // every value holds a watch open; make sure each provider has connections for them
+    int watchesPerProvider = (_configs * _values + _providers - 1) / _providers;
+    if(System.getProperty("etc.provider.etcd.maxconn") == null){
+      System.setProperty("etc.provider.etcd.maxconn", String.valueOf(watchesPerProvider + 16));
+    }
+    
+    EtcdProvider writer = new EtcdProvider(_host, _port);
+    for(int i = 0; i < _values; i++){
+      writer.set(PREFIX + i, "0:0");
+    }
+    
+    System.gc();
+    long baseline = memory.getHeapMemoryUsage().getUsed();
+    
+    List<EtcdProvider> providers = new ArrayList<EtcdProvider>();
+    for(int i = 0; i < _providers; i++){
+      providers.add(new EtcdProvider(_host, _port));
+    }
+    
+    // create our configurations and start watching everything
+    long start = System.nanoTime();
+    for(int i = 0; i < _configs; i++){
+      Config config = new Config(providers.get(i % _providers));
+      for(int j = 0; j < _values; j++){
+        Config.Value<String> value = config.get(PREFIX + j, String.class).autoUpdate();
+        value.get();
+        Watcher watcher = new Watcher(value, j);
+        _watchers.add(watcher);
+        watcher.watch();
+      }
+    }
+    
+    // give the watches a moment to be established
+    if(_stub != null){
+      while(_stub.watches() < (long)_configs * _values && System.nanoTime() - start < TimeUnit.SECONDS.toNanos(60)) Thread.sleep(10);
+    }else{
+      Thread.sleep(1000);
+    }
+    
+    System.gc();
+    long loaded = memory.getHeapMemoryUsage().getUsed();
+    report("Setup complete in %.1fs: %d configs, %d values each, %d providers", (System.nanoTime() - start) / 1e9, _configs, _values, _providers);
+    
+    // inject faults only once everything is watching, so setup itself is reliable
+    if(_stub != null) _stub.setDropRate(_drop);
+    
+    // drive writes at our target rate
+    long writes = write(writer);
+    
+    // stop injecting faults and wait for propagation to settle
+    if(_stub != null) _stub.setDropRate(0);
+    long observed = -1;
+    while(observed != _observed.get()){
+      observed = _observed.get();
+      Thread.sleep(2000);
+    }
+    
+    long expected = 0, received = 0;
+    for(Watcher watcher : _watchers){
+      expected += _written.get(watcher.index);
+      received += watcher.received();
+    }
+    
+    System.gc();
+    long finished = memory.getHeapMemoryUsage().getUsed();
+    
+    report("Writes: %d (%.1f/s target %d/s)", writes, writes / (double)_duration, _rate);
+    report("Updates: %d expected, %d delivered, %d lost (%.2f%%), %d duplicate, %d failed", expected, received, expected - received, (expected > 0) ? 100d * (expected - received) / expected : 0d, _duplicates.get(), _failures.get());
+    report("Latency (ms): p50 %.2f, p90 %.2f, p99 %.2f, p99.9 %.2f, max %d", _latency.percentile(50, TimeUnit.MILLISECONDS), _latency.percentile(90, TimeUnit.MILLISECONDS), _latency.percentile(99, TimeUnit.MILLISECONDS), _latency.percentile(99.9, TimeUnit.MILLISECONDS), _latency.max(TimeUnit.MILLISECONDS));
+    report("Watches: %d pending%s", _pending.get(), (_stub != null) ? String.format(", %d open on the stub, %d requests served", _stub.watches(), _stub.requests()) : "");
+    long reconnects = 0, trips = 0;
+    for(EtcdProvider provider : providers){
+      reconnects += provider.reconnects();
+      trips += provider.breaker().trips();
+    }
+    report("Reconnects: %d attempted, %d throttled, %d circuit trips", reconnects, EtcdProvider.throttled(), trips);
+    report("Heap: %.1f MB baseline, %.1f MB loaded (%.1f KB per value), %.1f MB finished", baseline / 1e6, loaded / 1e6, (loaded - baseline) / 1e3 / (_configs * _values), finished / 1e6);
+    
+    if(_stub != null) _stub.close();
+    System.exit(0);
+  }
+  
+  /**
+   * Write at our target rate for our duration
+   */
+  private long write(final EtcdProvider writer) throws Exception {
+    final ExecutorService executor = Executors.newFixedThreadPool(Math.min(64, Math.max(1, _rate / 50)));
+    final AtomicLong writes = new AtomicLong();
+    final long[] sequences = new long[_values];
+    long interval = TimeUnit.SECONDS.toNanos(1) / Math.max(1, _rate);
+    long start = System.nanoTime(), end = start + TimeUnit.SECONDS.toNanos(_duration);
+    
+    for(long tick = 0, next = start; next < end; tick++, next += interval){
+      long delay;
+      if((delay = next - System.nanoTime()) > 0){
+        TimeUnit.NANOSECONDS.sleep(delay);
+      }
+      
+      final int index = (int)(tick % _values);
+      final long sequence = ++sequences[index];
+      executor.execute(new Runnable() {
+        public void run() {
+          try {
+            writer.set(PREFIX + index, sequence +":"+ System.nanoTime());
+            _written.incrementAndGet(index);
+            writes.incrementAndGet();
+          }catch(Exception e){
+            logger.warn("Write failed: "+ PREFIX + index, e);
+          }
+        }
+      });
+      
+    }
+    
+    executor.shutdown();
+    executor.awaitTermination(1, TimeUnit.MINUTES);
+    return writes.get();
+  }
+  
+  /**
+   * Report a line
+   */
+  private static void report(String format, Object... args) {
+    System.out.println(String.format(format, args));
+  }
+  
+  /**
+   * Obtain an option
+   */
+  private static String option(Map<String, String> options, String name, String ifnull) {
+    String value;
+    return ((value = options.get(name)) != null) ? value : ifnull;
+  }
+  
+  /**
+   * Run the load tool
+   */
+  public static void main(String[] args) throws Exception {
+    Map<String, String> options = new HashMap<String, String>();
+    for(int i = 0; i < args.length; i++){
+      if(args[i].startsWith("--") && i + 1 < args.length){
+        options.put(args[i].substring(2), args[++i]);
+      }else{
+        System.err.println("Invalid argument: "+ args[i]);
+        System.exit(1);
+      }
+    }
+    new LoadTool(options).run();
+  }
+  
+  /**
+   * Watches a value and accounts for the updates it delivers
+   */
+  private class Watcher implements FutureCallback<String> {
+    
+    private final Config.Value<String>  value;
+    private final int                   index;
+    private final BitSet                seen;
+    
+    private Watcher(Config.Value<String> value, int index) {
+      this.value = value;
+      this.index = index;
+      this.seen = new BitSet();
+    }
+    
+    private void watch() {
+      _pending.incrementAndGet();
+      Futures.addCallback(value.watch(), this, MoreExecutors.sameThreadExecutor());
+    }
+    
+    private synchronized int received() {
+      return seen.cardinality();
+    }
+    
+    public void onSuccess(String update) {
+      long now = System.nanoTime();
+      _pending.decrementAndGet();
+      
+      int i = update.indexOf(':');
+      int sequence = Integer.parseInt(update.substring(0, i));
+      if(sequence > 0){
+        _latency.record(now - Long.parseLong(update.substring(i + 1)), TimeUnit.NANOSECONDS);
+        _observed.incrementAndGet();
+        synchronized(this){
+          if(seen.get(sequence)) _duplicates.incrementAndGet();
+          seen.set(sequence);
+        }
+      }
+      
+      watch();
+    }
+    
+    public void onFailure(Throwable thrown) {
+      _pending.decrementAndGet();
+      _failures.incrementAndGet();
+      watch();
+    }
+    
+  }
+  
+}
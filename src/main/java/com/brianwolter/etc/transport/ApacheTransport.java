@@ -0,0 +1,233 @@
+// 
+// Copyright (c) 2014 Brian William Wolter, All rights reserved.
+// Etcd - an etcd SDK for Java
+// 
+// Redistribution and use in source and binary forms, with or without modification,
+// are permitted provided that the following conditions are met:
+// 
+//   * Redistributions of source code must retain the above copyright notice, this
+//     list of conditions and the following disclaimer.
+// 
+//   * Redistributions in binary form must reproduce the above copyright notice,
+//     this list of conditions and the following disclaimer in the documentation
+//     and/or other materials provided with the distribution.
+//     
+//   * Neither the names of Brian William Wolter, Wolter Group New York, nor the
+//     names of its contributors may be used to endorse or promote products derived
+//     from this software without specific prior written permission.
+//     
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+// IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+// INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+// BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+// LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+// OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+// 
+
+package com.brianwolter.etc.transport;
+
+import java.io.IOException;
+
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+
+import javax.net.ssl.SSLContext;
+
+import java.util.Map;
+import java.util.HashMap;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.util.EntityUtils;
+import org.apache.http.impl.client.NoopUserTokenHandler;
+
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.protocol.HttpCoreContext;
+
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * A transport backed by the Apache asynchronous HTTP client. Requests are
+ * multiplexed over a pool of connections by a single IO reactor, so outstanding
+ * long polls cost a connection each but no threads.
+ * <p>
+ * The request timeout, which must accommodate long polls, is configured by
+ * <code>etc.provider.etcd.timeout</code> in seconds (default 300) and the size of the
+ * connection pool by <code>etc.provider.etcd.maxconn</code> (default 1024).
+ */
+public class ApacheTransport implements Transport {
+  
+  private static final int CONNECT_TIMEOUT = 1000;
+  
+  private final CloseableHttpAsyncClient  _httpclient;
+  private final RequestConfig             _requestConfig;
+  private final String                    _scheme;
+  
+  /**
+   * Construct a transport using plain HTTP
+   */
+  public ApacheTransport() {
+    this(null);
+  }
+  
+  /**
+   * Construct. If a TLS context is provided HTTPS is used.
+   */
+  public ApacheTransport(SSLContext context) {
+    int requestTimeout = Integer.getInteger("etc.provider.etcd.timeout", 60 * 5) * 1000;
+    int concurrentConnections = Integer.getInteger("etc.provider.etcd.maxconn", 1024); // use a large number by default; we only have one route
+    
+    _scheme = (context != null) ? "https" : "http";
+    _requestConfig = RequestConfig.custom()
+      .setConnectTimeout(CONNECT_TIMEOUT)
+      .setSocketTimeout(requestTimeout)
+      .setConnectionRequestTimeout(requestTimeout)
+      .build();
+    
+    HttpAsyncClientBuilder builder = HttpAsyncClients.custom()
+      .setDefaultRequestConfig(_requestConfig)
+      .setMaxConnPerRoute(concurrentConnections)
+      .setMaxConnTotal(concurrentConnections);
+    
+    if(context != null){
+      builder.setSSLContext(context);
+      // connections authenticated with a client certificate would otherwise be tagged
+      // with its principal and never reused by requests which don't carry it
+      builder.setUserTokenHandler(NoopUserTokenHandler.INSTANCE);
+    }
+    
+    _httpclient = builder.build();
+    _httpclient.start();
+    
+  }
+  
+  /**
+   * Obtain the scheme requests are made with
+   */
+  public String scheme() {
+    return _scheme;
+  }
+  
+  /**
+   * Execute a request
+   */
+  public ListenableFuture<Response> execute(Request request) {
+    final SettableFuture<Response> future = SettableFuture.create();
+    final HttpRequestBase message = message(request);
+    final HttpClientContext context = HttpClientContext.create();
+    
+    // cancelling the request aborts it, which releases its connection immediately
+    // rather than when a long poll eventually times out
+    future.addListener(new Runnable() {
+      public void run() {
+        if(future.isCancelled()) message.abort();
+      }
+    }, MoreExecutors.sameThreadExecutor());
+    
+    _httpclient.execute(message, context, new FutureCallback<HttpResponse>() {
+      public void completed(HttpResponse result) {
+        try {
+          future.set(response(result));
+        }catch(Exception e){
+          future.setException(e);
+        }finally{
+          message.releaseConnection();
+        }
+      }
+      public void failed(Exception e) {
+        if(e instanceof SocketTimeoutException && context.getAttribute(HttpCoreContext.HTTP_CONNECTION) == null){
+          // we never had a connection, so this is not a request which timed out
+          ConnectException connect = new ConnectException("Connect timed out: "+ message.getURI());
+          connect.initCause(e);
+          future.setException(connect);
+        }else{
+          future.setException(e);
+        }
+      }
+      public void cancelled() {
+        future.setException(new InterruptedException());
+      }
+    });
+    
+    return future;
+  }
+  
+  /**
+   * Produce the message for a request
+   */
+  private HttpRequestBase message(Request request) {
+    HttpRequestBase message;
+    
+    if(request.method().equals(Request.GET)){
+      message = new HttpGet(request.uri());
+    }else if(request.method().equals(Request.PUT)){
+      HttpPut put = new HttpPut(request.uri());
+      if(request.body() != null) put.setEntity(new ByteArrayEntity(request.body(), (request.contentType() != null) ? ContentType.parse(request.contentType()) : null));
+      message = put;
+    }else if(request.method().equals(Request.DELETE)){
+      message = new HttpDelete(request.uri());
+    }else{
+      throw new IllegalArgumentException("Unsupported method: "+ request.method());
+    }
+    
+    // bound the request by its own timeout, if it has one
+    int timeout;
+    if((timeout = (int)Math.min(Integer.MAX_VALUE, request.getTimeout(TimeUnit.MILLISECONDS))) > 0){
+      message.setConfig(RequestConfig.copy(_requestConfig)
+        .setConnectTimeout(Math.min(timeout, CONNECT_TIMEOUT))
+        .setSocketTimeout(timeout)
+        .setConnectionRequestTimeout(timeout)
+        .build());
+    }
+    
+    return message;
+  }
+  
+  /**
+   * Produce a response, reading its entity in full
+   */
+  private static Response response(HttpResponse result) throws IOException {
+    Map<String, String> headers = new HashMap<String, String>();
+    for(Header header : result.getAllHeaders()){
+      if(!headers.containsKey(header.getName())) headers.put(header.getName(), header.getValue());
+    }
+    HttpEntity entity = result.getEntity();
+    return new Response(result.getStatusLine().getStatusCode(), result.getStatusLine().getReasonPhrase(), headers, (entity != null) ? EntityUtils.toByteArray(entity) : null);
+  }
+  
+  /**
+   * Close the HTTP client
+   */
+  public void close() throws IOException {
+    _httpclient.close();
+  }
+  
+  /**
+   * String description
+   */
+  public String toString() {
+    return "apache-"+ _scheme;
+  }
+  
+}
@@ -0,0 +1,221 @@
+// 
+// Copyright (c) 2014 Brian William Wolter, All rights reserved.
+// Etcd - an etcd SDK for Java
+// 
+// Redistribution and use in source and binary forms, with or without modification,
+// are permitted provided that the following conditions are met:
+// 
+//   * Redistributions of source code must retain the above copyright notice, this
+//     list of conditions and the following disclaimer.
+// 
+//   * Redistributions in binary form must reproduce the above copyright notice,
+//     this list of conditions and the following disclaimer in the documentation
+//     and/or other materials provided with the distribution.
+//     
+//   * Neither the names of Brian William Wolter, Wolter Group New York, nor the
+//     names of its contributors may be used to endorse or promote products derived
+//     from this software without specific prior written permission.
+//     
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+// IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+// INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+// BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+// LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+// OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+// 
+
+package com.brianwolter.etc.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import java.net.URL;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.net.HttpURLConnection;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.HttpsURLConnection;
+
+import java.util.Map;
+import java.util.List;
+import java.util.HashMap;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * A transport backed by the JDK's own HTTP client, which has no dependencies and
+ * pools connections itself. Each request blocks a thread of its executor for as
+ * long as it is outstanding, long polls included, so this transport is best suited
+ * to an executor of virtual threads, where blocking is cheap. By default requests
+ * are run on a cached pool of daemon threads.
+ * <p>
+ * The request timeout is configured by <code>etc.provider.etcd.timeout</code> in
+ * seconds (default 300).
+ */
+public class JdkTransport implements Transport {
+  
+  private static final int CONNECT_TIMEOUT = 1000;
+  
+  private static final Executor executor = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setDaemon(true).setNameFormat("etc-jdk-transport-%d").build());
+  
+  private final SSLSocketFactory  _sockets;
+  private final Executor          _executor;
+  private final int               _timeout;
+  
+  /**
+   * Construct a transport using plain HTTP
+   */
+  public JdkTransport() {
+    this(null);
+  }
+  
+  /**
+   * Construct. If a TLS context is provided HTTPS is used.
+   */
+  public JdkTransport(SSLContext context) {
+    this(context, executor);
+  }
+  
+  /**
+   * Construct with the executor requests are run on. If a TLS context is provided
+   * HTTPS is used.
+   */
+  public JdkTransport(SSLContext context, Executor executor) {
+    if((_executor = executor) == null) throw new IllegalArgumentException("Executor must not be null");
+    _sockets = (context != null) ? context.getSocketFactory() : null;
+    _timeout = Integer.getInteger("etc.provider.etcd.timeout", 60 * 5) * 1000;
+  }
+  
+  /**
+   * Obtain the scheme requests are made with
+   */
+  public String scheme() {
+    return (_sockets != null) ? "https" : "http";
+  }
+  
+  /**
+   * Execute a request
+   */
+  public ListenableFuture<Response> execute(final Request request) {
+    final SettableFuture<Response> future = SettableFuture.create();
+    final AtomicReference<HttpURLConnection> connection = new AtomicReference<HttpURLConnection>();
+    
+    // cancelling the request disconnects it, which unblocks the thread running it
+    future.addListener(new Runnable() {
+      public void run() {
+        HttpURLConnection c;
+        if(future.isCancelled() && (c = connection.get()) != null) c.disconnect();
+      }
+    }, MoreExecutors.sameThreadExecutor());
+    
+    _executor.execute(new Runnable() {
+      public void run() {
+        if(future.isDone()) return;
+        try {
+          future.set(JdkTransport.this.execute(request, connection, future));
+        }catch(Exception e){
+          future.setException(e);
+        }
+      }
+    });
+    
+    return future;
+  }
+  
+  /**
+   * Execute a request synchronously
+   */
+  private Response execute(Request request, AtomicReference<HttpURLConnection> reference, ListenableFuture<?> future) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection)new URL(request.uri().toString()).openConnection();
+    reference.set(connection);
+    if(future.isCancelled()) connection.disconnect(); // cancelled before we could see it
+    
+    if(_sockets != null && connection instanceof HttpsURLConnection){
+      ((HttpsURLConnection)connection).setSSLSocketFactory(_sockets);
+    }
+    
+    int timeout = (int)Math.min(Integer.MAX_VALUE, request.getTimeout(TimeUnit.MILLISECONDS));
+    if(timeout <= 0) timeout = _timeout;
+    connection.setConnectTimeout(Math.min(timeout, CONNECT_TIMEOUT));
+    connection.setReadTimeout(timeout);
+    connection.setRequestMethod(request.method());
+    connection.setUseCaches(false);
+    
+    byte[] body;
+    if((body = request.body()) != null){
+      if(request.contentType() != null) connection.setRequestProperty("Content-Type", request.contentType());
+      connection.setDoOutput(true);
+      connection.setFixedLengthStreamingMode(body.length);
+    }
+    
+    // connect explicitly; a connection which can't be established is not a request
+    // which timed out
+    try {
+      connection.connect();
+    }catch(SocketTimeoutException e){
+      ConnectException connect = new ConnectException("Connect timed out: "+ request.uri());
+      connect.initCause(e);
+      throw connect;
+    }
+    
+    if(body != null){
+      OutputStream output = connection.getOutputStream();
+      try {
+        output.write(body);
+      }finally{
+        output.close();
+      }
+    }
+    
+    int status = connection.getResponseCode();
+    
+    Map<String, String> headers = new HashMap<String, String>();
+    for(Map.Entry<String, List<String>> e : connection.getHeaderFields().entrySet()){
+      if(e.getKey() != null && !e.getValue().isEmpty()) headers.put(e.getKey(), e.getValue().get(0));
+    }
+    
+    // the body must be read in full for the connection to be reused
+    InputStream input = (status >= 400) ? connection.getErrorStream() : connection.getInputStream();
+    byte[] content = null;
+    if(input != null){
+      try {
+        content = ByteStreams.toByteArray(input);
+      }finally{
+        input.close();
+      }
+    }
+    
+    return new Response(status, connection.getResponseMessage(), headers, content);
+  }
+  
+  /**
+   * Nothing to release; connections are pooled by the JDK
+   */
+  public void close() throws IOException {
+    // nothing to do
+  }
+  
+  /**
+   * String description
+   */
+  public String toString() {
+    return "jdk-"+ scheme();
+  }
+  
+}
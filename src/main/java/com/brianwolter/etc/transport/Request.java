@@ -0,0 +1,122 @@
+// 
+// Copyright (c) 2014 Brian William Wolter, All rights reserved.
+// Etcd - an etcd SDK for Java
+// 
+// Redistribution and use in source and binary forms, with or without modification,
+// are permitted provided that the following conditions are met:
+// 
+//   * Redistributions of source code must retain the above copyright notice, this
+//     list of conditions and the following disclaimer.
+// 
+//   * Redistributions in binary form must reproduce the above copyright notice,
+//     this list of conditions and the following disclaimer in the documentation
+//     and/or other materials provided with the distribution.
+//     
+//   * Neither the names of Brian William Wolter, Wolter Group New York, nor the
+//     names of its contributors may be used to endorse or promote products derived
+//     from this software without specific prior written permission.
+//     
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+// IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+// INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+// BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+// LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+// OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+// 
+
+package com.brianwolter.etc.transport;
+
+import java.net.URI;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An HTTP request
+ */
+public class Request {
+  
+  public static final String GET    = "GET";
+  public static final String PUT    = "PUT";
+  public static final String DELETE = "DELETE";
+  
+  private final String  _method;
+  private final URI     _uri;
+  private final String  _contentType;
+  private final byte[]  _body;
+  private long          _timeout;
+  
+  /**
+   * Construct a request without a body
+   */
+  public Request(String method, URI uri) {
+    this(method, uri, null, null);
+  }
+  
+  /**
+   * Construct a request with a body of the specified content type
+   */
+  public Request(String method, URI uri, String contentType, byte[] body) {
+    if((_method = method) == null) throw new IllegalArgumentException("Method must not be null");
+    if((_uri = uri) == null) throw new IllegalArgumentException("URI must not be null");
+    _contentType = contentType;
+    _body = body;
+  }
+  
+  /**
+   * Obtain the request method
+   */
+  public String method() {
+    return _method;
+  }
+  
+  /**
+   * Obtain the request URI
+   */
+  public URI uri() {
+    return _uri;
+  }
+  
+  /**
+   * Obtain the content type of the request body, if there is one
+   */
+  public String contentType() {
+    return _contentType;
+  }
+  
+  /**
+   * Obtain the request body, if there is one
+   */
+  public byte[] body() {
+    return _body;
+  }
+  
+  /**
+   * Obtain the time to wait for a response, or zero if the transport's default
+   * applies
+   */
+  public long getTimeout(TimeUnit unit) {
+    return unit.convert(_timeout, TimeUnit.MILLISECONDS);
+  }
+  
+  /**
+   * Wait no longer than the specified timeout for a response. Zero applies the
+   * transport's default.
+   */
+  public Request setTimeout(long timeout, TimeUnit unit) {
+    if(timeout < 0) throw new IllegalArgumentException("Timeout must not be negative");
+    _timeout = unit.toMillis(timeout);
+    return this;
+  }
+  
+  /**
+   * String description
+   */
+  public String toString() {
+    return _method +" "+ _uri;
+  }
+  
+}
@@ -0,0 +1,108 @@
+// 
+// Copyright (c) 2014 Brian William Wolter, All rights reserved.
+// Etcd - an etcd SDK for Java
+// 
+// Redistribution and use in source and binary forms, with or without modification,
+// are permitted provided that the following conditions are met:
+// 
+//   * Redistributions of source code must retain the above copyright notice, this
+//     list of conditions and the following disclaimer.
+// 
+//   * Redistributions in binary form must reproduce the above copyright notice,
+//     this list of conditions and the following disclaimer in the documentation
+//     and/or other materials provided with the distribution.
+//     
+//   * Neither the names of Brian William Wolter, Wolter Group New York, nor the
+//     names of its contributors may be used to endorse or promote products derived
+//     from this software without specific prior written permission.
+//     
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+// IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+// INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+// BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+// LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+// OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+// 
+
+package com.brianwolter.etc.transport;
+
+import java.io.InputStream;
+import java.io.ByteArrayInputStream;
+
+import java.util.Map;
+import java.util.HashMap;
+
+/**
+ * An HTTP response, which is read in its entirety before it is produced
+ */
+public class Response {
+  
+  private final int                 _status;
+  private final String              _reason;
+  private final Map<String, String> _headers;
+  private final byte[]              _body;
+  
+  /**
+   * Construct. Headers are matched without regard to case; only the first value
+   * of each is retained.
+   */
+  public Response(int status, String reason, Map<String, String> headers, byte[] body) {
+    _status = status;
+    _reason = reason;
+    _headers = new HashMap<String, String>();
+    if(headers != null){
+      for(Map.Entry<String, String> e : headers.entrySet()){
+        String name;
+        if((name = e.getKey()) != null && !_headers.containsKey(name = name.toLowerCase())) _headers.put(name, e.getValue());
+      }
+    }
+    _body = body;
+  }
+  
+  /**
+   * Obtain the status code
+   */
+  public int status() {
+    return _status;
+  }
+  
+  /**
+   * Obtain the reason phrase accompanying the status code, if any
+   */
+  public String reason() {
+    return _reason;
+  }
+  
+  /**
+   * Obtain the value of a header, or null if it wasn't sent
+   */
+  public String header(String name) {
+    return _headers.get(name.toLowerCase());
+  }
+  
+  /**
+   * Obtain the response body, or null if there is none
+   */
+  public byte[] body() {
+    return _body;
+  }
+  
+  /**
+   * Obtain the response body as a stream, or null if there is none
+   */
+  public InputStream content() {
+    return (_body != null) ? new ByteArrayInputStream(_body) : null;
+  }
+  
+  /**
+   * String description; the status line
+   */
+  public String toString() {
+    return (_reason != null && !_reason.isEmpty()) ? _status +" "+ _reason : String.valueOf(_status);
+  }
+  
+}
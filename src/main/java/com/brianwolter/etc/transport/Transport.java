@@ -0,0 +1,71 @@
+// 
+// Copyright (c) 2014 Brian William Wolter, All rights reserved.
+// Etcd - an etcd SDK for Java
+// 
+// Redistribution and use in source and binary forms, with or without modification,
+// are permitted provided that the following conditions are met:
+// 
+//   * Redistributions of source code must retain the above copyright notice, this
+//     list of conditions and the following disclaimer.
+// 
+//   * Redistributions in binary form must reproduce the above copyright notice,
+//     this list of conditions and the following disclaimer in the documentation
+//     and/or other materials provided with the distribution.
+//     
+//   * Neither the names of Brian William Wolter, Wolter Group New York, nor the
+//     names of its contributors may be used to endorse or promote products derived
+//     from this software without specific prior written permission.
+//     
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+// IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+// INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+// BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+// LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+// OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+// 
+
+package com.brianwolter.etc.transport;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Implemented by HTTP transports, which carry requests between a provider and its
+ * server. A transport is free to execute requests however it likes, but must honor
+ * the following:
+ * <ul>
+ * <li>A request which doesn't receive a response within its timeout, or the
+ * transport's own if it has none, fails with a
+ * {@link java.net.SocketTimeoutException}; long polls rely on this.</li>
+ * <li>A connection which can't be established in time fails with a
+ * {@link java.net.ConnectException} rather than a timeout, so that it is not
+ * mistaken for a long poll which expired.</li>
+ * <li>Cancelling the future produced for a request aborts it and releases whatever
+ * it holds, such as its connection.</li>
+ * <li>A response is complete, including its body, when its future is.</li>
+ * </ul>
+ */
+public interface Transport extends Closeable {
+  
+  /**
+   * Obtain the scheme requests are made with, either http or https
+   */
+  public String scheme();
+  
+  /**
+   * Execute a request asynchronously
+   */
+  public ListenableFuture<Response> execute(Request request);
+  
+  /**
+   * Release the resources held by this transport
+   */
+  public void close() throws IOException;
+  
+}
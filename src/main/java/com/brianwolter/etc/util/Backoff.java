@@ -0,0 +1,92 @@
+// 
+// Copyright (c) 2014 Brian William Wolter, All rights reserved.
+// Etcd - an etcd SDK for Java
+// 
+// Redistribution and use in source and binary forms, with or without modification,
+// are permitted provided that the following conditions are met:
+// 
+//   * Redistributions of source code must retain the above copyright notice, this
+//     list of conditions and the following disclaimer.
+// 
+//   * Redistributions in binary form must reproduce the above copyright notice,
+//     this list of conditions and the following disclaimer in the documentation
+//     and/or other materials provided with the distribution.
+//     
+//   * Neither the names of Brian William Wolter, Wolter Group New York, nor the
+//     names of its contributors may be used to endorse or promote products derived
+//     from this software without specific prior written permission.
+//     
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+// IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+// INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+// BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+// LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+// OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+// 
+
+package com.brianwolter.etc.util;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * An exponential backoff policy with full jitter. The delay before an attempt is
+ * chosen uniformly between zero and an exponentially increasing ceiling, which is
+ * itself bounded, so that many clients recovering from the same failure spread
+ * their attempts out rather than retrying in lockstep.
+ */
+public class Backoff {
+  
+  private final long  _base;
+  private final long  _max;
+  
+  /**
+   * Construct with a base delay and a maximum delay
+   */
+  public Backoff(long base, long max, TimeUnit unit) {
+    if(base < 0 || max < base) throw new IllegalArgumentException("Backoff delays are invalid");
+    if(unit == null) throw new IllegalArgumentException("Unit must not be null");
+    _base = unit.toMillis(base);
+    _max = unit.toMillis(max);
+  }
+  
+  /**
+   * Obtain the ceiling on the delay before the specified attempt, in milliseconds.
+   * The first attempt, zero, is not delayed.
+   */
+  public long ceiling(int attempt) {
+    if(attempt <= 0) return 0;
+    // shift carefully; the ceiling saturates long before we would overflow
+    int shift = Math.min(attempt - 1, 30);
+    return Math.min(_max, _base << shift);
+  }
+  
+  /**
+   * Obtain the delay before the specified attempt, in milliseconds
+   */
+  public long delay(int attempt) {
+    return delay(attempt, ThreadLocalRandom.current());
+  }
+  
+  /**
+   * Obtain the delay before the specified attempt, in milliseconds
+   */
+  public long delay(int attempt, Random random) {
+    long ceiling;
+    if((ceiling = ceiling(attempt)) <= 0) return 0;
+    return (long)(random.nextDouble() * (ceiling + 1));
+  }
+  
+  /**
+   * String description
+   */
+  public String toString() {
+    return String.format("<Backoff %dms..%dms>", _base, _max);
+  }
+  
+}
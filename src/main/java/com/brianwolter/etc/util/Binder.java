@@ -0,0 +1,109 @@
+// 
+// Copyright (c) 2014 Brian William Wolter, All rights reserved.
+// Etcd - an etcd SDK for Java
+// 
+// Redistribution and use in source and binary forms, with or without modification,
+// are permitted provided that the following conditions are met:
+// 
+//   * Redistributions of source code must retain the above copyright notice, this
+//     list of conditions and the following disclaimer.
+// 
+//   * Redistributions in binary form must reproduce the above copyright notice,
+//     this list of conditions and the following disclaimer in the documentation
+//     and/or other materials provided with the distribution.
+//     
+//   * Neither the names of Brian William Wolter, Wolter Group New York, nor the
+//     names of its contributors may be used to endorse or promote products derived
+//     from this software without specific prior written permission.
+//     
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+// IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+// INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+// BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+// LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+// OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+// 
+
+package com.brianwolter.etc.util;
+
+import java.util.Map;
+import java.util.HashMap;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+/**
+ * Bind configuration values to objects
+ */
+public class Binder {
+  
+  /**
+   * Create an instance of the specified type and populate its fields from a map of
+   * keys to values. Each field is populated from the key matching its name; fields
+   * of non-scalar types are bound recursively from the keys beneath their name.
+   * Fields with no corresponding key retain the value assigned by the constructor.
+   * <p>
+   * Note that final fields initialized with compile-time constants are inlined by
+   * the compiler, so values bound to them are not visible through the field.
+   */
+  public static <T> T bind(Map<String, ?> values, Class<T> type) {
+    try {
+      
+      Constructor<T> constructor = type.getDeclaredConstructor();
+      constructor.setAccessible(true);
+      T instance = constructor.newInstance();
+      
+      for(Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()){
+        for(Field field : c.getDeclaredFields()){
+          int modifiers = field.getModifiers();
+          if(Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic()) continue;
+          
+          Object value;
+          Map<String, Object> subtree;
+          if((value = values.get(field.getName())) != null){
+            field.setAccessible(true);
+            field.set(instance, Typecast.convert(value, field.getType()));
+          }else if(!isScalar(field.getType()) && (subtree = subtree(values, field.getName())) != null){
+            field.setAccessible(true);
+            field.set(instance, bind(subtree, field.getType()));
+          }
+          
+        }
+      }
+      
+      return instance;
+    }catch(NoSuchMethodException e){
+      throw new IllegalArgumentException(String.format("Cannot bind %s: bound types must declare a no-argument constructor", type.getName()), e);
+    }catch(ReflectiveOperationException e){
+      throw new IllegalArgumentException(String.format("Cannot bind %s", type.getName()), e);
+    }
+  }
+  
+  /**
+   * Obtain the keys beneath the specified prefix, relative to that prefix, if any
+   */
+  private static Map<String, Object> subtree(Map<String, ?> values, String prefix) {
+    Map<String, Object> subtree = null;
+    for(Map.Entry<String, ?> e : values.entrySet()){
+      String key = e.getKey();
+      if(key.length() > prefix.length() + 1 && key.charAt(prefix.length()) == '.' && key.startsWith(prefix)){
+        if(subtree == null) subtree = new HashMap<String, Object>();
+        subtree.put(key.substring(prefix.length() + 1), e.getValue());
+      }
+    }
+    return subtree;
+  }
+  
+  /**
+   * Determine if a type is converted directly rather than bound
+   */
+  private static boolean isScalar(Class<?> type) {
+    return type.isPrimitive() || type.isEnum() || type == String.class || type == Boolean.class || type == Character.class || Number.class.isAssignableFrom(type);
+  }
+  
+}
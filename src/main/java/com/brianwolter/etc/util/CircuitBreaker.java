@@ -0,0 +1,134 @@
+// 
+// Copyright (c) 2014 Brian William Wolter, All rights reserved.
+// Etcd - an etcd SDK for Java
+// 
+// Redistribution and use in source and binary forms, with or without modification,
+// are permitted provided that the following conditions are met:
+// 
+//   * Redistributions of source code must retain the above copyright notice, this
+//     list of conditions and the following disclaimer.
+// 
+//   * Redistributions in binary form must reproduce the above copyright notice,
+//     this list of conditions and the following disclaimer in the documentation
+//     and/or other materials provided with the distribution.
+//     
+//   * Neither the names of Brian William Wolter, Wolter Group New York, nor the
+//     names of its contributors may be used to endorse or promote products derived
+//     from this software without specific prior written permission.
+//     
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+// IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+// INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+// BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+// LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+// OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+// 
+
+package com.brianwolter.etc.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A circuit breaker for a single endpoint. After a number of consecutive failures
+ * the circuit opens and requests are refused until a timeout elapses, after which
+ * a single probe is allowed through. A successful probe closes the circuit again;
+ * a failed one re-opens it.
+ */
+public class CircuitBreaker {
+  
+  /**
+   * Circuit states
+   */
+  public static enum State {
+    CLOSED, OPEN, HALF_OPEN
+  }
+  
+  private final int   _threshold;
+  private final long  _timeout;
+  private State       _state = State.CLOSED;
+  private int         _failures;
+  private long        _opened;
+  private long        _trips;
+  
+  /**
+   * Construct with a failure threshold and the time the circuit remains open
+   */
+  public CircuitBreaker(int threshold, long timeout, TimeUnit unit) {
+    if((_threshold = threshold) < 1) throw new IllegalArgumentException("Threshold must be positive");
+    if(unit == null) throw new IllegalArgumentException("Unit must not be null");
+    _timeout = unit.toMillis(timeout);
+  }
+  
+  /**
+   * Determine if a request may proceed. When the circuit has been open long enough
+   * this admits a single probe, whose outcome should be reported.
+   */
+  public synchronized boolean allow() {
+    switch(_state){
+      case CLOSED:
+        return true;
+      default:
+        // while half-open a probe is outstanding; if it never reports, allow another
+        // once the timeout elapses again
+        long now = System.currentTimeMillis();
+        if(now - _opened < _timeout) return false;
+        _state = State.HALF_OPEN;
+        _opened = now;
+        return true;
+    }
+  }
+  
+  /**
+   * Report a successful request
+   */
+  public synchronized void succeeded() {
+    _failures = 0;
+    _state = State.CLOSED;
+  }
+  
+  /**
+   * Report a failed request
+   */
+  public synchronized void failed() {
+    if(_state == State.HALF_OPEN || ++_failures >= _threshold){
+      if(_state != State.OPEN) _trips++;
+      _state = State.OPEN;
+      _opened = System.currentTimeMillis();
+      _failures = 0;
+    }
+  }
+  
+  /**
+   * Obtain the number of milliseconds until the circuit will admit a probe, or zero
+   * if it would admit a request now
+   */
+  public synchronized long remaining() {
+    return (_state != State.CLOSED) ? Math.max(0, _timeout - (System.currentTimeMillis() - _opened)) : 0;
+  }
+  
+  /**
+   * Obtain the current state
+   */
+  public synchronized State state() {
+    return _state;
+  }
+  
+  /**
+   * Obtain the number of times the circuit has opened
+   */
+  public synchronized long trips() {
+    return _trips;
+  }
+  
+  /**
+   * String description
+   */
+  public String toString() {
+    return String.format("<CircuitBreaker %s>", state());
+  }
+  
+}
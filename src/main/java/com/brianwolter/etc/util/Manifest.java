@@ -0,0 +1,108 @@
+// 
+// Copyright (c) 2014 Brian William Wolter, All rights reserved.
+// Etcd - an etcd SDK for Java
+// 
+// Redistribution and use in source and binary forms, with or without modification,
+// are permitted provided that the following conditions are met:
+// 
+//   * Redistributions of source code must retain the above copyright notice, this
+//     list of conditions and the following disclaimer.
+// 
+//   * Redistributions in binary form must reproduce the above copyright notice,
+//     this list of conditions and the following disclaimer in the documentation
+//     and/or other materials provided with the distribution.
+//     
+//   * Neither the names of Brian William Wolter, Wolter Group New York, nor the
+//     names of its contributors may be used to endorse or promote products derived
+//     from this software without specific prior written permission.
+//     
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+// IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+// INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+// BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+// LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+// OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+// 
+
+package com.brianwolter.etc.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+
+import java.util.Map;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+/**
+ * A manifest of configuration keys and how often they were accessed. Manifests are
+ * plain text, one key per line preceded by its access count, with the most
+ * frequently accessed keys first. Blank lines and lines beginning with '#' are
+ * ignored.
+ */
+public class Manifest {
+  
+  /**
+   * Write a manifest of the specified access counts
+   */
+  public static void write(Map<String, Long> accesses, File file) throws IOException {
+    List<Map.Entry<String, Long>> entries = new ArrayList<Map.Entry<String, Long>>(accesses.entrySet());
+    Collections.sort(entries, new Comparator<Map.Entry<String, Long>>() {
+      public int compare(Map.Entry<String, Long> a, Map.Entry<String, Long> b) {
+        int c;
+        if((c = b.getValue().compareTo(a.getValue())) != 0) return c;
+        return a.getKey().compareTo(b.getKey());
+      }
+    });
+    
+    // write to a temporary file and move it into place, so a reader never sees
+    // a partial manifest
+    File temp = new File(file.getPath() +".tmp");
+    BufferedWriter writer = Files.newWriter(temp, Charsets.UTF_8);
+    try {
+      writer.write("# configuration access manifest");
+      writer.newLine();
+      for(Map.Entry<String, Long> e : entries){
+        writer.write(String.valueOf(e.getValue()));
+        writer.write(' ');
+        writer.write(e.getKey());
+        writer.newLine();
+      }
+    }finally{
+      writer.close();
+    }
+    
+    Files.move(temp, file);
+  }
+  
+  /**
+   * Read the keys in a manifest, most frequently accessed first
+   */
+  public static List<String> read(File file) throws IOException {
+    List<String> keys = new ArrayList<String>();
+    BufferedReader reader = Files.newReader(file, Charsets.UTF_8);
+    try {
+      String line;
+      while((line = reader.readLine()) != null){
+        if((line = line.trim()).isEmpty() || line.charAt(0) == '#') continue;
+        int i;
+        if((i = line.indexOf(' ')) < 0) throw new IOException("Invalid manifest entry: "+ line);
+        keys.add(line.substring(i + 1).trim());
+      }
+    }finally{
+      reader.close();
+    }
+    return keys;
+  }
+  
+}
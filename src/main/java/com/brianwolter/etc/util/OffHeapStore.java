@@ -0,0 +1,530 @@
+// 
+// Copyright (c) 2014 Brian William Wolter, All rights reserved.
+// Etcd - an etcd SDK for Java
+// 
+// Redistribution and use in source and binary forms, with or without modification,
+// are permitted provided that the following conditions are met:
+// 
+//   * Redistributions of source code must retain the above copyright notice, this
+//     list of conditions and the following disclaimer.
+// 
+//   * Redistributions in binary form must reproduce the above copyright notice,
+//     this list of conditions and the following disclaimer in the documentation
+//     and/or other materials provided with the distribution.
+//     
+//   * Neither the names of Brian William Wolter, Wolter Group New York, nor the
+//     names of its contributors may be used to endorse or promote products derived
+//     from this software without specific prior written permission.
+//     
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+// IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+// INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+// BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+// LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+// OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+// 
+
+package com.brianwolter.etc.util;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A multiversion hash table which keeps its keys and values off the heap, for
+ * caching very large numbers of configuration values without the per-value object
+ * overhead of an ordinary map.
+ * <p>
+ * Keys and values are written as UTF-8 to an append-only sequence of direct
+ * buffers and indexed by an open addressing table of primitive offsets. Each key is
+ * stored once; each change to it appends a version, stamped with a revision and
+ * linked to the version it replaces, so the table can be read as of any revision
+ * it has seen. Values which are not strings are kept on the heap and referenced by
+ * their version. Objects are only materialized when a value is read.
+ * <p>
+ * A store has a single writer but may be read concurrently, without locking, by any
+ * number of readers. Versions are never modified once written, so space taken by
+ * replaced versions is only reclaimed by compacting the store into a new one.
+ */
+public class OffHeapStore {
+  
+  private static final Charset  UTF_8           = Charset.forName("UTF-8");
+  
+  private static final int      KEY_HEADER      = 8;  // hash, length
+  private static final int      VERSION_HEADER  = 37; // revision, previous, index, expiration, type, length
+  
+  private static final byte     TOMBSTONE       = 0;
+  private static final byte     TEXT            = 1;
+  private static final byte     OBJECT          = 2;
+  
+  private static final long     NONE            = -1;
+  private static final double   LOAD            = 0.75;
+  
+  private final int               _chunk;
+  private volatile ByteBuffer[]   _chunks;
+  private volatile AtomicLongArray _slots;    // pairs of key and head version offsets, plus one
+  private volatile Object[]       _objects;
+  private volatile long           _revision;
+  private int                     _position;
+  private int                     _count;
+  private int                     _keys;
+  private int                     _live;
+  private long                    _used;
+  private long                    _garbage;
+  
+  /**
+   * Construct with the default capacity and a chunk size of one megabyte
+   */
+  public OffHeapStore() {
+    this(1024, 1 << 20);
+  }
+  
+  /**
+   * Construct with an initial number of keys and the size of each direct buffer
+   * allocated to hold them
+   */
+  public OffHeapStore(int capacity, int chunk) {
+    if(chunk < VERSION_HEADER) throw new IllegalArgumentException("Chunk size is too small");
+    _chunk = chunk;
+    _chunks = new ByteBuffer[0];
+    _slots = new AtomicLongArray(2 * tableSize(capacity));
+    _objects = new Object[16];
+  }
+  
+  /**
+   * Obtain the latest revision written to this store
+   */
+  public long revision() {
+    return _revision;
+  }
+  
+  /**
+   * Obtain the number of keys which currently have a value
+   */
+  public synchronized int size() {
+    return _live;
+  }
+  
+  /**
+   * Obtain the number of off-heap bytes written to this store
+   */
+  public synchronized long used() {
+    return _used;
+  }
+  
+  /**
+   * Obtain the number of off-heap bytes written to this store which are only
+   * reachable by reading it as of an earlier revision
+   */
+  public synchronized long garbage() {
+    return _garbage;
+  }
+  
+  /**
+   * Obtain the number of off-heap bytes allocated by this store
+   */
+  public long allocated() {
+    long allocated = 0;
+    for(ByteBuffer chunk : _chunks) allocated += chunk.capacity();
+    return allocated;
+  }
+  
+  /**
+   * Obtain the value of a key as of the specified revision, or null if it had none
+   */
+  public Record get(String key, long revision) {
+    byte[] bytes = key.getBytes(UTF_8);
+    int hash = hash(key);
+    
+    AtomicLongArray slots = _slots;
+    int mask = (slots.length() >> 1) - 1;
+    
+    long k;
+    for(int i = hash & mask; (k = slots.get(i << 1)) != 0; i = (i + 1) & mask){
+      // the key is published after its head, so the head is always there
+      long head = slots.get((i << 1) + 1) - 1;
+      ByteBuffer[] chunks = _chunks;
+      if(matches(chunks, k - 1, hash, bytes)) return version(chunks, head, revision);
+    }
+    
+    return null;
+  }
+  
+  /**
+   * Obtain every key beginning with the specified prefix which had a value as of the
+   * specified revision. If the prefix is null every such key is produced.
+   */
+  public List<String> keys(long revision, String prefix) {
+    byte[] bytes = (prefix != null) ? prefix.getBytes(UTF_8) : new byte[0];
+    List<String> keys = new ArrayList<String>();
+    
+    AtomicLongArray slots = _slots;
+    for(int i = 0; i < slots.length(); i += 2){
+      long k, head;
+      if((k = slots.get(i)) == 0) continue;
+      head = slots.get(i + 1) - 1;
+      ByteBuffer[] chunks = _chunks;
+      if(startsWith(chunks, k - 1, bytes) && version(chunks, head, revision) != null) keys.add(key(chunks, k - 1));
+    }
+    
+    return keys;
+  }
+  
+  /**
+   * Write the value of a key at the specified revision, which must not precede the
+   * latest revision written. A null value removes the key.
+   */
+  public synchronized void put(String key, long revision, Object value, long index, long expiration) {
+    if(revision < _revision) throw new IllegalArgumentException("Revision "+ revision +" precedes the latest revision: "+ _revision);
+    if(value == null){
+      write(key, revision, TOMBSTONE, null, null, index, expiration);
+    }else if(value instanceof String){
+      write(key, revision, TEXT, ((String)value).getBytes(UTF_8), null, index, expiration);
+    }else{
+      write(key, revision, OBJECT, null, value, index, expiration);
+    }
+    _revision = revision;
+  }
+  
+  /**
+   * Advance the latest revision of this store without writing anything
+   */
+  public synchronized void advance(long revision) {
+    if(revision < _revision) throw new IllegalArgumentException("Revision "+ revision +" precedes the latest revision: "+ _revision);
+    _revision = revision;
+  }
+  
+  /**
+   * Produce a new store containing only the values of this one as of the specified
+   * revision. This store is not modified and remains readable.
+   */
+  public synchronized OffHeapStore compact(long revision) {
+    OffHeapStore store = new OffHeapStore(Math.max(16, _live), _chunk);
+    
+    AtomicLongArray slots = _slots;
+    ByteBuffer[] chunks = _chunks;
+    for(int i = 0; i < slots.length(); i += 2){
+      long k;
+      Record record;
+      if((k = slots.get(i)) == 0) continue;
+      if((record = version(chunks, slots.get(i + 1) - 1, revision)) == null) continue;
+      if(record._bytes != null){
+        byte[] text = new byte[record._bytes.remaining()];
+        record._bytes.duplicate().get(text);
+        store.write(key(chunks, k - 1), record._revision, TEXT, text, null, record._index, record._expiration);
+      }else{
+        store.write(key(chunks, k - 1), record._revision, OBJECT, null, record._object, record._index, record._expiration);
+      }
+    }
+    
+    store._revision = revision;
+    return store;
+  }
+  
+  /**
+   * Append a version of a key, adding the key first if it is new
+   */
+  private void write(String key, long revision, byte type, byte[] text, Object object, long index, long expiration) {
+    byte[] bytes = key.getBytes(UTF_8);
+    int hash = hash(key);
+    
+    AtomicLongArray slots = _slots;
+    int mask = (slots.length() >> 1) - 1;
+    
+    int i;
+    long k;
+    for(i = hash & mask; (k = slots.get(i << 1)) != 0; i = (i + 1) & mask){
+      if(matches(_chunks, k - 1, hash, bytes)) break;
+    }
+    
+    long head = (k != 0) ? slots.get((i << 1) + 1) - 1 : NONE;
+    boolean live = head != NONE && type(head) != TOMBSTONE;
+    if(type == TOMBSTONE && !live) return; // nothing to remove
+    
+    int length = (text != null) ? text.length : (object != null) ? 4 : 0;
+    long offset = allocate(VERSION_HEADER + ((text != null) ? text.length : 0));
+    ByteBuffer chunk = _chunks[(int)(offset >>> 32)];
+    int position = (int)offset;
+    chunk.putLong(position, revision);
+    chunk.putLong(position + 8, head);
+    chunk.putLong(position + 16, index);
+    chunk.putLong(position + 24, expiration);
+    chunk.put(position + 32, type);
+    if(text != null){
+      chunk.putInt(position + 33, text.length);
+      ByteBuffer view = chunk.duplicate();
+      view.position(position + VERSION_HEADER);
+      view.put(text);
+    }else if(object != null){
+      chunk.putInt(position + 33, store(object));
+    }else{
+      chunk.putInt(position + 33, 0);
+    }
+    
+    if(head != NONE) _garbage += size(head);
+    if(type == TOMBSTONE) _garbage += VERSION_HEADER;
+    
+    if(k == 0){
+      long keyOffset = allocate(KEY_HEADER + bytes.length);
+      chunk = _chunks[(int)(keyOffset >>> 32)];
+      position = (int)keyOffset;
+      chunk.putInt(position, hash);
+      chunk.putInt(position + 4, bytes.length);
+      ByteBuffer view = chunk.duplicate();
+      view.position(position + KEY_HEADER);
+      view.put(bytes);
+      // readers find the key before its head, so the head goes first
+      slots.set((i << 1) + 1, offset + 1);
+      slots.set(i << 1, keyOffset + 1);
+      if(++_keys > (slots.length() >> 1) * LOAD) resize();
+    }else{
+      slots.set((i << 1) + 1, offset + 1);
+    }
+    
+    if(type == TOMBSTONE){
+      _live--;
+    }else if(!live){
+      _live++;
+    }
+    
+  }
+  
+  /**
+   * Allocate space for a record, adding a chunk if the current one is full
+   */
+  private long allocate(int size) {
+    ByteBuffer[] chunks = _chunks;
+    if(chunks.length == 0 || _position + size > chunks[chunks.length - 1].capacity()){
+      chunks = Arrays.copyOf(chunks, chunks.length + 1);
+      chunks[chunks.length - 1] = ByteBuffer.allocateDirect(Math.max(_chunk, size));
+      // published before anything refers to it
+      _chunks = chunks;
+      _position = 0;
+    }
+    long offset = ((long)(chunks.length - 1) << 32) | _position;
+    _position += size;
+    _used += size;
+    return offset;
+  }
+  
+  /**
+   * Keep an object on the heap, producing its identifier
+   */
+  private int store(Object object) {
+    Object[] objects = _objects;
+    if(_count == objects.length){
+      objects = Arrays.copyOf(objects, objects.length * 2);
+    }
+    objects[_count] = object;
+    _objects = objects;
+    return _count++;
+  }
+  
+  /**
+   * Double the capacity of our table. Readers of the previous table continue to see
+   * every version written before it was replaced.
+   */
+  private void resize() {
+    AtomicLongArray slots = _slots;
+    AtomicLongArray resized = new AtomicLongArray(slots.length() * 2);
+    int mask = (resized.length() >> 1) - 1;
+    ByteBuffer[] chunks = _chunks;
+    
+    for(int i = 0; i < slots.length(); i += 2){
+      long k;
+      if((k = slots.get(i)) == 0) continue;
+      int j = chunks[(int)((k - 1) >>> 32)].getInt((int)(k - 1)) & mask;
+      while(resized.get(j << 1) != 0) j = (j + 1) & mask;
+      resized.set((j << 1) + 1, slots.get(i + 1));
+      resized.set(j << 1, k);
+    }
+    
+    _slots = resized;
+  }
+  
+  /**
+   * Find the version of a key as of the specified revision
+   */
+  private Record version(ByteBuffer[] chunks, long offset, long revision) {
+    while(offset != NONE){
+      ByteBuffer chunk = chunks[(int)(offset >>> 32)];
+      int position = (int)offset;
+      if(chunk.getLong(position) <= revision){
+        switch(chunk.get(position + 32)){
+          case TEXT:
+            ByteBuffer view = chunk.duplicate();
+            view.position(position + VERSION_HEADER);
+            view.limit(position + VERSION_HEADER + chunk.getInt(position + 33));
+            return new Record(chunk.getLong(position), chunk.getLong(position + 16), chunk.getLong(position + 24), view.slice().asReadOnlyBuffer(), null);
+          case OBJECT:
+            return new Record(chunk.getLong(position), chunk.getLong(position + 16), chunk.getLong(position + 24), null, _objects[chunk.getInt(position + 33)]);
+          default:
+            return null;
+        }
+      }
+      offset = chunk.getLong(position + 8);
+    }
+    return null;
+  }
+  
+  /**
+   * Obtain the type of the version at the specified offset
+   */
+  private byte type(long offset) {
+    return _chunks[(int)(offset >>> 32)].get((int)offset + 32);
+  }
+  
+  /**
+   * Obtain the size of the version at the specified offset
+   */
+  private int size(long offset) {
+    ByteBuffer chunk = _chunks[(int)(offset >>> 32)];
+    return VERSION_HEADER + ((chunk.get((int)offset + 32) == TEXT) ? chunk.getInt((int)offset + 33) : 0);
+  }
+  
+  /**
+   * Determine if the key at the specified offset is the one provided
+   */
+  private static boolean matches(ByteBuffer[] chunks, long offset, int hash, byte[] bytes) {
+    ByteBuffer chunk = chunks[(int)(offset >>> 32)];
+    int position = (int)offset;
+    if(chunk.getInt(position) != hash || chunk.getInt(position + 4) != bytes.length) return false;
+    for(int i = 0; i < bytes.length; i++){
+      if(chunk.get(position + KEY_HEADER + i) != bytes[i]) return false;
+    }
+    return true;
+  }
+  
+  /**
+   * Determine if the key at the specified offset begins with the bytes provided
+   */
+  private static boolean startsWith(ByteBuffer[] chunks, long offset, byte[] bytes) {
+    ByteBuffer chunk = chunks[(int)(offset >>> 32)];
+    int position = (int)offset;
+    if(chunk.getInt(position + 4) < bytes.length) return false;
+    for(int i = 0; i < bytes.length; i++){
+      if(chunk.get(position + KEY_HEADER + i) != bytes[i]) return false;
+    }
+    return true;
+  }
+  
+  /**
+   * Decode the key at the specified offset
+   */
+  private static String key(ByteBuffer[] chunks, long offset) {
+    ByteBuffer chunk = chunks[(int)(offset >>> 32)];
+    int position = (int)offset;
+    byte[] bytes = new byte[chunk.getInt(position + 4)];
+    ByteBuffer view = chunk.duplicate();
+    view.position(position + KEY_HEADER);
+    view.get(bytes);
+    return new String(bytes, UTF_8);
+  }
+  
+  /**
+   * Hash a key, spreading its bits so nearby keys don't cluster
+   */
+  private static int hash(String key) {
+    int h = key.hashCode() * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+  
+  /**
+   * Obtain the smallest power of two table size which holds the specified number of
+   * keys at our load factor
+   */
+  private static int tableSize(int capacity) {
+    int size = 16;
+    while(size * LOAD < capacity) size <<= 1;
+    return size;
+  }
+  
+  /**
+   * String description
+   */
+  public String toString() {
+    return String.format("<OffHeapStore r%d: %d keys, %d bytes>", _revision, size(), used());
+  }
+  
+  /**
+   * A version of a value read from a store. Text values are decoded when they are
+   * first read and their bytes are read directly from the store.
+   */
+  public static class Record implements BinaryProperty, Expirable {
+    
+    private final long        _revision;
+    private final long        _index;
+    private final long        _expiration;
+    private final ByteBuffer  _bytes;
+    private final Object      _object;
+    private String            _text;
+    
+    /**
+     * Construct
+     */
+    private Record(long revision, long index, long expiration, ByteBuffer bytes, Object object) {
+      _revision = revision;
+      _index = index;
+      _expiration = expiration;
+      _bytes = bytes;
+      _object = object;
+    }
+    
+    /**
+     * Obtain the value
+     */
+    public Object value() {
+      if(_bytes == null) return _object;
+      String text;
+      if((text = _text) == null) _text = text = UTF_8.decode(_bytes.duplicate()).toString();
+      return text;
+    }
+    
+    /**
+     * Obtain a read-only view of the UTF-8 encoded value
+     */
+    public ByteBuffer bytes() {
+      if(_bytes != null) return _bytes.duplicate();
+      return (_object != null) ? ByteBuffer.wrap(String.valueOf(_object).getBytes(UTF_8)).asReadOnlyBuffer() : null;
+    }
+    
+    /**
+     * Obtain the revision at which this version was written
+     */
+    public long revision() {
+      return _revision;
+    }
+    
+    /**
+     * Obtain the provider index of this version, if it had one, otherwise zero
+     */
+    public long index() {
+      return _index;
+    }
+    
+    /**
+     * Obtain the time at which this version expires, or zero if it does not
+     */
+    public long expiration() {
+      return _expiration;
+    }
+    
+    /**
+     * String description
+     */
+    public String toString() {
+      return String.valueOf(value());
+    }
+    
+  }
+  
+}
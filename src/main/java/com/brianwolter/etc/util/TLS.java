@@ -0,0 +1,116 @@
+// 
+// Copyright (c) 2014 Brian William Wolter, All rights reserved.
+// Etcd - an etcd SDK for Java
+// 
+// Redistribution and use in source and binary forms, with or without modification,
+// are permitted provided that the following conditions are met:
+// 
+//   * Redistributions of source code must retain the above copyright notice, this
+//     list of conditions and the following disclaimer.
+// 
+//   * Redistributions in binary form must reproduce the above copyright notice,
+//     this list of conditions and the following disclaimer in the documentation
+//     and/or other materials provided with the distribution.
+//     
+//   * Neither the names of Brian William Wolter, Wolter Group New York, nor the
+//     names of its contributors may be used to endorse or promote products derived
+//     from this software without specific prior written permission.
+//     
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+// IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+// INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+// BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+// LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+// OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+// 
+
+package com.brianwolter.etc.util;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import java.security.KeyStore;
+import java.security.GeneralSecurityException;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.TrustManagerFactory;
+
+/**
+ * TLS utilities.
+ */
+public class TLS {
+  
+  /**
+   * Create a TLS context from key and trust stores. The key store provides the
+   * certificate we present, for mutual TLS, and may be null; the trust store
+   * provides the certificates we trust, and if null the platform defaults are used.
+   * 
+   * @param keystore the key store file, or null
+   * @param keypass the key store password, also used for its keys
+   * @param truststore the trust store file, or null
+   * @param trustpass the trust store password
+   * @return a TLS context
+   */
+  public static SSLContext context(File keystore, String keypass, File truststore, String trustpass) throws IOException {
+    try {
+      
+      KeyManager[] keys = null;
+      if(keystore != null){
+        KeyManagerFactory factory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        factory.init(load(keystore, keypass), (keypass != null) ? keypass.toCharArray() : null);
+        keys = factory.getKeyManagers();
+      }
+      
+      TrustManager[] trust = null;
+      if(truststore != null){
+        TrustManagerFactory factory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        factory.init(load(truststore, trustpass));
+        trust = factory.getTrustManagers();
+      }
+      
+      SSLContext context = SSLContext.getInstance("TLS");
+      context.init(keys, trust, null);
+      return context;
+      
+    }catch(GeneralSecurityException e){
+      throw new IOException("Could not create TLS context", e);
+    }
+  }
+  
+  /**
+   * Create a TLS context from key and trust stores named by system properties with
+   * the specified prefix: <code>.keystore</code>, <code>.keystore.password</code>,
+   * <code>.truststore</code> and <code>.truststore.password</code>.
+   */
+  public static SSLContext context(String prefix) throws IOException {
+    String keystore = System.getProperty(prefix +".keystore");
+    String truststore = System.getProperty(prefix +".truststore");
+    return context((keystore != null) ? new File(keystore) : null, System.getProperty(prefix +".keystore.password"), (truststore != null) ? new File(truststore) : null, System.getProperty(prefix +".truststore.password"));
+  }
+  
+  /**
+   * Load a key store. The type is inferred from the file name; PKCS #12 stores end
+   * in <code>.p12</code> or <code>.pfx</code>, anything else is assumed to be JKS.
+   */
+  private static KeyStore load(File file, String password) throws IOException, GeneralSecurityException {
+    String name = file.getName().toLowerCase();
+    KeyStore store = KeyStore.getInstance((name.endsWith(".p12") || name.endsWith(".pfx")) ? "PKCS12" : "JKS");
+    InputStream input = new FileInputStream(file);
+    try {
+      store.load(input, (password != null) ? password.toCharArray() : null);
+    }finally{
+      input.close();
+    }
+    return store;
+  }
+  
+}
@@ -0,0 +1,170 @@
+// 
+// Copyright (c) 2014 Brian William Wolter, All rights reserved.
+// Etcd - an etcd SDK for Java
+// 
+// Redistribution and use in source and binary forms, with or without modification,
+// are permitted provided that the following conditions are met:
+// 
+//   * Redistributions of source code must retain the above copyright notice, this
+//     list of conditions and the following disclaimer.
+// 
+//   * Redistributions in binary form must reproduce the above copyright notice,
+//     this list of conditions and the following disclaimer in the documentation
+//     and/or other materials provided with the distribution.
+//     
+//   * Neither the names of Brian William Wolter, Wolter Group New York, nor the
+//     names of its contributors may be used to endorse or promote products derived
+//     from this software without specific prior written permission.
+//     
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+// IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+// INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+// BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+// LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+// OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+// 
+
+package com.brianwolter.etc.util;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * A parsed template which interpolates configuration values. References take the
+ * form <code>${key}</code>, or <code>${key:default}</code> to provide a value for
+ * a key which has none; <code>$${</code> produces a literal <code>${</code>. A
+ * template is parsed once and rendered any number of times.
+ */
+public class Template {
+  
+  private final String    _text;
+  private final String[]  _literals;
+  private final String[]  _keys;
+  private final String[]  _defaults;
+  
+  /**
+   * Construct
+   */
+  private Template(String text, String[] literals, String[] keys, String[] defaults) {
+    _text = text;
+    _literals = literals;
+    _keys = keys;
+    _defaults = defaults;
+  }
+  
+  /**
+   * Determine if the specified text contains references, without parsing it
+   */
+  public static boolean isTemplate(String text) {
+    return text != null && text.indexOf("${") >= 0;
+  }
+  
+  /**
+   * Parse a template
+   * 
+   * @throws IllegalArgumentException if a reference is malformed
+   */
+  public static Template parse(String text) {
+    if(text == null) throw new IllegalArgumentException("Template must not be null");
+    
+    List<String> literals = new ArrayList<String>();
+    List<String> keys = new ArrayList<String>();
+    List<String> defaults = new ArrayList<String>();
+    StringBuilder literal = new StringBuilder();
+    
+    int i = 0, length = text.length();
+    while(i < length){
+      int start;
+      if((start = text.indexOf("${", i)) < 0){
+        literal.append(text, i, length);
+        break;
+      }
+      
+      // an escaped reference is literal
+      if(start > 0 && text.charAt(start - 1) == '$'){
+        literal.append(text, i, start - 1).append("${");
+        i = start + 2;
+        continue;
+      }
+      
+      int end;
+      if((end = text.indexOf('}', start + 2)) < 0) throw new IllegalArgumentException("Unterminated reference in template: "+ text);
+      
+      String reference = text.substring(start + 2, end);
+      int separator = reference.indexOf(':');
+      String key = ((separator < 0) ? reference : reference.substring(0, separator)).trim();
+      if(key.isEmpty()) throw new IllegalArgumentException("Empty reference in template: "+ text);
+      
+      literal.append(text, i, start);
+      literals.add(literal.toString());
+      literal.setLength(0);
+      keys.add(key);
+      defaults.add((separator < 0) ? null : reference.substring(separator + 1));
+      i = end + 1;
+    }
+    literals.add(literal.toString());
+    
+    return new Template(text, literals.toArray(new String[literals.size()]), keys.toArray(new String[keys.size()]), defaults.toArray(new String[defaults.size()]));
+  }
+  
+  /**
+   * Determine if this template is entirely literal
+   */
+  public boolean isLiteral() {
+    return _keys.length == 0;
+  }
+  
+  /**
+   * Obtain the keys this template refers to, in order of appearance
+   */
+  public List<String> references() {
+    return Collections.unmodifiableList(Arrays.asList(_keys));
+  }
+  
+  /**
+   * Render this template, resolving references with the specified resolver
+   * 
+   * @throws IllegalArgumentException if a reference has no value and no default
+   */
+  public String render(Resolver resolver) {
+    if(_keys.length == 0) return _literals[0];
+    
+    StringBuilder sb = new StringBuilder(_text.length());
+    sb.append(_literals[0]);
+    for(int i = 0; i < _keys.length; i++){
+      String value;
+      if((value = resolver.resolve(_keys[i])) == null && (value = _defaults[i]) == null){
+        throw new IllegalArgumentException("Unresolved reference: ${"+ _keys[i] +"}");
+      }
+      sb.append(value).append(_literals[i + 1]);
+    }
+    
+    return sb.toString();
+  }
+  
+  /**
+   * String description
+   */
+  public String toString() {
+    return _text;
+  }
+  
+  /**
+   * Resolves the references in a template
+   */
+  public static interface Resolver {
+    
+    /**
+     * Obtain the value of a key, or null if it has none
+     */
+    public String resolve(String key);
+    
+  }
+  
+}
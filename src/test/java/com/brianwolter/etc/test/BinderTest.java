@@ -0,0 +1,84 @@
+// 
+// Copyright (c) 2014 Brian William Wolter, All rights reserved.
+// Etcd - an etcd SDK for Java
+// 
+// Redistribution and use in source and binary forms, with or without modification,
+// are permitted provided that the following conditions are met:
+// 
+//   * Redistributions of source code must retain the above copyright notice, this
+//     list of conditions and the following disclaimer.
+// 
+//   * Redistributions in binary form must reproduce the above copyright notice,
+//     this list of conditions and the following disclaimer in the documentation
+//     and/or other materials provided with the distribution.
+//     
+//   * Neither the names of Brian William Wolter, Wolter Group New York, nor the
+//     names of its contributors may be used to endorse or promote products derived
+//     from this software without specific prior written permission.
+//     
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+// IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+// INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+// BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+// LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+// OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+// 
+
+package com.brianwolter.etc.test;
+
+import static org.testng.Assert.*;
+
+import org.testng.annotations.Test;
+
+import java.util.Map;
+import java.util.HashMap;
+
+import com.brianwolter.etc.util.Binder;
+
+/**
+ * Binder tests
+ */
+public class BinderTest {
+  
+  @Test
+  public void testBind() throws Exception {
+    Map<String, Object> values = new HashMap<String, Object>();
+    values.put("min", "4");
+    values.put("max", 16.0);
+    values.put("name", "primary");
+    values.put("timeouts.read", "250");
+    
+    Pool pool = Binder.bind(values, Pool.class);
+    assertEquals(pool.min, 4);
+    assertEquals(pool.max, 16L);
+    assertEquals(pool.name, "primary");
+    assertTrue(pool.enabled);
+    assertEquals(pool.timeouts.read, 250);
+    assertEquals(pool.timeouts.write, 1000);
+  }
+  
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void testBindInvalid() throws Exception {
+    Map<String, Object> values = new HashMap<String, Object>();
+    values.put("min", "four");
+    Binder.bind(values, Pool.class);
+  }
+  
+  private static class Pool {
+    private int             min;
+    private long            max;
+    private final String    name      = null;
+    private boolean         enabled   = true;
+    private final Timeouts  timeouts  = null;
+  }
+  
+  private static class Timeouts {
+    private int read  = 1000;
+    private int write = 1000;
+  }
+  
+}
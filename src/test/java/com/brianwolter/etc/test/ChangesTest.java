@@ -0,0 +1,169 @@
+// 
+// Copyright (c) 2014 Brian William Wolter, All rights reserved.
+// Etcd - an etcd SDK for Java
+// 
+// Redistribution and use in source and binary forms, with or without modification,
+// are permitted provided that the following conditions are met:
+// 
+//   * Redistributions of source code must retain the above copyright notice, this
+//     list of conditions and the following disclaimer.
+// 
+//   * Redistributions in binary form must reproduce the above copyright notice,
+//     this list of conditions and the following disclaimer in the documentation
+//     and/or other materials provided with the distribution.
+//     
+//   * Neither the names of Brian William Wolter, Wolter Group New York, nor the
+//     names of its contributors may be used to endorse or promote products derived
+//     from this software without specific prior written permission.
+//     
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+// IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+// INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+// BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+// LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+// OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+// 
+
+package com.brianwolter.etc.test;
+
+import static org.testng.Assert.*;
+
+import org.testng.annotations.Test;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.AfterClass;
+
+import java.util.List;
+import java.util.ArrayList;
+
+import java.util.concurrent.TimeUnit;
+
+import com.brianwolter.etc.Config;
+import com.brianwolter.etc.ConfigException;
+import com.brianwolter.etc.provider.EtcdProvider;
+import com.brianwolter.etc.provider.SystemProvider;
+import com.brianwolter.etc.tool.EtcdStub;
+import com.brianwolter.etc.util.Change;
+
+/**
+ * Change stream tests
+ */
+public class ChangesTest {
+  
+  private EtcdStub  stub;
+  private Config    config;
+  
+  @BeforeClass
+  public void setUp() throws Exception {
+    stub = new EtcdStub().start();
+    config = new Config(new EtcdProvider(stub.host(), stub.port()));
+  }
+  
+  @AfterClass
+  public void tearDown() throws Exception {
+    stub.close();
+  }
+  
+  @Test
+  public void testReplay() throws Exception {
+    long first = stub.set("changes.replay.a", "1");
+    stub.set("other.replay", "ignored");
+    stub.set("changes.replay.b", "2");
+    stub.set("changes.replay.a", "3");
+    long last = stub.delete("changes.replay.b");
+    
+    // replays history from the index requested, in order
+    Config.Changes changes = config.changes("changes.replay", first);
+    List<Change> batch = drain(changes, 4);
+    changes.close();
+    
+    assertEquals(batch.size(), 4);
+    assertEquals(batch.get(0).key(), "changes.replay.a");
+    assertEquals(batch.get(0).value(), "1");
+    assertEquals(batch.get(1).key(), "changes.replay.b");
+    assertEquals(batch.get(2).value(), "3");
+    assertEquals(batch.get(3).action(), Change.Action.DELETE);
+    for(int i = 1; i < batch.size(); i++) assertTrue(batch.get(i).index() > batch.get(i - 1).index());
+    assertEquals(changes.index(), last);
+    
+    // nothing else arrives once closed
+    assertTrue(changes.poll(10, 50, TimeUnit.MILLISECONDS).isEmpty());
+  }
+  
+  @Test
+  public void testLive() throws Exception {
+    Config.Changes changes = config.changes("changes.live", 0);
+    try {
+      assertTrue(changes.poll(10, 50, TimeUnit.MILLISECONDS).isEmpty());
+      stub.set("changes.live.a", "1");
+      stub.set("changes.live.b", "2");
+      List<Change> batch = drain(changes, 2);
+      assertEquals(batch.get(0).key(), "changes.live.a");
+      assertEquals(batch.get(1).key(), "changes.live.b");
+    }finally{
+      changes.close();
+    }
+  }
+  
+  @Test
+  public void testBounded() throws Exception {
+    long first = 0;
+    for(int i = 0; i < 10; i++){
+      long index = stub.set("changes.bounded."+ i, String.valueOf(i));
+      if(i == 0) first = index;
+    }
+    
+    Config.Changes changes = config.changes("changes.bounded", first, 3);
+    try {
+      
+      // the buffer fills and the stream pauses
+      long deadline = System.currentTimeMillis() + 5000;
+      while(changes.available() < 3 && System.currentTimeMillis() < deadline) Thread.sleep(10);
+      Thread.sleep(100);
+      assertEquals(changes.available(), 3);
+      
+      // consuming resumes it without losing anything
+      List<Change> received = new ArrayList<Change>();
+      while(received.size() < 10){
+        List<Change> batch = changes.poll(2, 5, TimeUnit.SECONDS);
+        assertFalse(batch.isEmpty());
+        assertTrue(batch.size() <= 2);
+        received.addAll(batch);
+      }
+      for(int i = 0; i < 10; i++) assertEquals(received.get(i).value(), String.valueOf(i));
+      
+      // resuming from the stream's index picks up where it left off
+      stub.set("changes.bounded.10", "10");
+      Config.Changes resumed = config.changes("changes.bounded", changes.index() + 1);
+      try {
+        assertEquals(drain(resumed, 1).get(0).value(), "10");
+      }finally{
+        resumed.close();
+      }
+      
+    }finally{
+      changes.close();
+    }
+  }
+  
+  @Test(expectedExceptions = ConfigException.class)
+  public void testUnsupported() throws Exception {
+    new Config(new SystemProvider()).changes("changes.unsupported", 0);
+  }
+  
+  /**
+   * Consume the specified number of changes
+   */
+  private List<Change> drain(Config.Changes changes, int count) throws Exception {
+    List<Change> changed = new ArrayList<Change>();
+    long deadline = System.currentTimeMillis() + 10000;
+    while(changed.size() < count && System.currentTimeMillis() < deadline){
+      changed.addAll(changes.poll(count - changed.size(), 1, TimeUnit.SECONDS));
+    }
+    return changed;
+  }
+  
+}
@@ -0,0 +1,131 @@
+// 
+// Copyright (c) 2014 Brian William Wolter, All rights reserved.
+// Etcd - an etcd SDK for Java
+// 
+// Redistribution and use in source and binary forms, with or without modification,
+// are permitted provided that the following conditions are met:
+// 
+//   * Redistributions of source code must retain the above copyright notice, this
+//     list of conditions and the following disclaimer.
+// 
+//   * Redistributions in binary form must reproduce the above copyright notice,
+//     this list of conditions and the following disclaimer in the documentation
+//     and/or other materials provided with the distribution.
+//     
+//   * Neither the names of Brian William Wolter, Wolter Group New York, nor the
+//     names of its contributors may be used to endorse or promote products derived
+//     from this software without specific prior written permission.
+//     
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+// IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+// INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+// BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+// LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+// OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+// 
+
+package com.brianwolter.etc.test;
+
+import static org.testng.Assert.*;
+
+import org.testng.annotations.Test;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.AfterClass;
+
+import java.util.Map;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import com.brianwolter.etc.Config;
+import com.brianwolter.etc.provider.EtcdProvider;
+import com.brianwolter.etc.tool.EtcdStub;
+
+/**
+ * Directory tests
+ */
+public class DirectoryTest {
+  
+  private EtcdStub  stub;
+  private Config    config;
+  
+  @BeforeClass
+  public void setUp() throws Exception {
+    stub = new EtcdStub().start();
+    config = new Config(new EtcdProvider(stub.host(), stub.port()));
+  }
+  
+  @AfterClass
+  public void tearDown() throws Exception {
+    stub.close();
+  }
+  
+  @Test
+  public void testMembership() throws Exception {
+    stub.set("services.api.a", "10.0.0.1:8080");
+    stub.set("services.api.b", "10.0.0.2:8080");
+    
+    Config.Directory directory = config.directory("services.api");
+    Map<String, Object> members = directory.get();
+    assertEquals(members.size(), 2);
+    assertEquals(directory.get("a"), "10.0.0.1:8080");
+    
+    long requests = stub.requests();
+    
+    // added
+    ListenableFuture<Map<String, Object>> future = directory.watch();
+    stub.set("services.api.c", "10.0.0.3:8080");
+    members = future.get(30, TimeUnit.SECONDS);
+    assertEquals(members.size(), 3);
+    assertEquals(members.get("c"), "10.0.0.3:8080");
+    assertSame(directory.get(), members);
+    
+    // updated
+    future = directory.watch();
+    stub.set("services.api.a", "10.0.0.4:8080");
+    assertEquals(future.get(30, TimeUnit.SECONDS).get("a"), "10.0.0.4:8080");
+    
+    // deleted
+    future = directory.watch();
+    stub.delete("services.api.b");
+    members = future.get(30, TimeUnit.SECONDS);
+    assertEquals(members.keySet(), directory.members());
+    assertFalse(members.containsKey("b"));
+    assertEquals(members.size(), 2);
+    
+    // expired
+    future = directory.watch();
+    stub.set("services.api.d", "10.0.0.5:8080", 1, TimeUnit.SECONDS);
+    assertTrue(future.get(30, TimeUnit.SECONDS).containsKey("d"));
+    future = directory.watch();
+    assertFalse(future.get(30, TimeUnit.SECONDS).containsKey("d"));
+    
+    // nothing was re-listed; each change costs one watch request, allowing for a
+    // pooled connection which had to be reestablished
+    assertTrue(stub.requests() - requests <= 6);
+    assertEquals(config.snapshot().get("services.api.a"), "10.0.0.4:8080");
+    assertFalse(config.snapshot().contains("services.api.b"));
+  }
+  
+  @Test
+  public void testDeleteDirectory() throws Exception {
+    stub.set("pool.db.primary.host", "db1");
+    stub.set("pool.db.replica.host", "db2");
+    stub.set("pool.db.replica.port", "5432");
+    
+    Config.Directory directory = config.directory("pool.db");
+    assertEquals(directory.get().size(), 3);
+    
+    ListenableFuture<Map<String, Object>> future = directory.watch();
+    stub.delete("pool.db.replica");
+    Map<String, Object> members = future.get(30, TimeUnit.SECONDS);
+    assertEquals(members.size(), 1);
+    assertEquals(members.get("primary.host"), "db1");
+  }
+  
+}
@@ -0,0 +1,83 @@
+// 
+// Copyright (c) 2014 Brian William Wolter, All rights reserved.
+// Etcd - an etcd SDK for Java
+// 
+// Redistribution and use in source and binary forms, with or without modification,
+// are permitted provided that the following conditions are met:
+// 
+//   * Redistributions of source code must retain the above copyright notice, this
+//     list of conditions and the following disclaimer.
+// 
+//   * Redistributions in binary form must reproduce the above copyright notice,
+//     this list of conditions and the following disclaimer in the documentation
+//     and/or other materials provided with the distribution.
+//     
+//   * Neither the names of Brian William Wolter, Wolter Group New York, nor the
+//     names of its contributors may be used to endorse or promote products derived
+//     from this software without specific prior written permission.
+//     
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+// IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+// INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+// BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+// LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+// OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+// 
+
+package com.brianwolter.etc.test;
+
+import static org.testng.Assert.*;
+
+import org.testng.annotations.Test;
+
+import java.util.Map;
+import java.util.HashMap;
+
+import com.brianwolter.etc.Config;
+import com.brianwolter.etc.util.Property;
+import com.brianwolter.etc.provider.SystemProvider;
+import com.brianwolter.etc.provider.EnvironmentProvider;
+
+/**
+ * Environment and system provider tests
+ */
+public class EnvironmentProviderTest {
+  
+  @Test
+  public void testEnvironment() throws Exception {
+    Map<String, String> environment = new HashMap<String, String>();
+    environment.put("APP_DB_POOL_MAX", "16");
+    environment.put("APP_DB_POOL_MIN", "4");
+    environment.put("APP_FEATURE_NEW_CHECKOUT", "true");
+    environment.put("PATH", "/usr/bin");
+    
+    EnvironmentProvider provider = new EnvironmentProvider("APP_", environment);
+    assertEquals(provider.keyToName("db.pool-size"), "APP_DB_POOL_SIZE");
+    assertEquals(provider.get("db.pool.max").value(), "16");
+    assertSame(provider.get("db.pool.max"), provider.get("db.pool.max"));
+    assertNull(provider.get("path"));
+    assertNull(provider.get("db.pool.missing"));
+    
+    Config config = new Config(provider);
+    Map<String, Object> pool = config.view("db.pool").get();
+    assertEquals(pool.size(), 2);
+    assertEquals(pool.get("min"), "4");
+  }
+  
+  @Test
+  public void testSystem() throws Exception {
+    SystemProvider provider = new SystemProvider();
+    System.setProperty("test.system.cached", "A");
+    
+    Property property = provider.get("test.system.cached");
+    assertSame(provider.get("test.system.cached"), property);
+    
+    System.setProperty("test.system.cached", "B");
+    assertEquals(provider.get("test.system.cached").value(), "B");
+  }
+  
+}
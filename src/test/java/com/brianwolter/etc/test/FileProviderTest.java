@@ -0,0 +1,153 @@
+// 
+// Copyright (c) 2014 Brian William Wolter, All rights reserved.
+// Etcd - an etcd SDK for Java
+// 
+// Redistribution and use in source and binary forms, with or without modification,
+// are permitted provided that the following conditions are met:
+// 
+//   * Redistributions of source code must retain the above copyright notice, this
+//     list of conditions and the following disclaimer.
+// 
+//   * Redistributions in binary form must reproduce the above copyright notice,
+//     this list of conditions and the following disclaimer in the documentation
+//     and/or other materials provided with the distribution.
+//     
+//   * Neither the names of Brian William Wolter, Wolter Group New York, nor the
+//     names of its contributors may be used to endorse or promote products derived
+//     from this software without specific prior written permission.
+//     
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+// IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+// INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+// BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+// LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+// OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+// 
+
+package com.brianwolter.etc.test;
+
+import static org.testng.Assert.*;
+
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import java.util.Map;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import com.brianwolter.etc.Config;
+import com.brianwolter.etc.util.Property;
+import com.brianwolter.etc.provider.FileProvider;
+import com.brianwolter.etc.provider.EtcdProvider;
+import com.brianwolter.etc.tool.EtcdStub;
+
+/**
+ * File provider tests
+ */
+public class FileProviderTest {
+  
+  @Test
+  public void testProperties() throws Exception {
+    File directory = createDirectory();
+    File primary = new File(directory, "primary.properties");
+    File secondary = new File(directory, "secondary.json");
+    write(primary, "db.pool.min=4\ndb.host=primary\n");
+    write(secondary, "{\"db\": {\"host\": \"secondary\", \"pool\": {\"max\": 16}}}");
+    
+    FileProvider provider = new FileProvider(primary, secondary);
+    try {
+      
+      assertEquals(provider.get("db.pool.min").value(), "4");
+      assertEquals(provider.get("db.pool.max").value(), 16.0);
+      assertEquals(provider.get("db.host").value(), "primary");
+      assertNull(provider.get("db.missing"));
+      
+      Config config = new Config(provider);
+      assertEquals(config.view("db.pool").get("max", Integer.class), Integer.valueOf(16));
+      
+      Property previous = provider.get("db.pool.min");
+      ListenableFuture<Property> future = provider.watch("db.pool.min", previous);
+      assertFalse(future.isDone());
+      
+      write(primary, "db.pool.min=8\ndb.host=primary\n");
+      assertEquals(future.get(30, TimeUnit.SECONDS).value(), "8");
+      assertEquals(provider.get("db.pool.min").value(), "8");
+      
+    }finally{
+      provider.close();
+    }
+    
+  }
+  
+  @Test
+  public void testLayered() throws Exception {
+    File directory = createDirectory();
+    File file = new File(directory, "layered.properties");
+    write(file, "db.host=file\n");
+    
+    EtcdStub stub = new EtcdStub().start();
+    FileProvider provider = new FileProvider(file);
+    try {
+      
+      stub.set("db.host", "etcd");
+      stub.set("db.port", "5432");
+      Config config = new Config(provider, new EtcdProvider(stub.host(), stub.port()));
+      
+      Config.Value<String> host = config.get("db.host", String.class).autoUpdate();
+      Config.Value<String> port = config.get("db.port", String.class).autoUpdate();
+      Config.Directory db = config.directory("db");
+      assertEquals(host.get(), "file");
+      assertEquals(port.get(), "5432");
+      assertEquals(db.get().get("host"), "file");
+      
+      // changes from a later provider are watched too
+      ListenableFuture<String> future = port.watch();
+      ListenableFuture<Map<String, Object>> entries = db.watch();
+      stub.set("db.port", "6432");
+      assertEquals(future.get(30, TimeUnit.SECONDS), "6432");
+      assertEquals(entries.get(30, TimeUnit.SECONDS).get("port"), "6432");
+      
+      // but they don't replace values from an earlier provider
+      future = host.watch();
+      stub.set("db.host", "replaced");
+      write(file, "db.host=changed\n");
+      assertEquals(future.get(30, TimeUnit.SECONDS), "changed");
+      long deadline = System.currentTimeMillis() + 30000;
+      while(!"changed".equals(db.get().get("host")) && System.currentTimeMillis() < deadline){
+        Thread.sleep(10);
+      }
+      assertEquals(db.get().get("host"), "changed");
+      
+    }finally{
+      provider.close();
+      stub.close();
+    }
+  }
+  
+  private static File createDirectory() throws Exception {
+    File directory = File.createTempFile("etc", "");
+    directory.delete();
+    directory.mkdir();
+    directory.deleteOnExit();
+    return directory;
+  }
+  
+  private static void write(File file, String content) throws Exception {
+    FileOutputStream output = new FileOutputStream(file);
+    try {
+      output.write(content.getBytes("UTF-8"));
+    }finally{
+      output.close();
+    }
+    file.deleteOnExit();
+  }
+  
+}
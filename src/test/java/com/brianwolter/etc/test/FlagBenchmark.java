@@ -0,0 +1,88 @@
+// 
+// Copyright (c) 2014 Brian William Wolter, All rights reserved.
+// Etcd - an etcd SDK for Java
+// 
+// Redistribution and use in source and binary forms, with or without modification,
+// are permitted provided that the following conditions are met:
+// 
+//   * Redistributions of source code must retain the above copyright notice, this
+//     list of conditions and the following disclaimer.
+// 
+//   * Redistributions in binary form must reproduce the above copyright notice,
+//     this list of conditions and the following disclaimer in the documentation
+//     and/or other materials provided with the distribution.
+//     
+//   * Neither the names of Brian William Wolter, Wolter Group New York, nor the
+//     names of its contributors may be used to endorse or promote products derived
+//     from this software without specific prior written permission.
+//     
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+// IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+// INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+// BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+// LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+// OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+// 
+
+package com.brianwolter.etc.test;
+
+import static org.testng.Assert.*;
+
+import org.testng.annotations.Test;
+
+import java.lang.management.ManagementFactory;
+
+import com.brianwolter.etc.Config;
+import com.brianwolter.etc.flag.Flags;
+import com.brianwolter.etc.provider.SystemProvider;
+
+/**
+ * Feature flag evaluation benchmarks
+ */
+public class FlagBenchmark {
+  
+  private static final int ITERATIONS = 10000000;
+  private static final int SUBJECTS   = 1024;
+  
+  @Test(groups = "benchmark")
+  public void benchmarkEvaluation() throws Exception {
+    System.setProperty("benchmark.flags.rollout", "allow=alice,bob; deny=mallory; percent=12.5; buckets=40-49");
+    Flags flags = new Flags(new Config(new SystemProvider()), "benchmark.flags");
+    
+    String[] subjects = new String[SUBJECTS];
+    for(int i = 0; i < SUBJECTS; i++) subjects[i] = "tenant-"+ i;
+    
+    // warm up
+    int enabled = 0;
+    for(int i = 0; i < ITERATIONS; i++){
+      if(flags.isEnabled("rollout", subjects[i & (SUBJECTS - 1)])) enabled++;
+    }
+    
+    long bytes = allocatedBytes();
+    long start = System.nanoTime();
+    for(int i = 0; i < ITERATIONS; i++){
+      if(flags.isEnabled("rollout", subjects[i & (SUBJECTS - 1)])) enabled++;
+    }
+    long time = System.nanoTime() - start;
+    bytes = allocatedBytes() - bytes;
+    
+    System.err.println(String.format("--> flags: %d ns/op, %.1f million ops/sec, %d bytes allocated", time / ITERATIONS, ITERATIONS * 1000d / time, bytes));
+    
+    assertTrue(enabled > 0);
+    // evaluation allocates nothing; allow for incidental allocation by the runtime
+    assertTrue(bytes < ITERATIONS / 1000, "Allocated "+ bytes +" bytes");
+    
+  }
+  
+  /**
+   * Obtain the number of bytes allocated by the current thread
+   */
+  private static long allocatedBytes() {
+    return ((com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+  
+}
@@ -0,0 +1,156 @@
+// 
+// Copyright (c) 2014 Brian William Wolter, All rights reserved.
+// Etcd - an etcd SDK for Java
+// 
+// Redistribution and use in source and binary forms, with or without modification,
+// are permitted provided that the following conditions are met:
+// 
+//   * Redistributions of source code must retain the above copyright notice, this
+//     list of conditions and the following disclaimer.
+// 
+//   * Redistributions in binary form must reproduce the above copyright notice,
+//     this list of conditions and the following disclaimer in the documentation
+//     and/or other materials provided with the distribution.
+//     
+//   * Neither the names of Brian William Wolter, Wolter Group New York, nor the
+//     names of its contributors may be used to endorse or promote products derived
+//     from this software without specific prior written permission.
+//     
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+// IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+// INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+// BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+// LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+// OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+// 
+
+package com.brianwolter.etc.test;
+
+import static org.testng.Assert.*;
+
+import org.testng.annotations.Test;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.AfterClass;
+
+import com.brianwolter.etc.Config;
+import com.brianwolter.etc.flag.Flags;
+import com.brianwolter.etc.flag.Rule;
+import com.brianwolter.etc.provider.EtcdProvider;
+import com.brianwolter.etc.tool.EtcdStub;
+
+/**
+ * Feature flag tests
+ */
+public class FlagTest {
+  
+  private EtcdStub  stub;
+  private Config    config;
+  
+  @BeforeClass
+  public void setUp() throws Exception {
+    stub = new EtcdStub().start();
+    config = new Config(new EtcdProvider(stub.host(), stub.port()));
+  }
+  
+  @AfterClass
+  public void tearDown() throws Exception {
+    stub.close();
+  }
+  
+  @Test
+  public void testRule() throws Exception {
+    assertSame(Rule.compile(null, "f"), Rule.OFF);
+    assertSame(Rule.compile(" off ", "f"), Rule.OFF);
+    assertSame(Rule.compile("true", "f"), Rule.ON);
+    assertTrue(Rule.ON.isEnabled(null));
+    
+    Rule rule = Rule.compile("allow=alice, bob; deny=mallory; percent=0", "f");
+    assertTrue(rule.isEnabled("alice"));
+    assertTrue(rule.isEnabled("bob"));
+    assertFalse(rule.isEnabled("mallory"));
+    assertFalse(rule.isEnabled("carol"));
+    
+    // denials take precedence
+    assertFalse(Rule.compile("allow=mallory; deny=mallory; percent=100", "f").isEnabled("mallory"));
+    
+    // percentages and their equivalent buckets enable the same subjects
+    Rule percent = Rule.compile("percent=10", "f");
+    Rule buckets = Rule.compile("buckets=0-9", "f");
+    int enabled = 0;
+    for(int i = 0; i < 100000; i++){
+      String subject = "subject-"+ i;
+      assertEquals(percent.isEnabled(subject), buckets.isEnabled(subject));
+      if(percent.isEnabled(subject)) enabled++;
+    }
+    assertTrue(enabled > 9000 && enabled < 11000, "Enabled for "+ enabled);
+    
+    // raising a percentage only enables more subjects
+    Rule more = Rule.compile("percent=25.5", "f");
+    for(int i = 0; i < 10000; i++){
+      if(percent.isEnabled("subject-"+ i)) assertTrue(more.isEnabled("subject-"+ i));
+    }
+    
+    // flags are salted separately unless told otherwise
+    assertFalse(Rule.bucket("tenant-1", "a".hashCode()) == Rule.bucket("tenant-1", "b".hashCode()) && Rule.bucket("tenant-2", "a".hashCode()) == Rule.bucket("tenant-2", "b".hashCode()));
+    assertEquals(Rule.compile("salt=shared; percent=50", "a").isEnabled("tenant-1"), Rule.compile("salt=shared; percent=50", "b").isEnabled("tenant-1"));
+    
+    for(String invalid : new String[]{ "percent=101", "percent=lots", "buckets=5-2", "buckets=100", "enable", "color=blue" }){
+      try {
+        Rule.compile(invalid, "f");
+        fail("Rule must not compile: "+ invalid);
+      }catch(IllegalArgumentException e){
+        // expected
+      }
+    }
+  }
+  
+  @Test
+  public void testFlags() throws Exception {
+    stub.set("flags.checkout", "allow=alice");
+    
+    Flags flags = new Flags(config, "flags");
+    assertTrue(flags.isEnabled("checkout", "alice"));
+    assertFalse(flags.isEnabled("checkout", "bob"));
+    assertFalse(flags.isEnabled("undefined", "alice"));
+    
+    // rules are recompiled when their values change
+    stub.set("flags.checkout", "on");
+    assertTrue(await(flags, "checkout", "bob", true));
+    
+    // an invalid rule leaves the previous one in place
+    Rule previous = flags.rule("checkout");
+    stub.set("flags.checkout", "percent=lots");
+    stub.set("flags.other", "on");
+    long deadline = System.currentTimeMillis() + 5000;
+    while(!config.snapshot().contains("flags.checkout") || !"percent=lots".equals(config.snapshot().get("flags.checkout"))){
+      if(System.currentTimeMillis() > deadline) fail("Value was not updated");
+      Thread.sleep(10);
+    }
+    assertSame(flags.rule("checkout"), previous);
+    
+    // flags defined after they are first used take effect
+    stub.set("flags.undefined", "on");
+    assertTrue(await(flags, "undefined", "alice", true));
+    
+    // and removing a flag disables it
+    stub.delete("flags.undefined");
+    assertTrue(await(flags, "undefined", "alice", false));
+  }
+  
+  /**
+   * Wait for a flag to be evaluated as expected
+   */
+  private boolean await(Flags flags, String flag, String subject, boolean expected) throws Exception {
+    long deadline = System.currentTimeMillis() + 5000;
+    while(flags.isEnabled(flag, subject) != expected){
+      if(System.currentTimeMillis() > deadline) return false;
+      Thread.sleep(10);
+    }
+    return true;
+  }
+  
+}
@@ -0,0 +1,145 @@
+// 
+// Copyright (c) 2014 Brian William Wolter, All rights reserved.
+// Etcd - an etcd SDK for Java
+// 
+// Redistribution and use in source and binary forms, with or without modification,
+// are permitted provided that the following conditions are met:
+// 
+//   * Redistributions of source code must retain the above copyright notice, this
+//     list of conditions and the following disclaimer.
+// 
+//   * Redistributions in binary form must reproduce the above copyright notice,
+//     this list of conditions and the following disclaimer in the documentation
+//     and/or other materials provided with the distribution.
+//     
+//   * Neither the names of Brian William Wolter, Wolter Group New York, nor the
+//     names of its contributors may be used to endorse or promote products derived
+//     from this software without specific prior written permission.
+//     
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+// IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+// INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+// BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+// LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+// OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+// 
+
+package com.brianwolter.etc.test;
+
+import static org.testng.Assert.*;
+
+import org.testng.annotations.Test;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.AfterClass;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import java.nio.ByteBuffer;
+
+import java.io.IOException;
+
+import com.brianwolter.etc.Config;
+import com.brianwolter.etc.provider.EtcdProvider;
+import com.brianwolter.etc.tool.EtcdStub;
+import com.brianwolter.etc.marshal.Base64Marshaler;
+import com.brianwolter.etc.marshal.ProtobufMarshaler;
+
+/**
+ * Marshaler tests
+ */
+public class MarshalerTest {
+  
+  private EtcdStub      stub;
+  private EtcdProvider  provider;
+  private Config        config;
+  
+  @BeforeClass
+  public void setUp() throws Exception {
+    stub = new EtcdStub().start();
+    provider = new EtcdProvider(stub.host(), stub.port());
+    config = new Config(provider);
+  }
+  
+  @AfterClass
+  public void tearDown() throws Exception {
+    stub.close();
+  }
+  
+  @Test
+  public void testBinaryProperty() throws Exception {
+    stub.set("binary.text", "héllo");
+    
+    EtcdProvider.Result result = (EtcdProvider.Result)provider.get("binary.text");
+    ByteBuffer a = result.bytes(), b = result.bytes();
+    assertTrue(a.isReadOnly());
+    assertEquals(a, ByteBuffer.wrap("héllo".getBytes("UTF-8")));
+    
+    // consuming one view does not affect another
+    a.get(new byte[a.remaining()]);
+    assertEquals(b.remaining(), 6);
+    assertEquals(result.bytes().remaining(), 6);
+  }
+  
+  @Test
+  public void testBase64() throws Exception {
+    byte[] certificate = new byte[16 * 1024];
+    new Random(1).nextBytes(certificate);
+    
+    config.get("binary.certificate", new Base64Marshaler()).set(certificate);
+    
+    byte[] value = config.get("binary.certificate", new Base64Marshaler()).get();
+    assertTrue(Arrays.equals(value, certificate));
+    
+    Base64Marshaler marshaler = new Base64Marshaler();
+    assertTrue(Arrays.equals(marshaler.unmarshal(ByteBuffer.wrap("AAEC".getBytes("US-ASCII"))), new byte[]{ 0, 1, 2 }));
+    assertTrue(Arrays.equals(marshaler.unmarshal("AAEC"), new byte[]{ 0, 1, 2 }));
+    
+    try {
+      marshaler.unmarshal("not base64!");
+      fail("Invalid base64 must not unmarshal");
+    }catch(IOException e){
+      // expected
+    }
+  }
+  
+  @Test
+  public void testProtobuf() throws Exception {
+    config.get("binary.message", new ProtobufMarshaler<Message>(Message.class)).set(new Message("hello"));
+    stub.set("binary.other", "aGVsbG8=");
+    
+    assertEquals(config.get("binary.message", new ProtobufMarshaler<Message>(Message.class)).get().text, "hello");
+    assertEquals(config.get("binary.other", new ProtobufMarshaler<Message>(Message.class)).get().text, "hello");
+  }
+  
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void testNotProtobuf() throws Exception {
+    new ProtobufMarshaler<String>(String.class);
+  }
+  
+  /**
+   * Stands in for a generated message class
+   */
+  public static class Message {
+    
+    private final String text;
+    
+    public Message(String text) {
+      this.text = text;
+    }
+    
+    public static Message parseFrom(byte[] bytes) throws IOException {
+      return new Message(new String(bytes, "UTF-8"));
+    }
+    
+    public byte[] toByteArray() throws IOException {
+      return text.getBytes("UTF-8");
+    }
+    
+  }
+  
+}
@@ -0,0 +1,166 @@
+// 
+// Copyright (c) 2014 Brian William Wolter, All rights reserved.
+// Etcd - an etcd SDK for Java
+// 
+// Redistribution and use in source and binary forms, with or without modification,
+// are permitted provided that the following conditions are met:
+// 
+//   * Redistributions of source code must retain the above copyright notice, this
+//     list of conditions and the following disclaimer.
+// 
+//   * Redistributions in binary form must reproduce the above copyright notice,
+//     this list of conditions and the following disclaimer in the documentation
+//     and/or other materials provided with the distribution.
+//     
+//   * Neither the names of Brian William Wolter, Wolter Group New York, nor the
+//     names of its contributors may be used to endorse or promote products derived
+//     from this software without specific prior written permission.
+//     
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+// IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+// INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+// BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+// LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+// OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+// 
+
+package com.brianwolter.etc.test;
+
+import static org.testng.Assert.*;
+
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+
+import java.util.HashSet;
+import java.util.Arrays;
+
+import com.brianwolter.etc.Config;
+import com.brianwolter.etc.Snapshot;
+import com.brianwolter.etc.OffHeapSnapshot;
+import com.brianwolter.etc.provider.SystemProvider;
+import com.brianwolter.etc.util.OffHeapStore;
+
+/**
+ * Off-heap store tests
+ */
+public class OffHeapTest {
+  
+  @Test
+  public void testStore() throws Exception {
+    OffHeapStore store = new OffHeapStore(16, 256);
+    
+    store.put("a", 1, "one", 10, 0);
+    store.put("b", 1, Integer.valueOf(2), 0, 1234);
+    store.put("a", 2, "uno", 11, 0);
+    store.put("b", 3, null, 0, 0);
+    
+    // every revision remains readable
+    assertEquals(store.get("a", 1).value(), "one");
+    assertEquals(store.get("a", 1).index(), 10);
+    assertEquals(store.get("a", 2).value(), "uno");
+    assertEquals(store.get("b", 2).value(), Integer.valueOf(2));
+    assertEquals(store.get("b", 2).expiration(), 1234);
+    assertNull(store.get("b", 3));
+    assertNull(store.get("a", 0));
+    assertNull(store.get("c", 3));
+    assertEquals(store.size(), 1);
+    
+    // bytes are read directly from the store
+    ByteBuffer bytes = store.get("a", 3).bytes();
+    assertTrue(bytes.isReadOnly());
+    assertEquals(bytes.remaining(), 3);
+    
+    try {
+      store.put("a", 1, "late", 0, 0);
+      fail("Revisions must not decrease");
+    }catch(IllegalArgumentException e){
+      // expected
+    }
+    
+    // compaction keeps only what is current as of its revision
+    OffHeapStore compacted = store.compact(2);
+    assertEquals(compacted.revision(), 2);
+    assertEquals(compacted.get("a", 2).value(), "uno");
+    assertEquals(compacted.get("b", 2).value(), Integer.valueOf(2));
+    assertNull(compacted.get("a", 1));
+    assertTrue(compacted.used() < store.used());
+    assertEquals(store.get("a", 1).value(), "one");
+    
+  }
+  
+  @Test
+  public void testGrowth() throws Exception {
+    OffHeapStore store = new OffHeapStore(16, 4096);
+    
+    // resizes the table and spans many chunks
+    for(int i = 0; i < 10000; i++) store.put("grow.key."+ i, 1, "value "+ i, i, 0);
+    for(int i = 0; i < 10000; i += 2) store.put("grow.key."+ i, 2, null, 0, 0);
+    
+    assertEquals(store.size(), 5000);
+    assertTrue(store.allocated() > 4096 * 10);
+    for(int i = 0; i < 10000; i++){
+      assertEquals(store.get("grow.key."+ i, 1).value(), "value "+ i);
+      if(i % 2 == 0) assertNull(store.get("grow.key."+ i, 2)); else assertEquals(store.get("grow.key."+ i, 2).index(), i);
+    }
+    
+    assertEquals(store.keys(1, null).size(), 10000);
+    assertEquals(store.keys(2, null).size(), 5000);
+    assertEquals(store.keys(2, "grow.key.99").size(), 1 + 5 + 50);
+    
+  }
+  
+  @Test
+  public void testSnapshot() throws Exception {
+    Config config = new Config(new SystemProvider()).setOffHeap(true);
+    assertTrue(config.isOffHeap());
+    
+    System.setProperty("test.offheap.a", "1");
+    System.setProperty("test.offheap.b", "2");
+    
+    Snapshot empty = config.snapshot();
+    config.get("test.offheap.a").get();
+    config.get("test.offheap.b").get();
+    
+    Snapshot snapshot = config.snapshot();
+    assertTrue(snapshot instanceof OffHeapSnapshot);
+    assertTrue(snapshot.revision() > empty.revision());
+    assertEquals(snapshot.size(), 2);
+    assertEquals(snapshot.keys(), new HashSet<String>(Arrays.asList("test.offheap.a", "test.offheap.b")));
+    assertEquals(snapshot.get("test.offheap.a", Integer.class), Integer.valueOf(1));
+    assertEquals(snapshot.get("test.offheap.c", Integer.class, 3), Integer.valueOf(3));
+    
+    // earlier snapshots are never modified
+    assertEquals(empty.size(), 0);
+    assertFalse(empty.contains("test.offheap.a"));
+    
+    // switching back carries cached values over
+    config.setOffHeap(false);
+    assertFalse(config.isOffHeap());
+    assertTrue(config.snapshot().revision() > snapshot.revision());
+    assertEquals(config.snapshot().get("test.offheap.b", Integer.class), Integer.valueOf(2));
+    
+  }
+  
+  @Test
+  public void testPrefix() throws Exception {
+    Config config = new Config(new SystemProvider()).setOffHeap(true);
+    for(int i = 0; i < 4; i++) System.setProperty("test.offheap.view."+ i, String.valueOf(i));
+    
+    config.view("test.offheap.view").get();
+    assertEquals(config.snapshot().size(), 4);
+    
+    // a fresh listing replaces everything beneath its prefix
+    System.clearProperty("test.offheap.view.3");
+    config.view("test.offheap.view").get();
+    assertEquals(config.snapshot().size(), 3);
+    assertTrue(config.snapshot().contains("test.offheap.view.0"));
+    assertFalse(config.snapshot().contains("test.offheap.view.3"));
+    
+  }
+  
+}
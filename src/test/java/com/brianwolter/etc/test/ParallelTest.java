@@ -0,0 +1,147 @@
+// 
+// Copyright (c) 2014 Brian William Wolter, All rights reserved.
+// Etcd - an etcd SDK for Java
+// 
+// Redistribution and use in source and binary forms, with or without modification,
+// are permitted provided that the following conditions are met:
+// 
+//   * Redistributions of source code must retain the above copyright notice, this
+//     list of conditions and the following disclaimer.
+// 
+//   * Redistributions in binary form must reproduce the above copyright notice,
+//     this list of conditions and the following disclaimer in the documentation
+//     and/or other materials provided with the distribution.
+//     
+//   * Neither the names of Brian William Wolter, Wolter Group New York, nor the
+//     names of its contributors may be used to endorse or promote products derived
+//     from this software without specific prior written permission.
+//     
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+// IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+// INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+// BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+// LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+// OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+// 
+
+package com.brianwolter.etc.test;
+
+import static org.testng.Assert.*;
+
+import org.testng.annotations.Test;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.AfterClass;
+
+import java.util.concurrent.TimeUnit;
+
+import com.brianwolter.etc.Config;
+import com.brianwolter.etc.provider.EtcdProvider;
+import com.brianwolter.etc.provider.HedgedProvider;
+import com.brianwolter.etc.tool.EtcdStub;
+
+/**
+ * Parallel resolution and hedging tests
+ */
+public class ParallelTest {
+  
+  private EtcdStub  slow;
+  private EtcdStub  fast;
+  
+  @BeforeClass
+  public void setUp() throws Exception {
+    slow = new EtcdStub().start();
+    fast = new EtcdStub().start();
+  }
+  
+  @AfterClass
+  public void tearDown() throws Exception {
+    slow.close();
+    fast.close();
+  }
+  
+  @Test
+  public void testParallel() throws Exception {
+    EtcdStub other = new EtcdStub().start();
+    try {
+      
+      slow.setLatency(300, TimeUnit.MILLISECONDS);
+      other.setLatency(300, TimeUnit.MILLISECONDS);
+      slow.set("parallel.both", "slow");
+      fast.set("parallel.both", "fast");
+      other.set("parallel.last", "other");
+      
+      Config config = new Config(new EtcdProvider(slow.host(), slow.port()), new EtcdProvider(fast.host(), fast.port()), new EtcdProvider(other.host(), other.port())).setParallel(true);
+      assertTrue(config.isParallel());
+      
+      // precedence is honored even though a later provider answers first
+      assertEquals(config.get("parallel.both").get(), "slow");
+      
+      // a miss costs the slowest provider, not the sum of them
+      long start = System.nanoTime();
+      assertEquals(config.get("parallel.last").get(), "other");
+      assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(550));
+      
+      assertNull(config.get("parallel.missing").get());
+      
+    }finally{
+      slow.setLatency(0, TimeUnit.MILLISECONDS);
+      other.close();
+    }
+  }
+  
+  @Test
+  public void testInterrupted() throws Exception {
+    slow.setLatency(1, TimeUnit.SECONDS);
+    try {
+      Config config = new Config(new EtcdProvider(slow.host(), slow.port()));
+      Thread.currentThread().interrupt();
+      try {
+        config.get("parallel.interrupted").get();
+        fail("An interrupted lookup must not succeed");
+      }catch(Exception e){
+        // the interrupt is preserved rather than swallowed
+        assertTrue(Thread.interrupted());
+      }
+    }finally{
+      slow.setLatency(0, TimeUnit.MILLISECONDS);
+    }
+  }
+  
+  @Test
+  public void testHedge() throws Exception {
+    slow.set("hedge.value", "value");
+    fast.set("hedge.value", "value");
+    
+    HedgedProvider provider = new HedgedProvider(new EtcdProvider(slow.host(), slow.port()), new EtcdProvider(fast.host(), fast.port()));
+    
+    // learn what normal latency looks like
+    for(int i = 0; i < 256; i++) provider.get("hedge.value");
+    assertTrue(provider.threshold(TimeUnit.MILLISECONDS) < 50);
+    long hedges = provider.hedges();
+    
+    // the primary stalls; reads are answered by the secondary
+    slow.setLatency(2, TimeUnit.SECONDS);
+    try {
+      long start = System.nanoTime();
+      assertEquals(provider.get("hedge.value").value(), "value");
+      assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+      assertTrue(provider.hedges() > hedges);
+      assertTrue(provider.wins() > 0);
+    }finally{
+      slow.setLatency(0, TimeUnit.MILLISECONDS);
+    }
+    
+    // the primary is down; reads fail over
+    slow.setDropRate(1);
+    try {
+      assertEquals(provider.get("hedge.value").value(), "value");
+    }finally{
+      slow.setDropRate(0);
+    }
+  }
+  
+}
@@ -0,0 +1,113 @@
+// 
+// Copyright (c) 2014 Brian William Wolter, All rights reserved.
+// Etcd - an etcd SDK for Java
+// 
+// Redistribution and use in source and binary forms, with or without modification,
+// are permitted provided that the following conditions are met:
+// 
+//   * Redistributions of source code must retain the above copyright notice, this
+//     list of conditions and the following disclaimer.
+// 
+//   * Redistributions in binary form must reproduce the above copyright notice,
+//     this list of conditions and the following disclaimer in the documentation
+//     and/or other materials provided with the distribution.
+//     
+//   * Neither the names of Brian William Wolter, Wolter Group New York, nor the
+//     names of its contributors may be used to endorse or promote products derived
+//     from this software without specific prior written permission.
+//     
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+// IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+// INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+// BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+// LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+// OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+// 
+
+package com.brianwolter.etc.test;
+
+import static org.testng.Assert.*;
+
+import org.testng.annotations.Test;
+
+import java.net.URI;
+
+import java.lang.management.ManagementFactory;
+
+import com.brianwolter.etc.provider.EtcdProvider;
+
+/**
+ * Key path benchmarks
+ */
+public class PathBenchmark {
+  
+  private static final int ITERATIONS = 1000000;
+  private static final String[] KEYS = { "service.db.pool.min", "service.db.pool.max", "service.feature.new checkout", "test.watch.11" };
+  
+  @Test(groups = "benchmark")
+  public void benchmarkKeyPath() throws Exception {
+    EtcdProvider provider = new EtcdProvider();
+    URI uri = null;
+    
+    // warm up both paths
+    for(int i = 0; i < ITERATIONS; i++){
+      uri = uncached(KEYS[i % KEYS.length]);
+      uri = provider.uriForKey(KEYS[i % KEYS.length]);
+    }
+    
+    long start, bytes, uncachedBytes, cachedBytes, uncachedTime, cachedTime;
+    
+    bytes = allocatedBytes();
+    start = System.nanoTime();
+    for(int i = 0; i < ITERATIONS; i++){
+      uri = uncached(KEYS[i % KEYS.length]);
+    }
+    uncachedTime = System.nanoTime() - start;
+    uncachedBytes = allocatedBytes() - bytes;
+    
+    bytes = allocatedBytes();
+    start = System.nanoTime();
+    for(int i = 0; i < ITERATIONS; i++){
+      uri = provider.uriForKey(KEYS[i % KEYS.length]);
+    }
+    cachedTime = System.nanoTime() - start;
+    cachedBytes = allocatedBytes() - bytes;
+    
+    System.err.println(String.format("--> uncached: %d ns/op, %d bytes/op", uncachedTime / ITERATIONS, uncachedBytes / ITERATIONS));
+    System.err.println(String.format("-->   cached: %d ns/op, %d bytes/op", cachedTime / ITERATIONS, cachedBytes / ITERATIONS));
+    
+    assertNotNull(uri);
+    assertTrue(cachedBytes < uncachedBytes);
+    
+  }
+  
+  @Test
+  public void testKeyPathEncoding() throws Exception {
+    assertEquals(EtcdProvider.keyToPath("a.b.c"), "a/b/c");
+    assertEquals(EtcdProvider.keyToPath("a..b."), "a/b/");
+    assertEquals(EtcdProvider.keyToPath("a.new checkout"), "a/new%20checkout");
+    assertEquals(EtcdProvider.keyToPath("a.café"), "a/caf%C3%A9");
+    EtcdProvider provider = new EtcdProvider("localhost", 4001);
+    assertEquals(provider.uriForKey("a.b c").toString(), "http://localhost:4001/v2/keys/a/b%20c");
+    assertSame(provider.uriForKey("a.b c"), provider.uriForKey("a.b c"));
+  }
+  
+  /**
+   * Construct a key URI the way it was constructed prior to caching
+   */
+  private static URI uncached(String key) throws Exception {
+    return new URI("http", null, "localhost", 4001, String.format("/v2/keys/%s", EtcdProvider.keyToPath(key)), null, null);
+  }
+  
+  /**
+   * Obtain the number of bytes allocated by the current thread
+   */
+  private static long allocatedBytes() {
+    return ((com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+  
+}
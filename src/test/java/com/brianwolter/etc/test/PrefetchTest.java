@@ -0,0 +1,143 @@
+// 
+// Copyright (c) 2014 Brian William Wolter, All rights reserved.
+// Etcd - an etcd SDK for Java
+// 
+// Redistribution and use in source and binary forms, with or without modification,
+// are permitted provided that the following conditions are met:
+// 
+//   * Redistributions of source code must retain the above copyright notice, this
+//     list of conditions and the following disclaimer.
+// 
+//   * Redistributions in binary form must reproduce the above copyright notice,
+//     this list of conditions and the following disclaimer in the documentation
+//     and/or other materials provided with the distribution.
+//     
+//   * Neither the names of Brian William Wolter, Wolter Group New York, nor the
+//     names of its contributors may be used to endorse or promote products derived
+//     from this software without specific prior written permission.
+//     
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+// IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+// INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+// BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+// LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+// OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+// 
+
+package com.brianwolter.etc.test;
+
+import static org.testng.Assert.*;
+
+import org.testng.annotations.Test;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.AfterClass;
+
+import java.io.File;
+
+import java.util.Map;
+import java.util.Arrays;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import com.brianwolter.etc.Config;
+import com.brianwolter.etc.provider.EtcdProvider;
+import com.brianwolter.etc.tool.EtcdStub;
+import com.brianwolter.etc.util.Manifest;
+
+/**
+ * Prefetch tests
+ */
+public class PrefetchTest {
+  
+  private EtcdStub  stub;
+  
+  @BeforeClass
+  public void setUp() throws Exception {
+    stub = new EtcdStub().start();
+  }
+  
+  @AfterClass
+  public void tearDown() throws Exception {
+    stub.close();
+  }
+  
+  @Test
+  public void testPrefetch() throws Exception {
+    File manifest = File.createTempFile("etc", ".manifest");
+    manifest.deleteOnExit();
+    
+    for(int i = 0; i < 10; i++) stub.set("prefetch.key."+ i, String.valueOf(i));
+    
+    // warm up, reading some keys more often than others
+    Config warmup = new Config(new EtcdProvider(stub.host(), stub.port()));
+    for(int i = 0; i < 10; i++){
+      Config.Value<String> value = warmup.get("prefetch.key."+ i, String.class);
+      for(int j = 0; j <= i; j++) value.get();
+    }
+    warmup.get("prefetch.missing").get();
+    
+    Map<String, Long> accesses = warmup.accesses();
+    assertEquals(accesses.size(), 11);
+    assertEquals(accesses.get("prefetch.key.9"), Long.valueOf(10));
+    
+    warmup.saveManifest(manifest);
+    assertEquals(Manifest.read(manifest).get(0), "prefetch.key.9");
+    
+    // on the next startup everything is fetched up front
+    Config config = new Config(new EtcdProvider(stub.host(), stub.port()));
+    assertEquals(config.prefetch(manifest).get(30, TimeUnit.SECONDS), Integer.valueOf(10));
+    assertEquals(config.snapshot().get("prefetch.key.3"), "3");
+    
+    // changes made after prefetching are not missed
+    stub.set("prefetch.key.5", "changed");
+    
+    // reads don't make requests
+    long requests = stub.requests();
+    for(int i = 0; i < 10; i++){
+      if(i != 5) assertEquals(config.get("prefetch.key."+ i, String.class).get(), String.valueOf(i));
+    }
+    assertEquals(stub.requests(), requests);
+    
+    Config.Value<String> value = config.get("prefetch.key.5", String.class).autoUpdate();
+    assertEquals(value.get(), "5");
+    ListenableFuture<String> future = value.watch();
+    assertEquals(future.get(30, TimeUnit.SECONDS), "changed");
+    assertEquals(value.get(), "changed");
+  }
+  
+  @Test
+  public void testWarmup() throws Exception {
+    stub.set("prefetch.warm", "value");
+    
+    Config config = new Config(new EtcdProvider(stub.host(), stub.port())).setWarmup(100, TimeUnit.MILLISECONDS);
+    Config.Value<String> value = config.get("prefetch.warm", String.class);
+    value.get();
+    assertEquals(config.accesses().get("prefetch.warm"), Long.valueOf(1));
+    Thread.sleep(200);
+    
+    // reads after warming up aren't counted
+    for(int i = 0; i < 10; i++) value.get();
+    assertEquals(config.accesses().get("prefetch.warm"), Long.valueOf(1));
+  }
+  
+  @Test
+  public void testPrefetchExpires() throws Exception {
+    stub.set("prefetch.expiring", "value");
+    
+    Config config = new Config(new EtcdProvider(stub.host(), stub.port())).setPrefetchTTL(100, TimeUnit.MILLISECONDS);
+    assertEquals(config.prefetch(Arrays.asList("prefetch.expiring")).get(30, TimeUnit.SECONDS), Integer.valueOf(1));
+    Thread.sleep(500);
+    
+    // a prefetched property which wasn't read in time is resolved again
+    long requests = stub.requests();
+    assertEquals(config.get("prefetch.expiring", String.class).get(), "value");
+    assertEquals(stub.requests(), requests + 1);
+  }
+  
+}
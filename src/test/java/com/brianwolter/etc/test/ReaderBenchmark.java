@@ -0,0 +1,137 @@
+// 
+// Copyright (c) 2014 Brian William Wolter, All rights reserved.
+// Etcd - an etcd SDK for Java
+// 
+// Redistribution and use in source and binary forms, with or without modification,
+// are permitted provided that the following conditions are met:
+// 
+//   * Redistributions of source code must retain the above copyright notice, this
+//     list of conditions and the following disclaimer.
+// 
+//   * Redistributions in binary form must reproduce the above copyright notice,
+//     this list of conditions and the following disclaimer in the documentation
+//     and/or other materials provided with the distribution.
+//     
+//   * Neither the names of Brian William Wolter, Wolter Group New York, nor the
+//     names of its contributors may be used to endorse or promote products derived
+//     from this software without specific prior written permission.
+//     
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+// IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+// INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+// BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+// LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+// OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+// 
+
+package com.brianwolter.etc.test;
+
+import static org.testng.Assert.*;
+
+import org.testng.annotations.Test;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.brianwolter.etc.Config;
+import com.brianwolter.etc.provider.EtcdProvider;
+import com.brianwolter.etc.tool.EtcdStub;
+
+/**
+ * Concurrent reader benchmarks. Readers run on virtual threads when the runtime
+ * supports them (JDK 21 and later), otherwise on a bounded pool of platform threads.
+ */
+public class ReaderBenchmark {
+  
+  private static final int READERS  = 10000;
+  private static final int READS    = 1000;
+  private static final int KEYS     = 100;
+  
+  @Test(groups = "benchmark")
+  public void benchmarkReaders() throws Exception {
+    EtcdStub stub = new EtcdStub().start();
+    try {
+      for(int i = 0; i < KEYS; i++) stub.set("benchmark.readers."+ i, "value-"+ i);
+      stub.setLatency(1, TimeUnit.MILLISECONDS);
+      
+      Config config = new Config(new EtcdProvider(stub.host(), stub.port()));
+      Config.Value[] values = new Config.Value[KEYS];
+      for(int i = 0; i < KEYS; i++) values[i] = config.get("benchmark.readers."+ i, String.class).autoUpdate();
+      
+      // cold: every reader resolves its own value from the provider
+      run("cold", config, null, 1);
+      // hot: every reader reads values which have already been resolved
+      for(Config.Value value : values) value.get();
+      run("hot", config, values, READS);
+      
+    }finally{
+      stub.close();
+    }
+  }
+  
+  /**
+   * Run our readers and report their throughput
+   */
+  private void run(String name, final Config config, final Config.Value[] values, final int reads) throws Exception {
+    ExecutorService executor = executor();
+    final CountDownLatch latch = new CountDownLatch(READERS);
+    final AtomicLong failures = new AtomicLong();
+    
+    long start = System.nanoTime();
+    for(int i = 0; i < READERS; i++){
+      final int reader = i;
+      executor.execute(new Runnable() {
+        public void run() {
+          try {
+            for(int j = 0; j < reads; j++){
+              int key = (reader + j) % KEYS;
+              Object value = (values != null) ? values[key].get() : config.get("benchmark.readers."+ key, String.class).get();
+              if(value == null) failures.incrementAndGet();
+            }
+          }catch(Exception e){
+            failures.incrementAndGet();
+          }finally{
+            latch.countDown();
+          }
+        }
+      });
+    }
+    assertTrue(latch.await(5, TimeUnit.MINUTES), "Readers did not finish");
+    long time = System.nanoTime() - start;
+    executor.shutdown();
+    
+    System.err.println(String.format("--> %s: %d readers on %s threads, %.1f thousand reads/sec", name, READERS, isVirtual() ? "virtual" : "platform", READERS * (double)reads * 1000000d / time));
+    assertEquals(failures.get(), 0);
+  }
+  
+  /**
+   * Obtain an executor which runs each task on its own virtual thread, if we can
+   */
+  private static ExecutorService executor() throws Exception {
+    if(isVirtual()){
+      return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    }else{
+      return Executors.newFixedThreadPool(256);
+    }
+  }
+  
+  /**
+   * Determine if the runtime supports virtual threads
+   */
+  private static boolean isVirtual() {
+    try {
+      Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return true;
+    }catch(NoSuchMethodException e){
+      return false;
+    }
+  }
+  
+}
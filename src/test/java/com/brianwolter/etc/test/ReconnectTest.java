@@ -0,0 +1,152 @@
+// 
+// Copyright (c) 2014 Brian William Wolter, All rights reserved.
+// Etcd - an etcd SDK for Java
+// 
+// Redistribution and use in source and binary forms, with or without modification,
+// are permitted provided that the following conditions are met:
+// 
+//   * Redistributions of source code must retain the above copyright notice, this
+//     list of conditions and the following disclaimer.
+// 
+//   * Redistributions in binary form must reproduce the above copyright notice,
+//     this list of conditions and the following disclaimer in the documentation
+//     and/or other materials provided with the distribution.
+//     
+//   * Neither the names of Brian William Wolter, Wolter Group New York, nor the
+//     names of its contributors may be used to endorse or promote products derived
+//     from this software without specific prior written permission.
+//     
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+// IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+// INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+// BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+// LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+// OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+// 
+
+package com.brianwolter.etc.test;
+
+import static org.testng.Assert.*;
+
+import org.testng.annotations.Test;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.AfterClass;
+
+import java.util.Random;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import com.brianwolter.etc.provider.EtcdProvider;
+import com.brianwolter.etc.tool.EtcdStub;
+import com.brianwolter.etc.util.Backoff;
+import com.brianwolter.etc.util.CircuitBreaker;
+import com.brianwolter.etc.util.Property;
+
+/**
+ * Reconnect tests
+ */
+public class ReconnectTest {
+  
+  private EtcdStub  stub;
+  
+  @BeforeClass
+  public void setUp() throws Exception {
+    stub = new EtcdStub().start();
+  }
+  
+  @AfterClass
+  public void tearDown() throws Exception {
+    stub.close();
+  }
+  
+  @Test
+  public void testBackoff() throws Exception {
+    Backoff backoff = new Backoff(100, 1000, TimeUnit.MILLISECONDS);
+    assertEquals(backoff.ceiling(0), 0);
+    assertEquals(backoff.ceiling(1), 100);
+    assertEquals(backoff.ceiling(3), 400);
+    assertEquals(backoff.ceiling(5), 1000);
+    assertEquals(backoff.ceiling(Integer.MAX_VALUE), 1000);
+    
+    Random random = new Random(1);
+    long total = 0;
+    for(int i = 0; i < 1000; i++){
+      long delay = backoff.delay(4, random);
+      assertTrue(delay >= 0 && delay <= 800);
+      total += delay;
+    }
+    // full jitter spreads delays over the whole interval
+    assertTrue(total / 1000 > 300 && total / 1000 < 500);
+  }
+  
+  @Test
+  public void testCircuitBreaker() throws Exception {
+    CircuitBreaker breaker = new CircuitBreaker(3, 100, TimeUnit.MILLISECONDS);
+    breaker.failed();
+    breaker.failed();
+    breaker.succeeded();
+    breaker.failed();
+    breaker.failed();
+    assertTrue(breaker.allow());
+    breaker.failed();
+    assertEquals(breaker.state(), CircuitBreaker.State.OPEN);
+    assertFalse(breaker.allow());
+    
+    // one probe after the timeout
+    Thread.sleep(150);
+    assertTrue(breaker.allow());
+    assertEquals(breaker.state(), CircuitBreaker.State.HALF_OPEN);
+    assertFalse(breaker.allow());
+    
+    // a failed probe opens it again, a successful one closes it
+    breaker.failed();
+    assertEquals(breaker.state(), CircuitBreaker.State.OPEN);
+    assertEquals(breaker.trips(), 2);
+    Thread.sleep(150);
+    assertTrue(breaker.allow());
+    breaker.succeeded();
+    assertEquals(breaker.state(), CircuitBreaker.State.CLOSED);
+    assertTrue(breaker.allow());
+  }
+  
+  @Test
+  public void testWatchReconnects() throws Exception {
+    EtcdProvider provider;
+    System.setProperty("etc.provider.etcd.breaker.threshold", "2");
+    System.setProperty("etc.provider.etcd.breaker.timeout", "200");
+    try {
+      provider = new EtcdProvider(stub.host(), stub.port());
+    }finally{
+      System.clearProperty("etc.provider.etcd.breaker.threshold");
+      System.clearProperty("etc.provider.etcd.breaker.timeout");
+    }
+    
+    stub.set("reconnect.value", "a");
+    Property previous = provider.get("reconnect.value");
+    ListenableFuture<Property> future = provider.watch("reconnect.value", previous);
+    
+    // refuse everything for a while; the watch must survive without spinning
+    while(stub.watches() < 1) Thread.sleep(10);
+    stub.setDropRate(1);
+    try {
+      stub.dropWatches();
+      Thread.sleep(1000);
+      assertFalse(future.isDone());
+      assertTrue(provider.reconnects() > 0);
+      assertTrue(provider.reconnects() < 20);
+      assertTrue(provider.breaker().trips() > 0);
+    }finally{
+      stub.setDropRate(0);
+    }
+    
+    stub.set("reconnect.value", "b");
+    assertEquals(future.get(30, TimeUnit.SECONDS).value(), "b");
+  }
+  
+}
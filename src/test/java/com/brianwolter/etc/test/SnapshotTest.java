@@ -0,0 +1,69 @@
+// 
+// Copyright (c) 2014 Brian William Wolter, All rights reserved.
+// Etcd - an etcd SDK for Java
+// 
+// Redistribution and use in source and binary forms, with or without modification,
+// are permitted provided that the following conditions are met:
+// 
+//   * Redistributions of source code must retain the above copyright notice, this
+//     list of conditions and the following disclaimer.
+// 
+//   * Redistributions in binary form must reproduce the above copyright notice,
+//     this list of conditions and the following disclaimer in the documentation
+//     and/or other materials provided with the distribution.
+//     
+//   * Neither the names of Brian William Wolter, Wolter Group New York, nor the
+//     names of its contributors may be used to endorse or promote products derived
+//     from this software without specific prior written permission.
+//     
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+// IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+// INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+// BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+// LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+// OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+// 
+
+package com.brianwolter.etc.test;
+
+import static org.testng.Assert.*;
+
+import org.testng.annotations.Test;
+
+import com.brianwolter.etc.Config;
+import com.brianwolter.etc.Snapshot;
+import com.brianwolter.etc.provider.SystemProvider;
+
+/**
+ * Snapshot tests
+ */
+public class SnapshotTest {
+  
+  @Test
+  public void testSnapshot() throws Exception {
+    Config config = new Config(new SystemProvider());
+    System.setProperty("test.snapshot.a", "1");
+    System.setProperty("test.snapshot.b", "2");
+    
+    Snapshot empty = config.snapshot();
+    assertEquals(empty.size(), 0);
+    
+    config.get("test.snapshot.a").get();
+    config.get("test.snapshot.b").get();
+    
+    Snapshot snapshot = config.snapshot();
+    assertTrue(snapshot.revision() > empty.revision());
+    assertEquals(snapshot.get("test.snapshot.a", Integer.class), Integer.valueOf(1));
+    assertEquals(snapshot.get("test.snapshot.b", Integer.class), Integer.valueOf(2));
+    assertEquals(snapshot.get("test.snapshot.c", Integer.class, 3), Integer.valueOf(3));
+    
+    // earlier snapshots are never modified
+    assertEquals(empty.size(), 0);
+    assertFalse(empty.contains("test.snapshot.a"));
+  }
+  
+}
@@ -0,0 +1,97 @@
+// 
+// Copyright (c) 2014 Brian William Wolter, All rights reserved.
+// Etcd - an etcd SDK for Java
+// 
+// Redistribution and use in source and binary forms, with or without modification,
+// are permitted provided that the following conditions are met:
+// 
+//   * Redistributions of source code must retain the above copyright notice, this
+//     list of conditions and the following disclaimer.
+// 
+//   * Redistributions in binary form must reproduce the above copyright notice,
+//     this list of conditions and the following disclaimer in the documentation
+//     and/or other materials provided with the distribution.
+//     
+//   * Neither the names of Brian William Wolter, Wolter Group New York, nor the
+//     names of its contributors may be used to endorse or promote products derived
+//     from this software without specific prior written permission.
+//     
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+// IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+// INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+// BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+// LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+// OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+// 
+
+package com.brianwolter.etc.test;
+
+import static org.testng.Assert.*;
+
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import com.brianwolter.etc.provider.EtcdProvider;
+import com.brianwolter.etc.tool.EtcdStub;
+import com.brianwolter.etc.tool.Histogram;
+
+/**
+ * TLS benchmarks
+ */
+public class TLSBenchmark {
+  
+  private static final int ITERATIONS = 5000;
+  
+  @Test(groups = "benchmark")
+  public void benchmarkTLS() throws Exception {
+    EtcdStub plain = new EtcdStub().start();
+    EtcdStub secure = new EtcdStub(TLSTest.context(true), true).start();
+    try {
+      
+      plain.set("benchmark.tls", "value");
+      secure.set("benchmark.tls", "value");
+      
+      Histogram plainLatency = measure(new EtcdProvider(plain.host(), plain.port()));
+      Histogram secureLatency = measure(new EtcdProvider(secure.host(), secure.port(), TLSTest.context(true)));
+      
+      report("plain", plainLatency);
+      report("tls", secureLatency);
+      
+      // once connections are established and reused TLS adds little per request
+      assertTrue(secureLatency.percentile(50, TimeUnit.MICROSECONDS) < plainLatency.percentile(50, TimeUnit.MICROSECONDS) * 3 + 500);
+      
+    }finally{
+      plain.close();
+      secure.close();
+    }
+  }
+  
+  /**
+   * Measure sequential get latency, which reuses a single pooled connection
+   */
+  private Histogram measure(EtcdProvider provider) throws Exception {
+    long start = System.nanoTime();
+    provider.get("benchmark.tls");
+    System.err.println(String.format("--> %s first request (connect and handshake): %.2f ms", provider.scheme(), (System.nanoTime() - start) / 1e6));
+    
+    for(int i = 0; i < ITERATIONS; i++) provider.get("benchmark.tls");
+    
+    Histogram histogram = new Histogram();
+    for(int i = 0; i < ITERATIONS; i++){
+      start = System.nanoTime();
+      provider.get("benchmark.tls");
+      histogram.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+    return histogram;
+  }
+  
+  private void report(String name, Histogram histogram) {
+    System.err.println(String.format("--> %s: p50 %.0f us, p90 %.0f us, p99 %.0f us", name, histogram.percentile(50, TimeUnit.MICROSECONDS), histogram.percentile(90, TimeUnit.MICROSECONDS), histogram.percentile(99, TimeUnit.MICROSECONDS)));
+  }
+  
+}
@@ -0,0 +1,123 @@
+// 
+// Copyright (c) 2014 Brian William Wolter, All rights reserved.
+// Etcd - an etcd SDK for Java
+// 
+// Redistribution and use in source and binary forms, with or without modification,
+// are permitted provided that the following conditions are met:
+// 
+//   * Redistributions of source code must retain the above copyright notice, this
+//     list of conditions and the following disclaimer.
+// 
+//   * Redistributions in binary form must reproduce the above copyright notice,
+//     this list of conditions and the following disclaimer in the documentation
+//     and/or other materials provided with the distribution.
+//     
+//   * Neither the names of Brian William Wolter, Wolter Group New York, nor the
+//     names of its contributors may be used to endorse or promote products derived
+//     from this software without specific prior written permission.
+//     
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+// IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+// INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+// BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+// LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+// OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+// 
+
+package com.brianwolter.etc.test;
+
+import static org.testng.Assert.*;
+
+import org.testng.annotations.Test;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.AfterClass;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLContext;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import com.brianwolter.etc.provider.EtcdProvider;
+import com.brianwolter.etc.tool.EtcdStub;
+import com.brianwolter.etc.util.Property;
+import com.brianwolter.etc.util.TLS;
+
+/**
+ * TLS tests
+ */
+public class TLSTest {
+  
+  private EtcdStub  stub;
+  
+  /**
+   * Obtain a TLS context from the test key and trust stores; the same certificate
+   * identifies both the stub and its clients.
+   */
+  static SSLContext context(boolean keys) throws Exception {
+    File keystore = new File(TLSTest.class.getResource("/etc-test-keystore.jks").toURI());
+    File truststore = new File(TLSTest.class.getResource("/etc-test-truststore.jks").toURI());
+    return TLS.context(keys ? keystore : null, "changeit", truststore, "changeit");
+  }
+  
+  @BeforeClass
+  public void setUp() throws Exception {
+    stub = new EtcdStub(context(true), true).start();
+  }
+  
+  @AfterClass
+  public void tearDown() throws Exception {
+    stub.close();
+  }
+  
+  @Test
+  public void testMutualTLS() throws Exception {
+    EtcdProvider provider = new EtcdProvider(stub.host(), stub.port(), context(true));
+    assertEquals(provider.scheme(), "https");
+    assertTrue(provider.uriForKey("tls.value").toString().startsWith("https://"));
+    
+    provider.set("tls.value", "secure");
+    Property previous = provider.get("tls.value");
+    assertEquals(previous.value(), "secure");
+    
+    ListenableFuture<Property> future = provider.watch("tls.value", previous);
+    stub.set("tls.value", "changed");
+    assertEquals(future.get(30, TimeUnit.SECONDS).value(), "changed");
+  }
+  
+  @Test(expectedExceptions = IOException.class)
+  public void testClientCertificateRequired() throws Exception {
+    new EtcdProvider(stub.host(), stub.port(), context(false)).get("tls.value");
+  }
+  
+  @Test
+  public void testSystemProperties() throws Exception {
+    File keystore = new File(TLSTest.class.getResource("/etc-test-keystore.jks").toURI());
+    File truststore = new File(TLSTest.class.getResource("/etc-test-truststore.jks").toURI());
+    System.setProperty("etc.provider.etcd.tls", "true");
+    System.setProperty("etc.provider.etcd.tls.keystore", keystore.getPath());
+    System.setProperty("etc.provider.etcd.tls.keystore.password", "changeit");
+    System.setProperty("etc.provider.etcd.tls.truststore", truststore.getPath());
+    System.setProperty("etc.provider.etcd.tls.truststore.password", "changeit");
+    EtcdProvider provider;
+    try {
+      provider = new EtcdProvider(stub.host(), stub.port());
+    }finally{
+      System.clearProperty("etc.provider.etcd.tls");
+      System.clearProperty("etc.provider.etcd.tls.keystore");
+      System.clearProperty("etc.provider.etcd.tls.keystore.password");
+      System.clearProperty("etc.provider.etcd.tls.truststore");
+      System.clearProperty("etc.provider.etcd.tls.truststore.password");
+    }
+    stub.set("tls.property", "value");
+    assertEquals(provider.get("tls.property").value(), "value");
+  }
+  
+}
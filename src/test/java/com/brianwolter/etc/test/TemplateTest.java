@@ -0,0 +1,145 @@
+// 
+// Copyright (c) 2014 Brian William Wolter, All rights reserved.
+// Etcd - an etcd SDK for Java
+// 
+// Redistribution and use in source and binary forms, with or without modification,
+// are permitted provided that the following conditions are met:
+// 
+//   * Redistributions of source code must retain the above copyright notice, this
+//     list of conditions and the following disclaimer.
+// 
+//   * Redistributions in binary form must reproduce the above copyright notice,
+//     this list of conditions and the following disclaimer in the documentation
+//     and/or other materials provided with the distribution.
+//     
+//   * Neither the names of Brian William Wolter, Wolter Group New York, nor the
+//     names of its contributors may be used to endorse or promote products derived
+//     from this software without specific prior written permission.
+//     
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+// IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+// INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+// BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+// LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+// OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+// 
+
+package com.brianwolter.etc.test;
+
+import static org.testng.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import org.testng.annotations.Test;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.AfterClass;
+
+import com.brianwolter.etc.Config;
+import com.brianwolter.etc.ConfigException;
+import com.brianwolter.etc.provider.EtcdProvider;
+import com.brianwolter.etc.tool.EtcdStub;
+import com.brianwolter.etc.util.Template;
+
+/**
+ * Template and interpolation tests
+ */
+public class TemplateTest {
+  
+  private EtcdStub  stub;
+  private Config    config;
+  
+  @BeforeClass
+  public void setUp() throws Exception {
+    stub = new EtcdStub().start();
+    config = new Config(new EtcdProvider(stub.host(), stub.port()));
+  }
+  
+  @AfterClass
+  public void tearDown() throws Exception {
+    stub.close();
+  }
+  
+  @Test
+  public void testParse() throws Exception {
+    Template template = Template.parse("${a}:${b:80}/$${c}");
+    assertEquals(template.references(), Arrays.asList("a", "b"));
+    assertFalse(template.isLiteral());
+    assertTrue(Template.parse("plain").isLiteral());
+    assertEquals(template.render(new Template.Resolver() {
+      public String resolve(String key) {
+        return key.equals("a") ? "host" : null;
+      }
+    }), "host:80/${c}");
+    
+    try {
+      Template.parse("${a");
+      fail("Unterminated reference was parsed");
+    }catch(IllegalArgumentException e){ /* expected */ }
+    
+    try {
+      Template.parse("${ }");
+      fail("Empty reference was parsed");
+    }catch(IllegalArgumentException e){ /* expected */ }
+  }
+  
+  @Test
+  public void testInterpolate() throws Exception {
+    stub.set("db.host", "localhost");
+    stub.set("db.port", "5432");
+    stub.set("db.url", "jdbc:postgresql://${db.address}/app");
+    stub.set("db.address", "${db.host}:${db.port}");
+    
+    Config.Interpolated url = config.interpolate("db.url");
+    assertEquals(url.get(), "jdbc:postgresql://localhost:5432/app");
+    assertEquals(url.dependencies(), new HashSet<String>(Arrays.asList("db.url", "db.address", "db.host", "db.port")));
+    
+    // a dependency several levels down changes
+    ListenableFuture<String> watch = url.watch();
+    stub.set("db.port", "6543");
+    assertEquals(watch.get(10, TimeUnit.SECONDS), "jdbc:postgresql://localhost:6543/app");
+    assertEquals(url.get(), "jdbc:postgresql://localhost:6543/app");
+    
+    // a reference is removed and is no longer a dependency
+    watch = url.watch();
+    stub.set("db.address", "${db.host}");
+    assertEquals(watch.get(10, TimeUnit.SECONDS), "jdbc:postgresql://localhost/app");
+    assertEquals(url.dependencies(), new HashSet<String>(Arrays.asList("db.url", "db.address", "db.host")));
+    
+    url.cancel();
+  }
+  
+  @Test
+  public void testDefault() throws Exception {
+    Config.Interpolated value = config.template("${undefined.host:example.com}:${undefined.port:80}");
+    assertEquals(value.get(), "example.com:80");
+    value.cancel();
+    
+    try {
+      config.template("${undefined.host}").get();
+      fail("Unresolved reference was interpolated");
+    }catch(ConfigException e){ /* expected */ }
+  }
+  
+  @Test
+  public void testCycle() throws Exception {
+    stub.set("cycle.a", "${cycle.b}-a");
+    stub.set("cycle.b", "${cycle.c}-b");
+    stub.set("cycle.c", "${cycle.a}-c");
+    
+    try {
+      config.interpolate("cycle.a").get();
+      fail("Cycle was interpolated");
+    }catch(ConfigException e){
+      assertTrue(e.getMessage().contains("cycle.a -> cycle.b -> cycle.c -> cycle.a"), e.getMessage());
+    }
+  }
+  
+}
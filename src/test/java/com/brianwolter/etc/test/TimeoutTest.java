@@ -0,0 +1,153 @@
+// 
+// Copyright (c) 2014 Brian William Wolter, All rights reserved.
+// Etcd - an etcd SDK for Java
+// 
+// Redistribution and use in source and binary forms, with or without modification,
+// are permitted provided that the following conditions are met:
+// 
+//   * Redistributions of source code must retain the above copyright notice, this
+//     list of conditions and the following disclaimer.
+// 
+//   * Redistributions in binary form must reproduce the above copyright notice,
+//     this list of conditions and the following disclaimer in the documentation
+//     and/or other materials provided with the distribution.
+//     
+//   * Neither the names of Brian William Wolter, Wolter Group New York, nor the
+//     names of its contributors may be used to endorse or promote products derived
+//     from this software without specific prior written permission.
+//     
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+// IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+// INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+// BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+// LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+// OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+// 
+
+package com.brianwolter.etc.test;
+
+import static org.testng.Assert.*;
+
+import org.testng.annotations.Test;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.AfterClass;
+
+import java.net.SocketTimeoutException;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.brianwolter.etc.Config;
+import com.brianwolter.etc.provider.EtcdProvider;
+import com.brianwolter.etc.tool.EtcdStub;
+
+/**
+ * Read timeout tests
+ */
+public class TimeoutTest {
+  
+  private EtcdStub  stub;
+  
+  @BeforeClass
+  public void setUp() throws Exception {
+    stub = new EtcdStub().start();
+  }
+  
+  @AfterClass
+  public void tearDown() throws Exception {
+    stub.close();
+  }
+  
+  @Test
+  public void testDeadline() throws Exception {
+    stub.set("timeout.deadline", "value");
+    
+    Config config = new Config(new EtcdProvider(stub.host(), stub.port())).setTimeout(100, TimeUnit.MILLISECONDS);
+    assertEquals(config.getTimeout(TimeUnit.MILLISECONDS), 100);
+    
+    stub.setLatency(2, TimeUnit.SECONDS);
+    try {
+      
+      // a stalled provider produces the default, promptly
+      long start = System.nanoTime();
+      assertEquals(config.get("timeout.deadline", String.class, "default").get(), "default");
+      assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+      assertEquals(config.timeouts(), 1);
+      
+      // an explicit timeout overrides the configuration's
+      start = System.nanoTime();
+      assertNull(config.get("timeout.deadline").get(50, TimeUnit.MILLISECONDS));
+      assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+      assertEquals(config.timeouts(), 2);
+      
+    }finally{
+      stub.setLatency(0, TimeUnit.MILLISECONDS);
+    }
+    
+    // nothing was cached, so the value resolves once the provider recovers
+    assertEquals(config.get("timeout.deadline").get(5, TimeUnit.SECONDS), "value");
+    
+  }
+  
+  @Test
+  public void testLastKnown() throws Exception {
+    stub.set("timeout.known", "known");
+    
+    Config config = new Config(new EtcdProvider(stub.host(), stub.port()));
+    assertEquals(config.get("timeout.known").get(), "known");
+    
+    stub.setLatency(2, TimeUnit.SECONDS);
+    try {
+      // another value for the same key falls back to the last one published
+      assertEquals(config.get("timeout.known").get(100, TimeUnit.MILLISECONDS), "known");
+      assertEquals(config.timeouts(), 1);
+    }finally{
+      stub.setLatency(0, TimeUnit.MILLISECONDS);
+    }
+    
+  }
+  
+  @Test
+  public void testProvider() throws Exception {
+    stub.set("timeout.provider", "value");
+    
+    EtcdProvider provider;
+    System.setProperty("etc.provider.etcd.readtimeout", "0.1");
+    try {
+      provider = new EtcdProvider(stub.host(), stub.port());
+    }finally{
+      System.clearProperty("etc.provider.etcd.readtimeout");
+    }
+    
+    stub.setLatency(2, TimeUnit.SECONDS);
+    try {
+      
+      try {
+        provider.get("timeout.provider", 100, TimeUnit.MILLISECONDS);
+        fail("A stalled read must time out");
+      }catch(TimeoutException e){
+        // expected
+      }
+      
+      // reads without a deadline are bounded by the read timeout
+      long start = System.nanoTime();
+      try {
+        provider.get("timeout.provider");
+        fail("A stalled read must time out");
+      }catch(SocketTimeoutException e){
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+      }
+      
+    }finally{
+      stub.setLatency(0, TimeUnit.MILLISECONDS);
+    }
+    
+    assertEquals(provider.get("timeout.provider", 1, TimeUnit.SECONDS).value(), "value");
+    
+  }
+  
+}
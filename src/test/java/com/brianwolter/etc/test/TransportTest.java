@@ -0,0 +1,185 @@
+// 
+// Copyright (c) 2014 Brian William Wolter, All rights reserved.
+// Etcd - an etcd SDK for Java
+// 
+// Redistribution and use in source and binary forms, with or without modification,
+// are permitted provided that the following conditions are met:
+// 
+//   * Redistributions of source code must retain the above copyright notice, this
+//     list of conditions and the following disclaimer.
+// 
+//   * Redistributions in binary form must reproduce the above copyright notice,
+//     this list of conditions and the following disclaimer in the documentation
+//     and/or other materials provided with the distribution.
+//     
+//   * Neither the names of Brian William Wolter, Wolter Group New York, nor the
+//     names of its contributors may be used to endorse or promote products derived
+//     from this software without specific prior written permission.
+//     
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+// IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+// INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+// BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+// LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+// OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+// 
+
+package com.brianwolter.etc.test;
+
+import static org.testng.Assert.*;
+
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.net.ConnectException;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import com.brianwolter.etc.Config;
+import com.brianwolter.etc.provider.EtcdProvider;
+import com.brianwolter.etc.tool.EtcdStub;
+import com.brianwolter.etc.transport.Transport;
+import com.brianwolter.etc.transport.ApacheTransport;
+import com.brianwolter.etc.transport.JdkTransport;
+import com.brianwolter.etc.transport.Request;
+import com.brianwolter.etc.transport.Response;
+import com.brianwolter.etc.util.Property;
+
+/**
+ * Transport tests. Each transport gets its own stub, since the watches left behind
+ * would confuse other tests.
+ */
+public class TransportTest {
+  
+  @Test
+  public void testApache() throws Exception {
+    EtcdStub stub = new EtcdStub().start();
+    try {
+      exercise(stub, new ApacheTransport());
+    }finally{
+      stub.close();
+    }
+  }
+  
+  @Test
+  public void testJdk() throws Exception {
+    EtcdStub stub = new EtcdStub().start();
+    try {
+      exercise(stub, new JdkTransport());
+    }finally{
+      stub.close();
+    }
+  }
+  
+  @Test
+  public void testMemory() throws Exception {
+    // the stub isn't started; nothing goes over the network
+    EtcdStub stub = new EtcdStub();
+    try {
+      exercise(stub, stub.transport());
+    }finally{
+      stub.close();
+    }
+  }
+  
+  @Test
+  public void testMemoryDropped() throws Exception {
+    EtcdStub stub = new EtcdStub();
+    try {
+      EtcdProvider provider = new EtcdProvider(stub.host(), stub.port(), stub.transport());
+      stub.set("transport.dropped", "value");
+      
+      // a watch which is dropped reconnects, as it would over the network
+      ListenableFuture<Property> future = provider.watch("transport.dropped", provider.get("transport.dropped"));
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+      while(stub.watches() < 1 && System.nanoTime() < deadline) Thread.sleep(10);
+      stub.dropWatches();
+      while(provider.reconnects() < 1 && System.nanoTime() < deadline) Thread.sleep(10);
+      assertEquals(provider.reconnects(), 1);
+      while(stub.watches() < 1 && System.nanoTime() < deadline) Thread.sleep(10);
+      stub.set("transport.dropped", "changed");
+      assertEquals(future.get(10, TimeUnit.SECONDS).value(), "changed");
+      
+    }finally{
+      stub.close();
+    }
+  }
+  
+  @Test
+  public void testConnectFailed() throws Exception {
+    final AtomicInteger requests = new AtomicInteger();
+    EtcdProvider provider = new EtcdProvider("localhost", 4001, new Transport() {
+      public String scheme() {
+        return "http";
+      }
+      public ListenableFuture<Response> execute(Request request) {
+        requests.incrementAndGet();
+        return Futures.immediateFailedFuture(new ConnectException("Connect timed out"));
+      }
+      public void close() throws IOException {
+        // nothing to do
+      }
+    });
+    
+    // a watch which can't connect backs off rather than being reissued immediately,
+    // as it would be if it were a long poll which expired
+    ListenableFuture<Property> future = provider.watch("transport.unreachable", null);
+    Thread.sleep(500);
+    future.cancel(true);
+    assertTrue(requests.get() < 10);
+    assertTrue(provider.reconnects() < 10);
+  }
+  
+  /**
+   * Exercise a provider using the specified transport
+   */
+  private void exercise(EtcdStub stub, Transport transport) throws Exception {
+    EtcdProvider provider = new EtcdProvider(stub.host(), stub.port(), transport);
+    assertSame(provider.transport(), transport);
+    assertEquals(provider.scheme(), "http");
+    
+    // reads and writes
+    assertNull(provider.get("transport.missing"));
+    assertEquals(provider.set("transport.a.value", "one two&three").value(), "one two&three");
+    assertEquals(provider.get("transport.a.value").value(), "one two&three");
+    provider.set("transport.a.other", "other");
+    @SuppressWarnings("unchecked")
+    Map<String, Property> values = (Map<String, Property>)provider.list("transport.a").value();
+    assertEquals(values.size(), 2);
+    assertEquals(values.get("other").value(), "other");
+    
+    // watches
+    Config config = new Config(provider);
+    Config.Value<String> value = config.get("transport.a.value", String.class).autoUpdate();
+    assertEquals(value.get(), "one two&three");
+    ListenableFuture<String> future = value.watch();
+    stub.set("transport.a.value", "changed");
+    assertEquals(future.get(10, TimeUnit.SECONDS), "changed");
+    value.cancel();
+    
+    // reads are bounded by their deadline
+    stub.setLatency(2, TimeUnit.SECONDS);
+    long start = System.nanoTime();
+    try {
+      provider.get("transport.a.value", 100, TimeUnit.MILLISECONDS);
+      fail("Read did not time out");
+    }catch(TimeoutException e){
+      assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+    }finally{
+      stub.setLatency(0, TimeUnit.SECONDS);
+    }
+    
+    transport.close();
+  }
+  
+}
@@ -33,6 +33,10 @@ package com.brianwolter.etc.test;
 import static org.testng.Assert.*;
 
 import org.testng.annotations.Test;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.AfterMethod;
 
 import java.net.URI;
 import java.net.URISyntaxException;
@@ -43,6 +47,11 @@ import java.util.ArrayList;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
@@ -67,19 +76,54 @@ import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 
 import com.brianwolter.etc.Config;
+import com.brianwolter.etc.ConfigException;
+import com.brianwolter.etc.Validator;
+import com.brianwolter.etc.Marshaler;
 import com.brianwolter.etc.util.Property;
 import com.brianwolter.etc.provider.EtcdProvider;
 import com.brianwolter.etc.provider.SystemProvider;
+import com.brianwolter.etc.tool.EtcdStub;
 
 /**
  * Tests
  */
 public class ValueTest {
   
-  private static final Config           config    = new Config(new SystemProvider(), new EtcdProvider());
   private static final ExecutorService  executor  = Executors.newSingleThreadExecutor();
   
-  //@Test
+  private EtcdStub  stub;
+  private Config    config;
+  private EtcdStub  isolated;
+  private Config    isolatedConfig;
+  
+  @BeforeClass
+  public void setUp() throws Exception {
+    stub = new EtcdStub().start();
+    config = new Config(new SystemProvider(), new EtcdProvider(stub.host(), stub.port()));
+  }
+  
+  @AfterClass
+  public void tearDown() throws Exception {
+    stub.close();
+  }
+  
+  /**
+   * Tests which leave watches behind, or abandon them, use a stub of their own
+   * instead of the shared one, whose watch counts would otherwise confuse the
+   * tests which follow.
+   */
+  @BeforeMethod
+  public void setUpIsolated() throws Exception {
+    isolated = new EtcdStub().start();
+    isolatedConfig = new Config(new EtcdProvider(isolated.host(), isolated.port()));
+  }
+  
+  @AfterMethod
+  public void tearDownIsolated() throws Exception {
+    isolated.close();
+  }
+  
+  @Test
   public void testAsyncHTTP() throws Exception {
     List<String> keys = new ArrayList<String>();
     int base = 11, count = 5;
@@ -103,10 +147,11 @@ public class ValueTest {
     try {
       
       final CountDownLatch latch = new CountDownLatch(keys.size());
+      final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
       
       for(String key : keys){
         // URI for our key
-        URI uri = new URI("http", null, "localhost", 4001, String.format("/v2/keys/%s", EtcdProvider.keyToPath(key)), "wait=true", null);
+        URI uri = new URI("http", null, stub.host(), stub.port(), String.format("/v2/keys/%s", EtcdProvider.keyToPath(key)), "wait=true", null);
         // setup our request
         final HttpGet get = new HttpGet(uri);
         // note it for debugging
@@ -119,6 +164,7 @@ public class ValueTest {
           }
           public void failed(Exception e) {
             e.printStackTrace();
+            failure.compareAndSet(null, e);
             latch.countDown();
           }
           public void cancelled() {
@@ -128,7 +174,12 @@ public class ValueTest {
         });
       }
       
-      latch.await();
+      // wait for the watches to be established and then trigger them
+      for(String key : keys) while(stub.watches(key) < 1) Thread.sleep(10);
+      for(String key : keys) stub.set(key, "changed");
+      
+      assertTrue(latch.await(30, TimeUnit.SECONDS));
+      assertNull(failure.get());
       
     }finally{
       httpclient.close();
@@ -136,32 +187,38 @@ public class ValueTest {
     
   }
   
-  //@Test
+  @Test
   public void testEtcd() throws Exception {
-    EtcdProvider provider = new EtcdProvider();
+    EtcdProvider provider = new EtcdProvider(stub.host(), stub.port());
     List<String> keys = new ArrayList<String>();
-    int base = 11, count = 5;
+    int base = 21, count = 5;
     
     for(int i = 0; i < count; i++){
       keys.add(String.format("test.watch.%d", base + i));
     }
     
     final CountDownLatch latch = new CountDownLatch(keys.size());
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
     
     for(String key : keys){
       Futures.addCallback(provider.watch(key, null), new com.google.common.util.concurrent.FutureCallback<Property>() {
         public void onSuccess(Property property) {
-          System.err.println("--> "+ property);
+          System.err.println("--> "+ property.value());
           latch.countDown();
         }
         public void onFailure(Throwable thrown) {
           thrown.printStackTrace();
+          failure.compareAndSet(null, thrown);
           latch.countDown();
         }
       }, executor);
     }
     
-    latch.await();
+    for(String key : keys) while(stub.watches(key) < 1) Thread.sleep(10);
+    for(String key : keys) provider.set(key, "changed");
+    
+    assertTrue(latch.await(30, TimeUnit.SECONDS));
+    assertNull(failure.get());
     
   }
   
@@ -170,6 +227,7 @@ public class ValueTest {
     Config.Value value = config.get("test.1");
     System.err.println("--> "+ value.get());
     System.err.println("--> "+ value.set("This is the new value now."));
+    assertEquals(config.get("test.1").get(), "This is the new value now.");
   }
   
   @Test
@@ -191,19 +249,304 @@ public class ValueTest {
         }
         public void onFailure(Throwable thrown) {
           thrown.printStackTrace();
-          latch.countDown();
         }
       }, executor);
     }
     
-    latch.await();
+    for(int i = 0; i < count; i++) while(stub.watches(String.format("test.watch.%d", base + i)) < 1) Thread.sleep(10);
+    for(int i = 0; i < count; i++){
+      stub.set(String.format("test.watch.%d", base + i), "changed");
+    }
+    
+    assertTrue(latch.await(30, TimeUnit.SECONDS));
+    
+  }
+  
+  @Test
+  public void testIndexCleared() throws Exception {
+    EtcdProvider provider = new EtcdProvider(stub.host(), stub.port());
+    for(int i = 0; i < 1100; i++) stub.set("test.cleared", String.valueOf(i));
+    try {
+      provider.watch("test.cleared", new EtcdProvider.Result(null, 0, 1)).get(30, TimeUnit.SECONDS);
+      fail("Watch should fail when its index has been cleared");
+    }catch(java.util.concurrent.ExecutionException e){
+      assertTrue(e.getCause().getMessage().contains("outdated and cleared"));
+    }
+  }
+  
+  @Test
+  public void testExpiration() throws Exception {
+    Config.Value<String> value = config.get("test.expiring", String.class, "expired").autoUpdate();
+    assertEquals(value.set("alive", 1, TimeUnit.SECONDS), "alive");
+    assertEquals(value.get(), "alive");
+    
+    // the value expires locally, without asking etcd
+    stub.setLatency(5, TimeUnit.SECONDS);
+    try {
+      Thread.sleep(1500);
+      long start = System.nanoTime();
+      assertEquals(value.get(), "expired");
+      assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+    }finally{
+      stub.setLatency(0, TimeUnit.SECONDS);
+    }
+  }
+  
+  @Test
+  public void testKeepAlive() throws Exception {
+    EtcdProvider provider = new EtcdProvider(stub.host(), stub.port());
+    EtcdProvider.Lease lease = provider.keepAlive("test.lease", "alive", 1, TimeUnit.SECONDS);
+    Thread.sleep(2500);
+    assertEquals(provider.get("test.lease").value(), "alive");
+    
+    // a leased key which is removed is recreated
+    stub.delete("test.lease");
+    long deadline = System.currentTimeMillis() + 5000;
+    while(provider.get("test.lease") == null && System.currentTimeMillis() < deadline) Thread.sleep(50);
+    assertEquals(provider.get("test.lease").value(), "alive");
     
+    lease.cancel();
+    Thread.sleep(2000);
+    assertNull(provider.get("test.lease"));
   }
   
   @Test
   public void testNotFound() throws Exception {
     Config.Value value = config.get("test.invalid");
     System.err.println("--> "+ value.get());
+    assertNull(value.get());
+  }
+  
+  @Test
+  public void testUnreachable() throws Exception {
+    isolated.set("test.unreachable", "value");
+    
+    Config.Value<String> retained = isolatedConfig.get("test.unreachable", String.class).autoUpdate();
+    retained.get();
+    
+    List<Config.Value<String>> values = new ArrayList<Config.Value<String>>();
+    for(int i = 0; i < 100; i++){
+      Config.Value<String> value = isolatedConfig.get("test.unreachable", String.class).autoUpdate();
+      value.get();
+      values.add(value);
+    }
+    assertEquals(isolatedConfig.values(), 101);
+    assertEquals(isolatedConfig.watches(), 101);
+    
+    // values which are no longer reachable are collected and stop watching
+    values = null;
+    long deadline = System.currentTimeMillis() + 30000;
+    while(isolatedConfig.values() > 1 && System.currentTimeMillis() < deadline){
+      System.gc();
+      Thread.sleep(50);
+    }
+    assertEquals(isolatedConfig.values(), 1);
+    assertEquals(isolatedConfig.watches(), 1);
+    
+    // the reachable one still updates
+    ListenableFuture<String> future = retained.watch();
+    isolated.set("test.unreachable", "updated");
+    assertEquals(future.get(30, TimeUnit.SECONDS), "updated");
+  }
+  
+  @Test
+  public void testCancel() throws Exception {
+    final EtcdProvider provider;
+    System.setProperty("etc.provider.etcd.maxconn", "1");
+    try {
+      provider = new EtcdProvider(isolated.host(), isolated.port());
+    }finally{
+      System.clearProperty("etc.provider.etcd.maxconn");
+    }
+    
+    // a watch holds the only connection until it is cancelled
+    isolated.set("test.cancel", "value");
+    ListenableFuture<Property> watch = provider.watch("test.cancel", provider.get("test.cancel"));
+    watch.cancel(true);
+    
+    // if the request wasn't aborted this would wait for the long poll to time out
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<Property> get = executor.submit(new Callable<Property>() {
+        public Property call() throws Exception {
+          return provider.get("test.cancel");
+        }
+      });
+      assertEquals(get.get(10, TimeUnit.SECONDS).value(), "value");
+    }finally{
+      executor.shutdownNow();
+    }
+    
+    // cancelling a value stops it updating and retains its value
+    Config config = new Config(provider);
+    Config.Value<String> value = config.get("test.cancel", String.class).autoUpdate();
+    assertEquals(value.get(), "value");
+    assertEquals(config.watches(), 1);
+    value.cancel();
+    assertEquals(config.watches(), 0);
+    assertEquals(provider.get("test.cancel").value(), "value");
+    assertEquals(value.get(), "value");
+  }
+  
+  
+  @Test
+  public void testHistoryCleared() throws Exception {
+    isolated.set("test.history", "0");
+    Config.Value<String> value = isolatedConfig.get("test.history", String.class).autoUpdate();
+    assertEquals(value.get(), "0");
+    ListenableFuture<String> future = value.watch();
+    isolated.set("test.history", "1");
+    assertEquals(future.get(10, TimeUnit.SECONDS), "1");
+    while(isolated.watches("test.history") < 1) Thread.sleep(10);
+    
+    // push the change we're watching from out of the history, then drop our watch
+    // so it has to be reissued from there
+    for(int i = 0; i < 1100; i++) isolated.set("test.history.other", String.valueOf(i));
+    future = value.watch();
+    isolated.dropWatches();
+    try {
+      future.get(10, TimeUnit.SECONDS);
+      fail("Watch from a cleared index did not fail");
+    }catch(ExecutionException e){ /* expected */ }
+    
+    // we recover rather than watching from the cleared index forever
+    assertEquals(value.get(), "1");
+    future = value.watch();
+    for(int i = 2; !future.isDone() && i < 100; i++){
+      isolated.set("test.history", String.valueOf(i));
+      Thread.sleep(100);
+    }
+    assertNotEquals(future.get(10, TimeUnit.SECONDS), "1");
+    value.cancel();
+  }
+  
+  @Test
+  public void testDebounce() throws Exception {
+    Counting marshaler = new Counting();
+    isolated.set("test.debounce", "0");
+    Config.Value<String> value = isolatedConfig.get("test.debounce", marshaler).autoUpdate().debounce(300, TimeUnit.MILLISECONDS);
+    assertEquals(value.get(), "0");
+    
+    // a burst of changes is delivered once, as the last of them, after it settles
+    ListenableFuture<String> future = value.watch();
+    for(int i = 1; i <= 5; i++){
+      isolated.set("test.debounce", String.valueOf(i));
+      Thread.sleep(50);
+    }
+    assertFalse(future.isDone());
+    assertEquals(value.get(), "0");
+    assertEquals(future.get(10, TimeUnit.SECONDS), "5");
+    assertEquals(value.get(), "5");
+    
+    // intermediate values were never unmarshaled
+    assertEquals(marshaler.count, 2);
+    value.cancel();
+  }
+  
+  @Test
+  public void testThrottle() throws Exception {
+    Counting marshaler = new Counting();
+    isolated.set("test.throttle", "0");
+    Config.Value<String> value = isolatedConfig.get("test.throttle", marshaler).autoUpdate().throttle(500, TimeUnit.MILLISECONDS);
+    assertEquals(value.get(), "0");
+    
+    // the first change is delivered immediately
+    ListenableFuture<String> future = value.watch();
+    long start = System.nanoTime();
+    isolated.set("test.throttle", "1");
+    assertEquals(future.get(10, TimeUnit.SECONDS), "1");
+    assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(450));
+    
+    // those which follow too soon are held, and only the latest is delivered
+    future = value.watch();
+    isolated.set("test.throttle", "2");
+    isolated.set("test.throttle", "3");
+    assertEquals(future.get(10, TimeUnit.SECONDS), "3");
+    assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(500));
+    assertEquals(marshaler.count, 3);
+    value.cancel();
+  }
+  
+  @Test
+  public void testValidate() throws Exception {
+    isolatedConfig.validate("test.validate.", new Validator<Object>() {
+      public void validate(String key, Object value) {
+        if(value == null) throw new ConfigException("Value is required: "+ key);
+      }
+    });
+    
+    isolated.set("test.validate.port", "8080");
+    Config.Value<Integer> value = isolatedConfig.get("test.validate.port", Integer.class).autoUpdate().validate(new Validator<Integer>() {
+      public void validate(String key, Integer value) {
+        if(value != null && (value < 1 || value > 65535)) throw new ConfigException("Port is out of range: "+ value);
+      }
+    });
+    assertEquals(value.get(), Integer.valueOf(8080));
+    
+    // a value which can't be unmarshaled, one which is out of range and a removal
+    // are all rejected, and the value is retained
+    ListenableFuture<Integer> future = value.watch();
+    isolated.set("test.validate.port", "80800");
+    isolated.set("test.validate.port", "eighty");
+    isolated.delete("test.validate.port");
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while(value.rejections() < 3 && System.nanoTime() < deadline) Thread.sleep(10);
+    assertEquals(value.rejections(), 3);
+    assertEquals(isolatedConfig.rejections(), 3);
+    assertFalse(future.isDone());
+    assertEquals(value.get(), Integer.valueOf(8080));
+    
+    // and we continue monitoring beyond them
+    isolated.set("test.validate.port", "8081");
+    assertEquals(future.get(10, TimeUnit.SECONDS), Integer.valueOf(8081));
+    
+    // invalid values are not set
+    try {
+      value.set(0);
+      fail("Invalid value was set");
+    }catch(ConfigException e){ /* expected */ }
+    assertEquals(value.get(), Integer.valueOf(8081));
+    
+    // an invalid value which is read initially produces the default
+    isolated.set("test.validate.other", "-1");
+    Config.Value<Integer> other = isolatedConfig.get("test.validate.other", Integer.class, 443).autoUpdate().validate(new Validator<Integer>() {
+      public void validate(String key, Integer value) {
+        if(value != null && value < 0) throw new ConfigException("Negative: "+ value);
+      }
+    });
+    assertEquals(other.get(), Integer.valueOf(443));
+    assertEquals(isolatedConfig.rejections(), 4);
+    
+    // and it isn't read again until a new value is delivered
+    ListenableFuture<Integer> updated = other.watch();
+    long requests = isolated.requests();
+    for(int i = 0; i < 10; i++) assertEquals(other.get(), Integer.valueOf(443));
+    assertEquals(isolated.requests(), requests);
+    assertEquals(other.rejections(), 1);
+    isolated.set("test.validate.other", "8443");
+    assertEquals(updated.get(10, TimeUnit.SECONDS), Integer.valueOf(8443));
+    assertEquals(other.get(), Integer.valueOf(8443));
+    
+    other.cancel();
+    value.cancel();
+  }
+  
+  /**
+   * A marshaler which counts what it unmarshals
+   */
+  private static class Counting implements Marshaler<String> {
+    
+    private volatile int count;
+    
+    public String unmarshal(Object o) {
+      count++;
+      return (o != null) ? o.toString() : null;
+    }
+    
+    public Object marshal(String o) {
+      return o;
+    }
+    
   }
   
 }
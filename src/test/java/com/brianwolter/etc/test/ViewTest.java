@@ -0,0 +1,124 @@
+// 
+// Copyright (c) 2014 Brian William Wolter, All rights reserved.
+// Etcd - an etcd SDK for Java
+// 
+// Redistribution and use in source and binary forms, with or without modification,
+// are permitted provided that the following conditions are met:
+// 
+//   * Redistributions of source code must retain the above copyright notice, this
+//     list of conditions and the following disclaimer.
+// 
+//   * Redistributions in binary form must reproduce the above copyright notice,
+//     this list of conditions and the following disclaimer in the documentation
+//     and/or other materials provided with the distribution.
+//     
+//   * Neither the names of Brian William Wolter, Wolter Group New York, nor the
+//     names of its contributors may be used to endorse or promote products derived
+//     from this software without specific prior written permission.
+//     
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+// IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+// INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+// BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+// LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+// OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+// 
+
+package com.brianwolter.etc.test;
+
+import static org.testng.Assert.*;
+
+import org.testng.annotations.Test;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.AfterClass;
+
+import java.util.Map;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import com.brianwolter.etc.Config;
+import com.brianwolter.etc.provider.EtcdProvider;
+import com.brianwolter.etc.provider.SystemProvider;
+import com.brianwolter.etc.tool.EtcdStub;
+
+/**
+ * View tests
+ */
+public class ViewTest {
+  
+  private EtcdStub  stub;
+  private Config    config;
+  
+  @BeforeClass
+  public void setUp() throws Exception {
+    stub = new EtcdStub().start();
+    config = new Config(new SystemProvider(), new EtcdProvider(stub.host(), stub.port()));
+  }
+  
+  @AfterClass
+  public void tearDown() throws Exception {
+    stub.close();
+  }
+  
+  @Test
+  public void testView() throws Exception {
+    stub.set("view.db.pool.min", "4");
+    stub.set("view.db.pool.max", "16");
+    stub.set("view.db.host", "localhost");
+    System.setProperty("view.db.pool.max", "32");
+    
+    Config.View view = config.view("view.db");
+    Map<String, Object> values = view.get();
+    assertEquals(values.size(), 3);
+    assertEquals(view.get("pool.min", Integer.class), Integer.valueOf(4));
+    assertEquals(view.get("pool.max", Integer.class), Integer.valueOf(32));
+    assertEquals(view.view("pool").get("min"), "4");
+    
+    assertEquals(config.snapshot().get("view.db.host"), "localhost");
+  }
+  
+  @Test
+  public void testBind() throws Exception {
+    stub.set("bind.db.pool.min", "4");
+    stub.set("bind.db.pool.max", "16");
+    
+    Config.Binding<Pool> binding = config.view("bind.db.pool").bind(Pool.class);
+    Pool pool = binding.get();
+    assertEquals(pool.min, 4);
+    assertEquals(pool.max, 16);
+    
+    long requests = stub.requests();
+    
+    ListenableFuture<Pool> future = binding.watch();
+    stub.set("bind.db.pool.max", "64");
+    
+    Pool updated = future.get(30, TimeUnit.SECONDS);
+    assertSame(binding.get(), updated);
+    assertEquals(updated.min, 4);
+    assertEquals(updated.max, 64);
+    assertEquals(pool.max, 16);
+    
+    future = binding.watch();
+    stub.set("bind.db.pool.min", "8");
+    assertEquals(future.get(30, TimeUnit.SECONDS).min, 8);
+    future = binding.watch();
+    stub.delete("bind.db.pool.min");
+    assertEquals(future.get(30, TimeUnit.SECONDS).min, 0);
+    
+    // nothing was re-listed; each change costs one watch request, allowing for the
+    // first watch and a pooled connection which had to be reestablished
+    assertTrue(stub.requests() - requests <= 5);
+  }
+  
+  private static class Pool {
+    private int min;
+    private int max;
+  }
+  
+}